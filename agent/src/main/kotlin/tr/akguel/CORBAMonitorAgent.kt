@@ -2,8 +2,8 @@ package tr.akguel
 import org.omg.CORBA.ORB
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
-import tr.akguel.api.MonitorApiClient
 import tr.akguel.config.MonitorConfig
+import tr.akguel.interceptor.TrafficRecorder
 import tr.akguel.nameserver.NameserverScanner
 import java.util.*
 import kotlin.Array
@@ -32,13 +32,14 @@ import kotlin.Exception
  * -cp "your-app.jar:corba-interceptor.jar" \
  * com.yourapp.Main
  *
- * In both modes, traffic events are sent asynchronously to the Laravel Monitor API.
+ * In both modes, traffic events are sent asynchronously to the Laravel Monitor API
+ * (or to the exporter selected by monitor.exporter).
  */
 class CORBAMonitorAgent {
 
     private lateinit var orb: ORB
     private lateinit var scanner: NameserverScanner
-    private lateinit var apiClient: MonitorApiClient
+    private lateinit var recorder: TrafficRecorder
 
     fun start(args: Array<String>?) {
         log.info("╔══════════════════════════════════════════════════╗")
@@ -54,17 +55,14 @@ class CORBAMonitorAgent {
             return
         }
 
-        // Initialize API client
-        apiClient = MonitorApiClient.instance!!
+        // Initialize the exporter (HTTP API client by default)
+        recorder = TrafficRecorder.instance!!
 
         // Health check
-        if (apiClient.healthCheck()) {
-            log.info("✓ Monitor API Health is reachable at {}", config.healthEndpoint)
+        if (recorder.exporter.healthCheck()) {
+            log.info("✓ Traffic exporter '{}' is ready", recorder.exporter.name)
         } else {
-            log.warn(
-                "✗ Monitor API Health is NOT reachable at {} — events will be queued",
-                config.healthEndpoint
-            )
+            log.warn("✗ Traffic exporter '{}' is NOT ready — events will be queued", recorder.exporter.name)
         }
 
         // Initialize ORB with interceptor registration
@@ -135,19 +133,14 @@ class CORBAMonitorAgent {
 
         scanner.stop()
 
-        apiClient.shutdown()
+        recorder.shutdown()
 
         try {
             orb.shutdown(false)
         } catch (ignored: Exception) {
         }
 
-        log.info(
-            "Agent stopped. Stats: sent={}, failed={}, dropped={}",
-            apiClient.sentCount,
-            apiClient.failedCount,
-            apiClient.droppedCount
-        )
+        log.info("Agent stopped. Stats: {}", recorder.exporter.counters())
     }
 
     companion object {
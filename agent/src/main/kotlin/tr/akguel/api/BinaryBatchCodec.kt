@@ -0,0 +1,366 @@
+package tr.akguel.api
+
+import com.google.gson.Gson
+import com.google.gson.JsonParseException
+import com.google.gson.ToNumberPolicy
+import java.io.OutputStream
+import java.nio.BufferUnderflowException
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+import java.time.DateTimeException
+
+
+/**
+ * Compact binary encoding of a TrafficEvent batch (`monitor.http.format=binary`).
+ *
+ * Layout (varints are unsigned LEB128):
+ * ```
+ * byte[3]  magic "CMB"
+ * byte     schema version (1)
+ * varint   dictionary size, then per entry: varint length + UTF-8 bytes
+ * varint   event count
+ * per event:
+ *   varint length of the record that follows
+ *   varint field mask (bit n set = field n present, see FIELD_* constants)
+ *   present fields, in bit order:
+ *     dictionary field  varint index into the batch dictionary
+ *     string field      varint length + UTF-8 bytes
+ *     int field         varint
+ *     double field      8 bytes, IEEE 754 big-endian
+ *     JSON field        varint length + UTF-8 JSON (request/response/context data)
+ * ```
+ *
+ * The dictionary holds the repetitive strings of the batch (operation,
+ * interface, repository ID, hosts, service names and the enum-like fields),
+ * so each occurs once per batch. Records are length-prefixed: a decoder
+ * skips fields added by newer schema versions (higher mask bits) by jumping
+ * to the end of the record.
+ *
+ * JSON fields are decoded with lazily parsed numbers, so a batch converted
+ * back to JSON carries the same numbers as its direct JSON encoding.
+ */
+class BinaryBatchCodec(private val gson: Gson) {
+
+    private val jsonDecoder: Gson = gson.newBuilder().setObjectToNumberStrategy(ToNumberPolicy.LAZILY_PARSED_NUMBER).create()
+
+    /**
+     * Write [batch] to [out].
+     */
+    fun encode(batch: List<TrafficEvent>, out: OutputStream) {
+        val dictionary: MutableMap<String, Int> = LinkedHashMap()
+        for (event in batch) {
+            for (field in DICTIONARY_FIELDS) {
+                val value = dictionaryValue(event, field) ?: continue
+                dictionary.putIfAbsent(value, dictionary.size)
+            }
+        }
+
+        out.write(MAGIC)
+        out.write(VERSION.toInt())
+        writeVarint(out, dictionary.size.toLong())
+        for (value in dictionary.keys) {
+            writeString(out, value)
+        }
+
+        writeVarint(out, batch.size.toLong())
+        val record = RecordBuffer()
+        for (event in batch) {
+            record.reset()
+            writeRecord(event, dictionary, record)
+            writeVarint(out, record.size().toLong())
+            out.write(record.array(), 0, record.size())
+        }
+    }
+
+    private fun writeRecord(event: TrafficEvent, dictionary: Map<String, Int>, out: OutputStream) {
+        var mask = 0L
+        val values = arrayOfNulls<Any>(FIELD_COUNT)
+        values[FIELD_REQUEST_ID] = event.requestId
+        values[FIELD_OPERATION] = event.operation
+        values[FIELD_INTERFACE_NAME] = event.interfaceName
+        values[FIELD_REPOSITORY_ID] = event.repositoryId
+        values[FIELD_DIRECTION] = event.direction
+        values[FIELD_STATUS] = event.status
+        values[FIELD_SOURCE_HOST] = event.sourceHost
+        values[FIELD_SOURCE_PORT] = event.sourcePort
+        values[FIELD_TARGET_HOST] = event.targetHost
+        values[FIELD_TARGET_PORT] = event.targetPort
+        values[FIELD_SOURCE_SERVICE] = event.sourceServiceName
+        values[FIELD_TARGET_SERVICE] = event.targetServiceName
+        values[FIELD_REQUEST_DATA] = event.requestData
+        values[FIELD_RESPONSE_DATA] = event.responseData
+        values[FIELD_ERROR_MESSAGE] = event.errorMessage
+        values[FIELD_EXCEPTION_TYPE] = event.exceptionType
+        values[FIELD_LATENCY_MS] = event.latencyMs
+        values[FIELD_GIOP_VERSION] = event.giopVersion
+        values[FIELD_MESSAGE_TYPE] = event.messageType
+        values[FIELD_REQUEST_SIZE] = event.requestSizeBytes
+        values[FIELD_RESPONSE_SIZE] = event.responseSizeBytes
+        values[FIELD_INTERCEPTOR_POINT] = event.interceptorPoint
+        values[FIELD_CONTEXT_DATA] = event.contextData
+        values[FIELD_TIMESTAMP] = event.timestamp
+        values[FIELD_STARTED_AT] = event.startedAt
+        values[FIELD_SAMPLE_WEIGHT] = event.sampleWeight
+        for (i in 0 until FIELD_COUNT) {
+            if (values[i] != null) mask = mask or (1L shl i)
+        }
+
+        writeVarint(out, mask)
+        for (i in 0 until FIELD_COUNT) {
+            val value = values[i] ?: continue
+            when (FIELD_TYPES[i]) {
+                TYPE_DICTIONARY -> writeVarint(out, dictionary.getValue(value as String).toLong())
+                TYPE_STRING -> writeString(out, value as String)
+                TYPE_INT -> writeVarint(out, (value as Int).toLong())
+                TYPE_DOUBLE -> writeDouble(out, value as Double)
+                TYPE_JSON -> writeString(out, gson.toJson(value))
+            }
+        }
+    }
+
+    /**
+     * Read a batch written by [encode].
+     *
+     * @throws IllegalArgumentException if the payload is not a supported binary batch, or is truncated or corrupt
+     */
+    fun decode(payload: ByteArray, offset: Int = 0, length: Int = payload.size - offset): List<TrafficEvent> {
+        try {
+            return decodeBatch(ByteBuffer.wrap(payload, offset, length))
+        } catch (e: BufferUnderflowException) {
+            throw IllegalArgumentException("Truncated binary traffic batch", e)
+        } catch (e: IndexOutOfBoundsException) {
+            throw IllegalArgumentException("Corrupt binary traffic batch: ${e.message}", e)
+        } catch (e: JsonParseException) {
+            throw IllegalArgumentException("Corrupt JSON field in binary traffic batch: ${e.message}", e)
+        } catch (e: DateTimeException) {
+            throw IllegalArgumentException("Corrupt timestamp in binary traffic batch: ${e.message}", e)
+        }
+    }
+
+    private fun decodeBatch(buf: ByteBuffer): List<TrafficEvent> {
+        require(buf.remaining() >= 4 && buf.get() == MAGIC[0] && buf.get() == MAGIC[1] && buf.get() == MAGIC[2]) {
+            "Not a binary traffic batch"
+        }
+        val version = buf.get()
+        require(version == VERSION) { "Unsupported binary batch version $version" }
+
+        // Every dictionary entry and record takes at least one byte, which bounds both counts
+        val dictionary = Array(readLength(buf)) { readString(buf) }
+        val count = readLength(buf)
+        val end = buf.limit()
+        val events: MutableList<TrafficEvent> = ArrayList(count)
+        for (n in 0 until count) {
+            val recordLength = readLength(buf)
+            val recordEnd = buf.position() + recordLength
+            // Fields must not run past their record
+            buf.limit(recordEnd)
+            val mask = readVarint(buf)
+            val event = TrafficEvent()
+            for (i in 0 until FIELD_COUNT) {
+                if ((mask and (1L shl i)) == 0L) continue
+                val value: Any = when (FIELD_TYPES[i]) {
+                    TYPE_DICTIONARY -> {
+                        val index = readVarint(buf)
+                        require(index >= 0 && index < dictionary.size) {
+                            "Dictionary index $index out of range (${dictionary.size} entries)"
+                        }
+                        dictionary[index.toInt()]
+                    }
+                    TYPE_STRING -> readString(buf)
+                    TYPE_INT -> readVarint(buf).toInt()
+                    TYPE_DOUBLE -> buf.getDouble()
+                    else -> jsonDecoder.fromJson(readString(buf), Any::class.java) ?: continue
+                }
+                apply(event, i, value)
+            }
+            if ((mask and (1L shl FIELD_TIMESTAMP)) == 0L) {
+                event.timestamp(null)
+            }
+            buf.limit(end)
+            buf.position(recordEnd)
+            events.add(event)
+        }
+        return events
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun apply(event: TrafficEvent, field: Int, value: Any) {
+        when (field) {
+            FIELD_REQUEST_ID -> event.requestId(value as String)
+            FIELD_OPERATION -> event.operation(value as String)
+            FIELD_INTERFACE_NAME -> event.interfaceName(value as String)
+            FIELD_REPOSITORY_ID -> event.repositoryId(value as String)
+            FIELD_DIRECTION -> event.direction(value as String)
+            FIELD_STATUS -> event.status(value as String)
+            FIELD_SOURCE_HOST -> event.sourceHost(value as String)
+            FIELD_SOURCE_PORT -> event.sourcePort(value as Int)
+            FIELD_TARGET_HOST -> event.targetHost(value as String)
+            FIELD_TARGET_PORT -> event.targetPort(value as Int)
+            FIELD_SOURCE_SERVICE -> event.sourceServiceName(value as String)
+            FIELD_TARGET_SERVICE -> event.targetServiceName(value as String)
+            FIELD_REQUEST_DATA -> event.requestData(value)
+            FIELD_RESPONSE_DATA -> event.responseData(value)
+            FIELD_ERROR_MESSAGE -> event.errorMessage(value as String)
+            FIELD_EXCEPTION_TYPE -> event.exceptionType(value as String)
+            FIELD_LATENCY_MS -> event.latencyMs(value as Double)
+            FIELD_GIOP_VERSION -> event.giopVersion(value as String)
+            FIELD_MESSAGE_TYPE -> event.messageType(value as String)
+            FIELD_REQUEST_SIZE -> event.requestSizeBytes(value as Int)
+            FIELD_RESPONSE_SIZE -> event.responseSizeBytes(value as Int)
+            FIELD_INTERCEPTOR_POINT -> event.interceptorPoint(value as String)
+            FIELD_CONTEXT_DATA -> event.contextData(value as? MutableMap<String, Any>)
+            FIELD_TIMESTAMP -> event.timestamp(value as String)
+            FIELD_STARTED_AT -> event.startedAt(value as String)
+            FIELD_SAMPLE_WEIGHT -> event.sampleWeight(value as Double)
+        }
+    }
+
+    private fun dictionaryValue(event: TrafficEvent, field: Int): String? {
+        return when (field) {
+            FIELD_OPERATION -> event.operation
+            FIELD_INTERFACE_NAME -> event.interfaceName
+            FIELD_REPOSITORY_ID -> event.repositoryId
+            FIELD_DIRECTION -> event.direction
+            FIELD_STATUS -> event.status
+            FIELD_SOURCE_HOST -> event.sourceHost
+            FIELD_TARGET_HOST -> event.targetHost
+            FIELD_SOURCE_SERVICE -> event.sourceServiceName
+            FIELD_TARGET_SERVICE -> event.targetServiceName
+            FIELD_EXCEPTION_TYPE -> event.exceptionType
+            FIELD_GIOP_VERSION -> event.giopVersion
+            FIELD_MESSAGE_TYPE -> event.messageType
+            FIELD_INTERCEPTOR_POINT -> event.interceptorPoint
+            else -> null
+        }
+    }
+
+    /** Reusable scratch buffer for one record, so its length can be written first. */
+    private class RecordBuffer : java.io.ByteArrayOutputStream(256) {
+        fun array(): ByteArray = buf
+    }
+
+    companion object {
+        const val CONTENT_TYPE = "application/x-corba-monitor-batch"
+
+        private val MAGIC = byteArrayOf('C'.code.toByte(), 'M'.code.toByte(), 'B'.code.toByte())
+        private const val VERSION: Byte = 1
+
+        private const val TYPE_DICTIONARY = 0
+        private const val TYPE_STRING = 1
+        private const val TYPE_INT = 2
+        private const val TYPE_DOUBLE = 3
+        private const val TYPE_JSON = 4
+
+        // Field bits; never renumber, only append
+        private const val FIELD_REQUEST_ID = 0
+        private const val FIELD_OPERATION = 1
+        private const val FIELD_INTERFACE_NAME = 2
+        private const val FIELD_REPOSITORY_ID = 3
+        private const val FIELD_DIRECTION = 4
+        private const val FIELD_STATUS = 5
+        private const val FIELD_SOURCE_HOST = 6
+        private const val FIELD_SOURCE_PORT = 7
+        private const val FIELD_TARGET_HOST = 8
+        private const val FIELD_TARGET_PORT = 9
+        private const val FIELD_SOURCE_SERVICE = 10
+        private const val FIELD_TARGET_SERVICE = 11
+        private const val FIELD_REQUEST_DATA = 12
+        private const val FIELD_RESPONSE_DATA = 13
+        private const val FIELD_ERROR_MESSAGE = 14
+        private const val FIELD_EXCEPTION_TYPE = 15
+        private const val FIELD_LATENCY_MS = 16
+        private const val FIELD_GIOP_VERSION = 17
+        private const val FIELD_MESSAGE_TYPE = 18
+        private const val FIELD_REQUEST_SIZE = 19
+        private const val FIELD_RESPONSE_SIZE = 20
+        private const val FIELD_INTERCEPTOR_POINT = 21
+        private const val FIELD_CONTEXT_DATA = 22
+        private const val FIELD_TIMESTAMP = 23
+        private const val FIELD_STARTED_AT = 24
+        private const val FIELD_SAMPLE_WEIGHT = 25
+        private const val FIELD_COUNT = 26
+
+        private val FIELD_TYPES = intArrayOf(
+            TYPE_STRING,      // request_id
+            TYPE_DICTIONARY,  // operation
+            TYPE_DICTIONARY,  // interface_name
+            TYPE_DICTIONARY,  // repository_id
+            TYPE_DICTIONARY,  // direction
+            TYPE_DICTIONARY,  // status
+            TYPE_DICTIONARY,  // source_host
+            TYPE_INT,         // source_port
+            TYPE_DICTIONARY,  // target_host
+            TYPE_INT,         // target_port
+            TYPE_DICTIONARY,  // source_service_name
+            TYPE_DICTIONARY,  // target_service_name
+            TYPE_JSON,        // request_data
+            TYPE_JSON,        // response_data
+            TYPE_STRING,      // error_message
+            TYPE_DICTIONARY,  // exception_type
+            TYPE_DOUBLE,      // latency_ms
+            TYPE_DICTIONARY,  // giop_version
+            TYPE_DICTIONARY,  // message_type
+            TYPE_INT,         // request_size_bytes
+            TYPE_INT,         // response_size_bytes
+            TYPE_DICTIONARY,  // interceptor_point
+            TYPE_JSON,        // context_data
+            TYPE_STRING,      // timestamp
+            TYPE_STRING,      // started_at
+            TYPE_DOUBLE       // sample_weight
+        )
+
+        private val DICTIONARY_FIELDS = (0 until FIELD_COUNT).filter { FIELD_TYPES[it] == TYPE_DICTIONARY }.toIntArray()
+
+        private fun writeVarint(out: OutputStream, value: Long) {
+            var v = value
+            while ((v and 0x7FL.inv()) != 0L) {
+                out.write(((v and 0x7F) or 0x80).toInt())
+                v = v ushr 7
+            }
+            out.write(v.toInt())
+        }
+
+        private fun readVarint(buf: ByteBuffer): Long {
+            var result = 0L
+            var shift = 0
+            while (shift < 64) {
+                val b = buf.get().toInt()
+                result = result or ((b and 0x7F).toLong() shl shift)
+                if ((b and 0x80) == 0) return result
+                shift += 7
+            }
+            throw IllegalArgumentException("Malformed varint")
+        }
+
+        private fun writeString(out: OutputStream, value: String) {
+            val bytes = value.toByteArray(StandardCharsets.UTF_8)
+            writeVarint(out, bytes.size.toLong())
+            out.write(bytes)
+        }
+
+        /**
+         * Read a length or count; it cannot exceed the bytes left in [buf].
+         */
+        private fun readLength(buf: ByteBuffer): Int {
+            val length = readVarint(buf)
+            require(length >= 0 && length <= buf.remaining()) {
+                "Length $length exceeds the ${buf.remaining()} remaining bytes"
+            }
+            return length.toInt()
+        }
+
+        private fun readString(buf: ByteBuffer): String {
+            val length = readLength(buf)
+            val value = String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8)
+            buf.position(buf.position() + length)
+            return value
+        }
+
+        private fun writeDouble(out: OutputStream, value: Double) {
+            val bits = java.lang.Double.doubleToRawLongBits(value)
+            for (shift in 56 downTo 0 step 8) {
+                out.write((bits ushr shift).toInt() and 0xFF)
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package tr.akguel.api
+
+import java.util.concurrent.atomic.AtomicLong
+
+
+/**
+ * The exporter's event queue: a bounded [MpscRingBuffer] whose events are
+ * accounted against a [MemoryBudget], as seen by the [OverloadPolicy].
+ *
+ * An event reserves its estimated size when it is offered and keeps it after
+ * [drainTo]; whoever finishes its batch releases it. Evicted events release
+ * their share right away. [queuedBytes] only counts what is still queued and
+ * drives the byte-based flush trigger.
+ */
+class BudgetedEventQueue(
+    capacity: Int,
+    private val budget: MemoryBudget,
+    private val onOverflow: (TrafficEvent) -> Unit
+) : OverloadPolicy.Queue {
+
+    private val ring = MpscRingBuffer<TrafficEvent>(capacity)
+
+    /** Serializes the consumers: the flusher's drains and the overload policy's evictions. */
+    private val drainLock = Any()
+
+    val queuedBytes: AtomicLong = AtomicLong(0)
+
+    override val size: Int
+        get() = ring.size
+
+    override val capacity: Int
+        get() = ring.capacity
+
+    fun isEmpty(): Boolean = ring.isEmpty()
+
+    override fun offer(event: TrafficEvent): OverloadPolicy.Offer {
+        val bytes = event.estimatedBytes().toLong()
+        if (!budget.tryReserve(bytes)) return OverloadPolicy.Offer.OVER_BUDGET
+        if (!ring.offer(event)) {
+            budget.release(bytes)
+            return OverloadPolicy.Offer.FULL
+        }
+        queuedBytes.addAndGet(bytes)
+        return OverloadPolicy.Offer.ACCEPTED
+    }
+
+    override fun evictOldest(): TrafficEvent? {
+        val oldest = synchronized(drainLock) { ring.poll() } ?: return null
+        val bytes = oldest.estimatedBytes().toLong()
+        queuedBytes.addAndGet(-bytes)
+        budget.release(bytes)
+        return oldest
+    }
+
+    override fun overflow(event: TrafficEvent) {
+        onOverflow(event)
+    }
+
+    /**
+     * Move up to [maxElements] events into [target]. They leave [queuedBytes]
+     * but stay reserved in the budget.
+     */
+    fun drainTo(target: MutableList<TrafficEvent>, maxElements: Int): Int {
+        val start = target.size
+        val drained = synchronized(drainLock) { ring.drainTo(target, maxElements) }
+        var bytes = 0L
+        for (i in start until target.size) {
+            bytes += target[i].estimatedBytes()
+        }
+        queuedBytes.addAndGet(-bytes)
+        return drained
+    }
+}
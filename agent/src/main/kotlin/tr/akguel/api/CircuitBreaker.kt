@@ -0,0 +1,66 @@
+package tr.akguel.api
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicReference
+
+
+/**
+ * Circuit breaker guarding the Monitor API endpoint.
+ *
+ * CLOSED    → requests flow; [failureThreshold] consecutive transient failures open the circuit
+ * OPEN      → no requests are made; a health probe moves the circuit to HALF_OPEN
+ * HALF_OPEN → requests flow again; the first success closes, the first failure re-opens
+ *
+ * Only transient failures (network errors, timeouts, 5xx/408/429) count;
+ * a 4xx answer proves the endpoint is alive.
+ */
+class CircuitBreaker(private val failureThreshold: Int) {
+
+    enum class State { CLOSED, OPEN, HALF_OPEN }
+
+    private val state = AtomicReference(State.CLOSED)
+    private val consecutiveFailures = AtomicInteger(0)
+
+    val openedCount: AtomicLong = AtomicLong(0)
+
+    fun allowRequest(): Boolean {
+        return state.get() != State.OPEN
+    }
+
+    fun onSuccess() {
+        consecutiveFailures.set(0)
+        if (state.getAndSet(State.CLOSED) != State.CLOSED) {
+            log.info("Circuit CLOSED — Monitor API accepting requests again")
+        }
+    }
+
+    fun onFailure() {
+        val failures = consecutiveFailures.incrementAndGet()
+        val current = state.get()
+        if ((current == State.HALF_OPEN || (current == State.CLOSED && failures >= failureThreshold))
+            && state.compareAndSet(current, State.OPEN)
+        ) {
+            openedCount.incrementAndGet()
+            log.warn("Circuit OPEN after {} consecutive failures — pausing API calls", failures)
+        }
+    }
+
+    /**
+     * Called after a successful health probe while OPEN.
+     */
+    fun onProbeSuccess() {
+        if (state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+            log.info("Health probe succeeded — circuit HALF_OPEN")
+        }
+    }
+
+    val currentState: State
+        get() = state.get()
+
+    companion object {
+        private val log: Logger = LoggerFactory.getLogger(CircuitBreaker::class.java)
+    }
+}
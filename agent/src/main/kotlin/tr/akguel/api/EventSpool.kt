@@ -0,0 +1,307 @@
+package tr.akguel.api
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import java.io.IOException
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+import java.util.ArrayDeque
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.io.path.name
+
+
+/**
+ * Append-only, memory-mapped spool for payloads the API could not accept.
+ *
+ * Payloads are appended as records to fixed-size segment files under the
+ * spool directory and replayed oldest-first once the API is healthy again.
+ * A replayed record is acknowledged in place (its kind byte gets the ACK bit),
+ * so after a restart only un-acknowledged records are sent again. Segments
+ * whose records are all acknowledged are deleted.
+ *
+ * Record layout (big-endian):
+ * ```
+ * int   length      payload length, 0 marks the end of the segment
+ * byte  kind        KIND_BATCH / KIND_SINGLE / KIND_SUMMARY / KIND_BINARY_BATCH, ACK bit set once replayed
+ * int   events      number of TrafficEvents (or summaries) in the payload
+ * long  epochMillis time the record was spooled
+ * byte[length]      payload as sent to the API (JSON, or binary for KIND_BINARY_BATCH)
+ * ```
+ *
+ * The spool is capped by total size (oldest segments are evicted) and by
+ * age (older records are discarded instead of replayed).
+ */
+class EventSpool(
+    private val dir: Path,
+    private val maxBytes: Long,
+    private val maxAgeMillis: Long
+) {
+
+    private val segments: ArrayDeque<Segment> = ArrayDeque()
+    private var nextSeq: Long = 0
+    private var totalBytes: Long = 0
+
+    val spooledEvents: AtomicLong = AtomicLong(0)
+    val replayedEvents: AtomicLong = AtomicLong(0)
+    val expiredEvents: AtomicLong = AtomicLong(0)
+    val evictedEvents: AtomicLong = AtomicLong(0)
+
+    init {
+        Files.createDirectories(dir)
+        Files.list(dir).use { files ->
+            files.filter { it.name.startsWith(SEGMENT_PREFIX) && it.name.endsWith(SEGMENT_SUFFIX) }
+                .sorted()
+                .forEach { path ->
+                    try {
+                        val segment = Segment.open(path, parseSeq(path))
+                        if (segment.pendingEvents > 0) {
+                            segment.sealed = true
+                            segments.addLast(segment)
+                            totalBytes += segment.capacity
+                            nextSeq = maxOf(nextSeq, segment.seq + 1)
+                        } else {
+                            segment.delete()
+                        }
+                    } catch (e: Exception) {
+                        log.warn("Ignoring unreadable spool segment {}: {}", path, e.message)
+                    }
+                }
+        }
+        if (!segments.isEmpty()) {
+            log.info("Recovered {} spool segments with {} pending events from {}", segments.size, pendingEvents, dir)
+        }
+    }
+
+    /**
+     * Append a payload. Never throws; returns false if the record could not be written.
+     */
+    @Synchronized
+    fun append(kind: Byte, payload: ByteArray, length: Int, events: Int): Boolean {
+        try {
+            var segment: Segment? = segments.peekLast()
+            if (segment == null || segment.sealed || !segment.fits(length)) {
+                segment?.sealed = true
+                segment = Segment.create(dir.resolve(segmentName(nextSeq)), nextSeq, maxOf(SEGMENT_BYTES, HEADER_BYTES * 2 + length))
+                nextSeq++
+                segments.addLast(segment)
+                totalBytes += segment.capacity
+            }
+            segment.append(kind, payload, length, events, System.currentTimeMillis())
+            spooledEvents.addAndGet(events.toLong())
+            enforceSizeCap()
+            return true
+        } catch (e: IOException) {
+            log.error("Spool append failed: {}", e.message)
+            return false
+        }
+    }
+
+    /**
+     * Replay pending records oldest-first. [sender] returns true once a record
+     * has been consumed (accepted or permanently rejected); replay stops at the
+     * first record it cannot consume, keeping it for the next attempt.
+     *
+     * @return number of events replayed
+     */
+    fun replay(sender: (kind: Byte, payload: ByteArray, events: Int) -> Boolean): Long {
+        var replayed = 0L
+        while (true) {
+            val record = nextRecord() ?: break
+            if (System.currentTimeMillis() - record.epochMillis > maxAgeMillis) {
+                expiredEvents.addAndGet(record.events.toLong())
+                acknowledge(record)
+                continue
+            }
+            if (!sender(record.kind, record.payload, record.events)) {
+                break
+            }
+            acknowledge(record)
+            replayed += record.events
+        }
+        replayedEvents.addAndGet(replayed)
+        return replayed
+    }
+
+    @Synchronized
+    private fun nextRecord(): Record? {
+        dropExpiredSegments()
+        for (segment in segments) {
+            val record = segment.peek()
+            if (record != null) return record
+        }
+        return null
+    }
+
+    @Synchronized
+    private fun acknowledge(record: Record) {
+        record.segment.acknowledge(record)
+        if (record.segment.sealed && record.segment.pendingEvents == 0) {
+            remove(record.segment)
+        }
+    }
+
+    private fun enforceSizeCap() {
+        while (totalBytes > maxBytes && segments.size > 1) {
+            val oldest = segments.peekFirst()
+            evictedEvents.addAndGet(oldest.pendingEvents.toLong())
+            log.warn("Spool exceeds {} bytes — evicting {} ({} events)", maxBytes, oldest.path.name, oldest.pendingEvents)
+            remove(oldest)
+        }
+    }
+
+    private fun dropExpiredSegments() {
+        val cutoff = System.currentTimeMillis() - maxAgeMillis
+        while (!segments.isEmpty()) {
+            val oldest = segments.peekFirst()
+            if (!oldest.sealed || oldest.newestMillis >= cutoff) break
+            expiredEvents.addAndGet(oldest.pendingEvents.toLong())
+            remove(oldest)
+        }
+    }
+
+    private fun remove(segment: Segment) {
+        segments.remove(segment)
+        totalBytes -= segment.capacity
+        segment.delete()
+    }
+
+    val pendingEvents: Long
+        @Synchronized get() = segments.sumOf { it.pendingEvents.toLong() }
+
+    val sizeBytes: Long
+        @Synchronized get() = totalBytes
+
+    val isEmpty: Boolean
+        get() = pendingEvents == 0L
+
+    private class Record(
+        val segment: Segment,
+        val position: Int,
+        val kind: Byte,
+        val events: Int,
+        val epochMillis: Long,
+        val payload: ByteArray
+    )
+
+    /**
+     * One memory-mapped segment file.
+     */
+    private class Segment(
+        val seq: Long,
+        val path: Path,
+        private val channel: FileChannel,
+        private val buffer: MappedByteBuffer
+    ) {
+        val capacity: Int = buffer.capacity()
+        var writePos: Int = 0
+        var readPos: Int = 0
+        var pendingEvents: Int = 0
+        var newestMillis: Long = 0
+        var sealed: Boolean = false
+
+        fun fits(length: Int): Boolean = writePos + HEADER_BYTES + length + 4 <= capacity
+
+        fun append(kind: Byte, payload: ByteArray, length: Int, events: Int, epochMillis: Long) {
+            buffer.putInt(writePos + 4 + 1, events)
+            buffer.putLong(writePos + 4 + 1 + 4, epochMillis)
+            buffer.put(writePos + 4, kind)
+            buffer.put(writePos + HEADER_BYTES, payload, 0, length)
+            // Length goes last: a record only becomes visible once it is complete
+            buffer.putInt(writePos, length)
+            writePos += HEADER_BYTES + length
+            pendingEvents += events
+            newestMillis = epochMillis
+        }
+
+        fun peek(): Record? {
+            var pos = readPos
+            while (pos + HEADER_BYTES <= capacity) {
+                val length = buffer.getInt(pos)
+                if (length <= 0) break
+                val kind = buffer.get(pos + 4)
+                if ((kind.toInt() and ACK_BIT) == 0) {
+                    readPos = pos
+                    val payload = ByteArray(length)
+                    buffer.get(pos + HEADER_BYTES, payload)
+                    return Record(
+                        this, pos, kind,
+                        buffer.getInt(pos + 4 + 1),
+                        buffer.getLong(pos + 4 + 1 + 4),
+                        payload
+                    )
+                }
+                pos += HEADER_BYTES + length
+            }
+            readPos = pos
+            return null
+        }
+
+        fun acknowledge(record: Record) {
+            buffer.put(record.position + 4, (record.kind.toInt() or ACK_BIT).toByte())
+            pendingEvents -= record.events
+            readPos = record.position + HEADER_BYTES + record.payload.size
+        }
+
+        fun delete() {
+            try {
+                channel.close()
+                Files.deleteIfExists(path)
+            } catch (e: IOException) {
+                log.debug("Cannot delete spool segment {}: {}", path, e.message)
+            }
+        }
+
+        companion object {
+            fun create(path: Path, seq: Long, capacity: Int): Segment {
+                val channel = FileChannel.open(
+                    path,
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE
+                )
+                return Segment(seq, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity.toLong()))
+            }
+
+            fun open(path: Path, seq: Long): Segment {
+                val channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                val segment = Segment(seq, path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()))
+                var pos = 0
+                var firstPending = -1
+                while (pos + HEADER_BYTES <= segment.capacity) {
+                    val length = segment.buffer.getInt(pos)
+                    if (length <= 0 || pos + HEADER_BYTES + length > segment.capacity) break
+                    if ((segment.buffer.get(pos + 4).toInt() and ACK_BIT) == 0) {
+                        if (firstPending < 0) firstPending = pos
+                        segment.pendingEvents += segment.buffer.getInt(pos + 4 + 1)
+                    }
+                    segment.newestMillis = segment.buffer.getLong(pos + 4 + 1 + 4)
+                    pos += HEADER_BYTES + length
+                }
+                segment.writePos = pos
+                segment.readPos = if (firstPending >= 0) firstPending else pos
+                return segment
+            }
+        }
+    }
+
+    companion object {
+        private val log: Logger = LoggerFactory.getLogger(EventSpool::class.java)
+
+        const val KIND_BATCH: Byte = 1
+        const val KIND_SINGLE: Byte = 2
+        const val KIND_SUMMARY: Byte = 3
+        const val KIND_BINARY_BATCH: Byte = 4
+
+        private const val ACK_BIT = 0x80
+        private const val HEADER_BYTES = 4 + 1 + 4 + 8
+        private const val SEGMENT_BYTES = 4 * 1024 * 1024
+        private const val SEGMENT_PREFIX = "segment-"
+        private const val SEGMENT_SUFFIX = ".spool"
+
+        private fun segmentName(seq: Long): String = String.format("%s%016d%s", SEGMENT_PREFIX, seq, SEGMENT_SUFFIX)
+
+        private fun parseSeq(path: Path): Long =
+            path.name.removePrefix(SEGMENT_PREFIX).removeSuffix(SEGMENT_SUFFIX).toLong()
+    }
+}
@@ -0,0 +1,222 @@
+package tr.akguel.api
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import tr.akguel.config.MonitorConfig
+import java.io.ByteArrayOutputStream
+import java.net.URI
+import java.net.http.HttpClient
+import java.net.http.HttpRequest
+import java.net.http.HttpResponse
+import java.time.Duration
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.zip.GZIPOutputStream
+import javax.net.ssl.SSLContext
+import kotlin.concurrent.Volatile
+
+
+/**
+ * Keep-alive HTTP transport shared by all API calls of the agent.
+ *
+ * A single [HttpClient] keeps its connections pooled, so consecutive
+ * batches reuse the same TCP/TLS session instead of paying the handshake
+ * on every flush. HTTPS endpoints negotiate HTTP/2 (one multiplexed
+ * connection), plain HTTP stays on HTTP/1.1 keep-alive.
+ *
+ * The number of batches in flight is bounded by [maxInFlight] slots:
+ * callers reserve a slot with [tryReserve] before building a request and
+ * [release] it once the batch is finished, i.e. after a final success,
+ * failure or hand-off to the spool. Retries keep the slot they started with.
+ *
+ * Bodies of at least `monitor.http.compression.min.bytes` are gzip-encoded
+ * when `monitor.http.compression=gzip`. If the API answers a compressed
+ * request with 415, compression is switched off for the rest of the session
+ * and the body is re-sent uncompressed within the same slot.
+ */
+class HttpTransport(private val config: MonitorConfig, sslContext: SSLContext?) {
+
+    private val executor: ExecutorService
+    private val client: HttpClient
+    private val slots: Semaphore
+
+    val maxInFlight: Int = config.httpMaxInFlight
+
+    @Volatile
+    private var compressionEnabled: Boolean = config.httpCompression == "gzip"
+
+    /** Uncompressed and sent body bytes of the requests that got a response. */
+    val rawBytes: AtomicLong = AtomicLong(0)
+    val wireBytes: AtomicLong = AtomicLong(0)
+    val compressNanos: AtomicLong = AtomicLong(0)
+
+    init {
+        this.executor = Executors.newFixedThreadPool(config.httpPoolSize) { r: Runnable? ->
+            val t = Thread(r, "corba-monitor-http")
+            t.setDaemon(true)
+            t
+        }
+        this.slots = Semaphore(maxInFlight)
+
+        val builder = HttpClient.newBuilder()
+            .version(if (config.apiBaseUrl!!.startsWith("https")) HttpClient.Version.HTTP_2 else HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofMillis(config.httpTimeoutMs.toLong()))
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .executor(executor)
+        if (sslContext != null) {
+            builder.sslContext(sslContext)
+        }
+        this.client = builder.build()
+    }
+
+    /**
+     * Reserve an in-flight slot, waiting at most [timeoutMs].
+     * Every successful reservation must be given back via [release].
+     */
+    fun tryReserve(timeoutMs: Long): Boolean {
+        try {
+            return slots.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+            return false
+        }
+    }
+
+    fun release() {
+        slots.release()
+    }
+
+    /**
+     * POST a body asynchronously (JSON unless [contentType] says otherwise).
+     * The caller must hold a reserved slot.
+     * The first [length] bytes of [body] are sent without copying, so the
+     * array must not be modified until the returned future completes.
+     *
+     * @return future completing with the HTTP status code
+     */
+    fun postAsync(
+        endpoint: String,
+        body: ByteArray,
+        length: Int = body.size,
+        contentType: String = JSON_CONTENT_TYPE
+    ): CompletableFuture<Int> {
+        try {
+            if (compressionEnabled && length >= config.httpCompressionMinBytes) {
+                val gzipped = gzip(body, length)
+                return send(endpoint, gzipped, gzipped.size, contentType, "gzip")
+                    .thenCompose { status: Int ->
+                        if (status == 415) {
+                            compressionEnabled = false
+                            log.warn("API rejected gzip request bodies (HTTP 415) — compression disabled")
+                            send(endpoint, body, length, contentType, null)
+                                .thenApply { countSent(length, length, it) }
+                        } else {
+                            CompletableFuture.completedFuture(countSent(length, gzipped.size, status))
+                        }
+                    }
+            } else {
+                return send(endpoint, body, length, contentType, null)
+                    .thenApply { countSent(length, length, it) }
+            }
+        } catch (e: Exception) {
+            return CompletableFuture.failedFuture(e)
+        }
+    }
+
+    private fun send(
+        endpoint: String,
+        body: ByteArray,
+        length: Int,
+        contentType: String,
+        contentEncoding: String?
+    ): CompletableFuture<Int> {
+        val builder = HttpRequest.newBuilder(URI(endpoint))
+            .timeout(Duration.ofMillis(config.httpTimeoutMs.toLong()))
+            .header("Content-Type", contentType)
+            .header("Accept", "application/json")
+            // .header("Authorization", "Bearer ${config.apiToken}")
+            .POST(HttpRequest.BodyPublishers.ofByteArray(body, 0, length))
+        if (contentEncoding != null) {
+            builder.header("Content-Encoding", contentEncoding)
+        }
+        return client.sendAsync(builder.build(), HttpResponse.BodyHandlers.discarding())
+            .thenApply { it.statusCode() }
+    }
+
+    /**
+     * Count the body of the attempt that got a response; a gzip attempt
+     * answered with 415 and then resent plain is counted once, as plain.
+     */
+    private fun countSent(raw: Int, wire: Int, status: Int): Int {
+        rawBytes.addAndGet(raw.toLong())
+        wireBytes.addAndGet(wire.toLong())
+        return status
+    }
+
+    private fun gzip(body: ByteArray, length: Int): ByteArray {
+        val start = System.nanoTime()
+        val gzipped = gzipBody(body, length)
+        compressNanos.addAndGet(System.nanoTime() - start)
+        return gzipped
+    }
+
+    /**
+     * Blocking GET, used for health probes. Does not take an in-flight slot.
+     */
+    fun get(endpoint: String, timeoutMs: Long): Int {
+        val request = HttpRequest.newBuilder(URI(endpoint))
+            .timeout(Duration.ofMillis(timeoutMs))
+            .GET()
+            .build()
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode()
+    }
+
+    /**
+     * Wait (bounded) for in-flight requests to complete, then stop the executor.
+     */
+    fun shutdown(timeoutMs: Long) {
+        try {
+            if (slots.tryAcquire(maxInFlight, timeoutMs, TimeUnit.MILLISECONDS)) {
+                slots.release(maxInFlight)
+            } else {
+                log.warn("{} HTTP requests still in flight at shutdown", maxInFlight - slots.availablePermits())
+            }
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+        executor.shutdown()
+    }
+
+    val inFlight: Int
+        get() = maxInFlight - slots.availablePermits()
+
+    /**
+     * Bytes on the wire relative to the uncompressed body (1.0 = no saving).
+     */
+    val compressionRatio: Double
+        get() {
+            val raw = rawBytes.get()
+            return if (raw == 0L) 1.0 else wireBytes.get().toDouble() / raw
+        }
+
+    companion object {
+        private val log: Logger = LoggerFactory.getLogger(HttpTransport::class.java)
+
+        const val JSON_CONTENT_TYPE = "application/json"
+
+        /**
+         * gzip the first [length] bytes of [body] as request bodies are sent.
+         */
+        fun gzipBody(body: ByteArray, length: Int): ByteArray {
+            val out = ByteArrayOutputStream(maxOf(length / 4, 64))
+            GZIPOutputStream(out, 8192).use { gz ->
+                gz.write(body, 0, length)
+            }
+            return out.toByteArray()
+        }
+    }
+}
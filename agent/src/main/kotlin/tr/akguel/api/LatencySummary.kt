@@ -0,0 +1,52 @@
+package tr.akguel.api
+
+import com.google.gson.annotations.SerializedName
+
+
+/**
+ * Latency summary of one (interface, operation, status, target) over one interval.
+ * Maps to the entries of POST /api/traffic/summary on the Laravel backend.
+ */
+class LatencySummary(
+    @SerializedName("interface_name")
+    val interfaceName: String?,
+
+    @SerializedName("operation")
+    val operation: String?,
+
+    @SerializedName("status")
+    val status: String?,
+
+    @SerializedName("target")
+    val target: String?,
+
+    @SerializedName("interval_start")
+    val intervalStart: String,
+
+    @SerializedName("interval_end")
+    val intervalEnd: String,
+
+    @SerializedName("count")
+    val count: Long,
+
+    @SerializedName("error_count")
+    val errorCount: Long,
+
+    @SerializedName("mean_ms")
+    val meanMs: Double,
+
+    @SerializedName("p50_ms")
+    val p50Ms: Double,
+
+    @SerializedName("p90_ms")
+    val p90Ms: Double,
+
+    @SerializedName("p99_ms")
+    val p99Ms: Double,
+
+    @SerializedName("p999_ms")
+    val p999Ms: Double,
+
+    @SerializedName("max_ms")
+    val maxMs: Double
+)
@@ -0,0 +1,81 @@
+package tr.akguel.api
+
+import tr.akguel.config.MonitorConfig
+import java.util.concurrent.atomic.AtomicLong
+
+
+/**
+ * Byte-accounted memory budget for everything the exporter holds on the heap.
+ *
+ * Queued events reserve their estimated size on admission and keep it until
+ * their batch is finished (sent, spooled or given up), so events waiting
+ * for a retry or an HTTP response stay accounted for. Encoded payloads are
+ * added with [forceReserve] once a batch is built, so the budget may
+ * overshoot by at most the payloads currently in flight, but new events
+ * are refused until usage falls back under [limitBytes].
+ *
+ * The agent-wide budget of `monitor.memory.budget.bytes` ([instance]) is
+ * shared by the HTTP exporter and the [tr.akguel.decode.DecodeStage], whose
+ * queued events pin the raw CORBA payloads until they are decoded.
+ */
+class MemoryBudget(val limitBytes: Long) {
+
+    private val used = AtomicLong(0)
+    private val peak = AtomicLong(0)
+
+    val rejectedCount: AtomicLong = AtomicLong(0)
+
+    /**
+     * Reserve [bytes] if they fit into the budget.
+     */
+    fun tryReserve(bytes: Long): Boolean {
+        while (true) {
+            val current = used.get()
+            val next = current + bytes
+            if (next > limitBytes) {
+                rejectedCount.incrementAndGet()
+                return false
+            }
+            if (used.compareAndSet(current, next)) {
+                updatePeak(next)
+                return true
+            }
+        }
+    }
+
+    /**
+     * Reserve [bytes] unconditionally (memory that already exists).
+     */
+    fun forceReserve(bytes: Long) {
+        updatePeak(used.addAndGet(bytes))
+    }
+
+    fun release(bytes: Long) {
+        used.addAndGet(-bytes)
+    }
+
+    private fun updatePeak(value: Long) {
+        var current = peak.get()
+        while (value > current && !peak.compareAndSet(current, value)) {
+            current = peak.get()
+        }
+    }
+
+    val usedBytes: Long
+        get() = used.get()
+
+    val peakBytes: Long
+        get() = peak.get()
+
+    companion object {
+        @get:Synchronized
+        var instance: MemoryBudget? = null
+            get() {
+                if (field == null) {
+                    this.instance = MemoryBudget(MonitorConfig.instance!!.memoryBudgetBytes)
+                }
+                return field
+            }
+            private set
+    }
+}
@@ -5,15 +5,13 @@ import com.google.gson.GsonBuilder
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 import tr.akguel.config.MonitorConfig
-import java.io.IOException
-import java.net.HttpURLConnection
-import java.net.URI
-import java.net.URL
-import java.nio.charset.StandardCharsets
+import java.nio.file.Paths
 import java.security.SecureRandom
 import java.security.cert.X509Certificate
 import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicBoolean
 import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.LockSupport
 import javax.net.ssl.*
 import kotlin.concurrent.Volatile
 
@@ -22,102 +20,236 @@ import kotlin.concurrent.Volatile
  * Async HTTP client that batches TrafficEvents and sends them to the Monitor API.
  *
  * Features:
- * - Non-blocking: interceptors submit events to a queue
- * - Batching: events are grouped and sent in bulk
- * - Auto-flush: periodic flush based on configurable interval
- * - Retry: failed batches are retried once
+ * - Non-blocking: interceptors submit events to a lock-free ring buffer
+ * - Batching: events are grouped and sent in bulk, as JSON or in the compact binary format
+ * - Keep-alive transport: pooled connections, bounded in-flight requests
+ * - Auto-flush: as soon as a full batch (count or bytes) is queued, at the latest after the flush interval
+ * - Retry: transient failures are retried with jittered exponential backoff
+ * - Circuit breaker: a failing API is not called until its health probe succeeds
+ * - Spool: undeliverable batches are persisted on disk and replayed when the API is back
+ * - Memory budget: queued events and in-flight batches share one byte-accounted ceiling
  * - Metrics: tracks sent/failed/queued counts
  */
 class MonitorApiClient private constructor() {
 
     private val config: MonitorConfig = MonitorConfig.instance!!
     private val gson: Gson
-    private val eventQueue: BlockingQueue<TrafficEvent>
-    private val httpPool: ExecutorService
-    private val scheduler: ScheduledExecutorService
+    private val encoder: BatchEncoder
+    private val eventQueue: BudgetedEventQueue
+    private val overflowHandoff = MpscRingBuffer<TrafficEvent>(OVERFLOW_HANDOFF_CAPACITY)
+    private val overloadPolicy: OverloadPolicy
+    private val budget: MemoryBudget
+    private val transport: HttpTransport
+    private val flusher: Thread
+    private val flushSignalled: AtomicBoolean = AtomicBoolean(false)
+    private val maintenance: ScheduledExecutorService
+    private val breaker: CircuitBreaker
+    private val spool: EventSpool?
 
     val sentCount: AtomicLong = AtomicLong(0)
     val failedCount: AtomicLong = AtomicLong(0)
     val droppedCount: AtomicLong = AtomicLong(0)
+    val retryCount: AtomicLong = AtomicLong(0)
 
     @Volatile
     private var running = true
 
+    @Volatile
+    private var binaryEnabled: Boolean = config.httpFormat == "binary"
+
     init {
         this.gson = GsonBuilder()
             .disableHtmlEscaping()
             .serializeNulls()
             .create()
-        this.eventQueue = LinkedBlockingQueue<TrafficEvent>(MAX_QUEUE_SIZE)
-        this.httpPool = Executors.newFixedThreadPool(config.httpPoolSize) { r: Runnable? ->
-            val t = Thread(r, "corba-monitor-http")
-            t.setDaemon(true)
-            t
-        }
-        this.scheduler = Executors.newSingleThreadScheduledExecutor(ThreadFactory { r: Runnable? ->
-            val t = Thread(r, "corba-monitor-flush")
-            t.setDaemon(true)
-            t
-        })
+        this.encoder = BatchEncoder(gson)
+        this.overloadPolicy = OverloadPolicy.forConfig(config)
+        this.budget = MemoryBudget.instance!!
+        this.eventQueue = BudgetedEventQueue(config.queueCapacity, budget, this::overflow)
+        this.flusher = Thread({ this.runFlusher() }, "corba-monitor-flush")
+        flusher.setDaemon(true)
 
         // Disable SSL verification in dev mode
+        var sslContext: SSLContext? = null
         if (config.sslTrustAll) {
-            disableSslVerification();
+            sslContext = disableSslVerification();
             log.warn("SSL verification DISABLED — do NOT use in production");
         }
+        this.transport = HttpTransport(config, sslContext)
+        this.breaker = CircuitBreaker(config.breakerFailureThreshold)
 
-        // Schedule periodic flush
-        scheduler.scheduleAtFixedRate(
-            Runnable { this.flush() },
-            config.flushIntervalMs.toLong(),
-            config.flushIntervalMs.toLong(),
+        // Retries, health probes and spool replay
+        this.maintenance = Executors.newScheduledThreadPool(2) { r: Runnable? ->
+            val t = Thread(r, "corba-monitor-maint")
+            t.setDaemon(true)
+            t
+        }
+        maintenance.scheduleWithFixedDelay(
+            { this.probeIfOpen() },
+            config.breakerProbeIntervalMs,
+            config.breakerProbeIntervalMs,
             TimeUnit.MILLISECONDS
         )
 
+        this.spool = if (config.spoolEnabled) openSpool() else null
+        if (spool != null) {
+            maintenance.scheduleWithFixedDelay(
+                { this.replaySpool() },
+                SPOOL_REPLAY_INTERVAL_MS,
+                SPOOL_REPLAY_INTERVAL_MS,
+                TimeUnit.MILLISECONDS
+            )
+        }
+
+        flusher.start()
+
         log.info("MonitorApiClient started: {}", config)
     }
 
     /**
-     * Submit a traffic event (non-blocking).
-     * If the queue is full, the event is dropped and counted.
+     * Submit a traffic event (non-blocking unless the `block` overload policy is active).
+     * When the queue is full the overload policy decides which event is lost; lost
+     * events are spooled by the flusher (if the spool is enabled) or dropped and counted.
      */
     fun submit(event: TrafficEvent) {
-        if (!config.enabled || !running) return
+        val live = MonitorConfig.instance!!
+        if (!live.enabled || !running) return
+
+        if (overloadPolicy.admit(event, eventQueue)
+            && (eventQueue.size >= live.batchSize || eventQueue.queuedBytes.get() >= live.flushMaxBytes)
+            && flushSignalled.compareAndSet(false, true)
+        ) {
+            LockSupport.unpark(flusher)
+        }
+    }
+
+    /**
+     * Send interval latency summaries (aggregation mode). They bypass the event
+     * queue but share the transport slots, retries, breaker and spool with batches;
+     * each summary counts as one event in the sent/failed counters.
+     */
+    fun submitSummaries(summaries: List<LatencySummary>) {
+        if (!MonitorConfig.instance!!.enabled || summaries.isEmpty()) return
 
-        val added: Boolean = eventQueue.offer(event)
-        if (!added) {
-            droppedCount.incrementAndGet()
-            if (droppedCount.get() % 100 == 0L) {
-                log.warn("Event queue full — dropped {} events so far", droppedCount.get())
+        val buffer: BatchEncoder.PooledBuffer
+        try {
+            buffer = encoder.encodeSummaries(summaries)
+        } catch (e: Exception) {
+            failedCount.addAndGet(summaries.size.toLong())
+            log.error("Summary send error: {}", e.message)
+            return
+        }
+        if (!transport.tryReserve(config.httpTimeoutMs.toLong())) {
+            try {
+                spoolOrFail(EventSpool.KIND_SUMMARY, buffer.array(), buffer.size(), summaries.size, "all HTTP slots busy")
+            } finally {
+                encoder.release(buffer)
             }
+            return
         }
+        budget.forceReserve(buffer.size().toLong())
+        post(EventSpool.KIND_SUMMARY, buffer, summaries.size, buffer.size().toLong(), "${summaries.size} latency summaries")
     }
 
     /**
-     * Drain the queue and send events in batches.
+     * An event the overload policy gave up on (interceptor thread). With a spool it
+     * is handed to the flusher, which encodes and spools it; if the hand-off is full
+     * too, or there is no spool, it is counted as dropped.
      */
-    fun flush() {
-        if (eventQueue.isEmpty()) return
+    private fun overflow(event: TrafficEvent) {
+        if (spool != null) {
+            // Reserved before the flusher can see it, released once it is spooled
+            val bytes = event.estimatedBytes().toLong()
+            budget.forceReserve(bytes)
+            if (overflowHandoff.offer(event)) {
+                if (overflowHandoff.size >= OVERFLOW_HANDOFF_CAPACITY / 2 && flushSignalled.compareAndSet(false, true)) {
+                    LockSupport.unpark(flusher)
+                }
+                return
+            }
+            budget.release(bytes)
+        }
+        droppedCount.incrementAndGet()
+        if (droppedCount.get() % 100 == 0L) {
+            log.warn("Event queue full — dropped {} events so far", droppedCount.get())
+        }
+    }
+
+    /**
+     * Flusher loop: sleeps until a full batch is queued (by count or bytes)
+     * or the linger deadline (flush interval) passes, then flushes. The flush
+     * interval is re-read after every flush, so a reloaded value applies to the next one.
+     */
+    private fun runFlusher() {
+        var deadline = System.nanoTime() + lingerNanos()
+        while (running) {
+            val remaining = deadline - System.nanoTime()
+            if (remaining > 0 && !flushSignalled.get()) {
+                LockSupport.parkNanos(this, remaining)
+                continue
+            }
+            flushSignalled.set(false)
+            try {
+                spoolOverflowed()
+                flush()
+            } catch (e: Exception) {
+                log.error("Flush failed: {}", e.message)
+            }
+            deadline = System.nanoTime() + lingerNanos()
+        }
+    }
+
+    private fun lingerNanos(): Long = TimeUnit.MILLISECONDS.toNanos(MonitorConfig.instance!!.flushIntervalMs.toLong())
 
-        val batch: MutableList<TrafficEvent> = ArrayList<TrafficEvent>(config.batchSize)
-        eventQueue.drainTo(batch, config.batchSize)
+    /**
+     * Drain up to one batch from the queue. Its events leave the flush-trigger
+     * byte count but stay reserved in the memory budget until the batch is finished.
+     */
+    private fun drainBatch(): MutableList<TrafficEvent> {
+        val batchSize = MonitorConfig.instance!!.batchSize
+        val batch: MutableList<TrafficEvent> = ArrayList<TrafficEvent>(batchSize)
+        eventQueue.drainTo(batch, batchSize)
+        return batch
+    }
 
-        if (!batch.isEmpty()) {
-            httpPool.submit { sendBatch(batch) }
+    private fun estimatedBytes(batch: List<TrafficEvent>): Long {
+        var bytes = 0L
+        for (event in batch) {
+            bytes += event.estimatedBytes()
         }
+        return bytes
+    }
 
-        // If there are more, schedule additional flushes
+    /**
+     * Drain the queue and send events in batches.
+     *
+     * Each batch first reserves an in-flight slot on the transport, so a slow
+     * API leaves events in the bounded queue instead of piling up requests.
+     * While the circuit is open nothing is sent: queued events move to the
+     * spool if there is one, otherwise they wait in the queue.
+     */
+    fun flush() {
         while (!eventQueue.isEmpty()) {
-            val nextBatch: MutableList<TrafficEvent> = ArrayList<TrafficEvent>(config.batchSize)
-            eventQueue.drainTo(nextBatch, config.batchSize)
-            if (!nextBatch.isEmpty()) {
-                httpPool.submit { sendBatch(nextBatch) }
+            if (!breaker.allowRequest()) {
+                divertToSpool()
+                return
+            }
+            if (!transport.tryReserve(config.httpTimeoutMs.toLong())) {
+                log.warn("All {} HTTP slots busy — deferring flush ({} queued)", transport.maxInFlight, eventQueue.size)
+                return
             }
+
+            val batch = drainBatch()
+            if (batch.isEmpty()) {
+                transport.release()
+                return
+            }
+            sendBatch(batch)
         }
     }
 
     /**
-     * Send a batch of events to the API.
+     * Send a batch of events to the API. Completion is handled asynchronously.
      */
     private fun sendBatch(batch: MutableList<TrafficEvent>) {
         if (batch.size == 1) {
@@ -125,87 +257,296 @@ class MonitorApiClient private constructor() {
             return
         }
 
+        val eventBytes = estimatedBytes(batch)
+        val binary = binaryEnabled
+        val buffer: BatchEncoder.PooledBuffer
         try {
-            val payload: MutableMap<String?, Any?> = HashMap<String?, Any?>()
-            payload["events"] = batch
-            val json: String = gson.toJson(payload)
-            log.info("Sending batch to {}", config.batchEndpoint)
-            log.debug("Batch payload: {}", json)
-
-            val status: Int = post(config.batchEndpoint, json)
-
-            if (status in 200..<300) {
-                sentCount.addAndGet(batch.size.toLong())
-                log.debug("Sent batch of {} events (total: {})", batch.size, sentCount.get())
-            } else {
-                failedCount.addAndGet(batch.size.toLong())
-                log.warn(
-                    "Batch send failed with HTTP {}: {} events lost",
-                    status,
-                    batch.size
-                )
-            }
+            buffer = if (binary) encoder.encodeBinaryBatch(batch) else encoder.encodeBatch(batch)
         } catch (e: Exception) {
+            transport.release()
+            budget.release(eventBytes)
             failedCount.addAndGet(batch.size.toLong())
             log.error("Batch send error: {}", e.message)
+            return
+        }
+        budget.forceReserve(buffer.size().toLong())
+        log.info("Sending batch to {}", config.batchEndpoint)
+        if (log.isDebugEnabled && !binary) {
+            log.debug("Batch payload: {}", buffer)
         }
+        val kind = if (binary) EventSpool.KIND_BINARY_BATCH else EventSpool.KIND_BATCH
+        post(kind, buffer, batch.size, eventBytes + buffer.size(), "batch of ${batch.size} events")
     }
 
     /**
      * Send a single event.
      */
     private fun sendSingle(event: TrafficEvent) {
+        val eventBytes = event.estimatedBytes().toLong()
+        val buffer: BatchEncoder.PooledBuffer
         try {
-            val json: String = gson.toJson(event)
-            val status: Int = post(config.trafficEndpoint, json)
-
-            if (status in 200..<300) {
-                sentCount.incrementAndGet()
-                log.debug("Sent event: {} (total: {})", event.operation, sentCount.get())
-            } else {
-                failedCount.incrementAndGet()
-                log.warn("Event send failed with HTTP {}: {}", status, event.operation)
-            }
+            buffer = encoder.encodeSingle(event)
         } catch (e: Exception) {
+            transport.release()
+            budget.release(eventBytes)
             failedCount.incrementAndGet()
             log.error("Event send error: {}", e.message)
+            return
         }
+        budget.forceReserve(buffer.size().toLong())
+        post(EventSpool.KIND_SINGLE, buffer, 1, eventBytes + buffer.size(), "event ${event.operation}")
     }
 
     /**
-     * HTTP POST with JSON body.
+     * POST an encoded payload (slot already reserved). Transient failures are
+     * retried with backoff while the circuit allows it; what still fails is
+     * moved to the spool, if one is configured. The slot, the buffer and the
+     * [reservedBytes] of memory budget are released once the payload is finished.
      */
-    @Throws(IOException::class)
-    private fun post(endpoint: String, json: String): Int {
-        val url: URL = URI(endpoint).toURL()
-        val conn: HttpURLConnection = url.openConnection() as HttpURLConnection
-        if (conn is HttpsURLConnection && config.sslTrustAll) {
-            applyTrustAll(conn)
+    private fun post(
+        kind: Byte,
+        buffer: BatchEncoder.PooledBuffer,
+        events: Int,
+        reservedBytes: Long,
+        what: String,
+        attempt: Int = 1
+    ) {
+        if (!breaker.allowRequest()) {
+            finish(buffer, reservedBytes) { spoolOrFail(kind, buffer.array(), buffer.size(), events, "circuit open") }
+            return
         }
+
+        transport.postAsync(endpointFor(kind), buffer.array(), buffer.size(), contentTypeFor(kind))
+            .whenComplete { status: Int?, error: Throwable? ->
+                if (status == 415 && kind == EventSpool.KIND_BINARY_BATCH) {
+                    fallbackToJson(buffer, events, reservedBytes, what)
+                    return@whenComplete
+                }
+                val transient = error != null || isRetryable(status!!)
+                if (transient) breaker.onFailure() else breaker.onSuccess()
+
+                if (!transient && status!! in 200..<300) {
+                    finish(buffer, reservedBytes) {
+                        sentCount.addAndGet(events.toLong())
+                        log.debug("Sent {} (total: {})", what, sentCount.get())
+                    }
+                } else if (!transient) {
+                    finish(buffer, reservedBytes) {
+                        failedCount.addAndGet(events.toLong())
+                        log.warn("Send of {} rejected with HTTP {}: events lost", what, status)
+                    }
+                } else if (attempt < config.retryMaxAttempts && running && breaker.allowRequest()) {
+                    val delay = backoffDelayMs(attempt)
+                    log.debug("Retrying {} in {} ms (attempt {}): {}", what, delay, attempt + 1, error?.message ?: "HTTP $status")
+                    retryCount.incrementAndGet()
+                    try {
+                        maintenance.schedule(Runnable { post(kind, buffer, events, reservedBytes, what, attempt + 1) }, delay, TimeUnit.MILLISECONDS)
+                    } catch (e: RejectedExecutionException) {
+                        finish(buffer, reservedBytes) { spoolOrFail(kind, buffer.array(), buffer.size(), events, "shutting down") }
+                    }
+                } else {
+                    finish(buffer, reservedBytes) {
+                        spoolOrFail(kind, buffer.array(), buffer.size(), events, error?.message ?: "HTTP $status")
+                    }
+                }
+            }
+    }
+
+    /**
+     * The API does not accept binary batches (HTTP 415): switch to JSON for the rest
+     * of the session and re-send this batch as JSON within the same slot.
+     */
+    private fun fallbackToJson(buffer: BatchEncoder.PooledBuffer, events: Int, reservedBytes: Long, what: String) {
+        if (binaryEnabled) {
+            binaryEnabled = false
+            log.warn("API rejected binary batches (HTTP 415) — falling back to JSON")
+        }
+        val json: BatchEncoder.PooledBuffer
+        try {
+            json = encoder.encodeBatch(encoder.decodeBinaryBatch(buffer.array(), buffer.size()))
+        } catch (e: Exception) {
+            finish(buffer, reservedBytes) {
+                failedCount.addAndGet(events.toLong())
+                log.error("Cannot convert binary batch to JSON: {} events lost", events)
+            }
+            return
+        }
+        // Swap the payload; the slot and the event part of the budget carry over
+        val binarySize = buffer.size().toLong()
+        budget.forceReserve(json.size().toLong())
+        encoder.release(buffer)
+        budget.release(binarySize)
+        post(EventSpool.KIND_BATCH, json, events, reservedBytes - binarySize + json.size(), what)
+    }
+
+    /**
+     * Run the final bookkeeping for a payload, then give back its buffer, slot and budget.
+     */
+    private inline fun finish(buffer: BatchEncoder.PooledBuffer, reservedBytes: Long, action: () -> Unit) {
         try {
-            conn.setRequestMethod("POST")
-            conn.setDoOutput(true)
-            conn.setConnectTimeout(config.httpTimeoutMs)
-            conn.setReadTimeout(config.httpTimeoutMs)
-            conn.setRequestProperty("Content-Type", "application/json")
-            conn.setRequestProperty("Accept", "application/json")
-
-            // val token: String? = config.apiToken
-            // if (!token.isNullOrEmpty()) {
-            //     conn.setRequestProperty("Authorization", "Bearer $token")
-            // }
-
-            val bytes: ByteArray = json.toByteArray(StandardCharsets.UTF_8)
-            conn.setFixedLengthStreamingMode(bytes.size)
-
-            conn.getOutputStream().use { os ->
-                os.write(bytes)
-                os.flush()
+            action()
+        } finally {
+            encoder.release(buffer)
+            transport.release()
+            budget.release(reservedBytes)
+        }
+    }
+
+    /**
+     * Full-jitter exponential backoff: random in [0, min(max, base * 2^(attempt-1))].
+     */
+    private fun backoffDelayMs(attempt: Int): Long {
+        val ceiling = minOf(config.retryBackoffMaxMs, config.retryBackoffMs shl minOf(attempt - 1, 20))
+        return ThreadLocalRandom.current().nextLong(ceiling + 1)
+    }
+
+    /**
+     * While the circuit is open, probe /health and half-open it once the API answers.
+     */
+    private fun probeIfOpen() {
+        if (breaker.currentState == CircuitBreaker.State.OPEN && healthCheck()) {
+            breaker.onProbeSuccess()
+        }
+    }
+
+    private fun endpointFor(kind: Byte): String {
+        return when (kind) {
+            EventSpool.KIND_SINGLE -> config.trafficEndpoint
+            EventSpool.KIND_SUMMARY -> config.summaryEndpoint
+            else -> config.batchEndpoint
+        }
+    }
+
+    private fun contentTypeFor(kind: Byte): String {
+        return if (kind == EventSpool.KIND_BINARY_BATCH) BinaryBatchCodec.CONTENT_TYPE else HttpTransport.JSON_CONTENT_TYPE
+    }
+
+    private fun isRetryable(status: Int): Boolean {
+        return status >= 500 || status == 408 || status == 429
+    }
+
+    // ─── Spool ────────────────────────────────────────────────────────
+    /**
+     * Move a payload that could not be delivered to the spool, or count it as failed.
+     */
+    private fun spoolOrFail(kind: Byte, payload: ByteArray, length: Int, events: Int, reason: String) {
+        val spool = this.spool
+        if (spool != null && spool.append(kind, payload, length, events)) {
+            log.debug("Spooled {} events after send failure: {}", events, reason)
+        } else {
+            failedCount.addAndGet(events.toLong())
+            log.warn("Send failed ({}): {} events lost", reason, events)
+        }
+    }
+
+    /**
+     * Move everything queued to the spool without touching the network.
+     * Without a spool the events stay queued until the circuit closes.
+     */
+    private fun divertToSpool() {
+        if (spool == null) return
+        while (!eventQueue.isEmpty()) {
+            val batch = drainBatch()
+            if (batch.isEmpty()) return
+            try {
+                val binary = binaryEnabled
+                val buffer = if (binary) encoder.encodeBinaryBatch(batch) else encoder.encodeBatch(batch)
+                val kind = if (binary) EventSpool.KIND_BINARY_BATCH else EventSpool.KIND_BATCH
+                try {
+                    spoolOrFail(kind, buffer.array(), buffer.size(), batch.size, "circuit open")
+                } finally {
+                    encoder.release(buffer)
+                }
+            } finally {
+                budget.release(estimatedBytes(batch))
             }
-            return conn.getResponseCode()
+        }
+    }
+
+    /**
+     * Spool the events the queue had no room for (flusher thread, and once more on shutdown).
+     */
+    @Synchronized
+    private fun spoolOverflowed() {
+        val spool = this.spool ?: return
+        while (true) {
+            val event = overflowHandoff.poll() ?: return
+            try {
+                val buffer = encoder.encodeSingle(event)
+                val spooled = try {
+                    spool.append(EventSpool.KIND_SINGLE, buffer.array(), buffer.size(), 1)
+                } finally {
+                    encoder.release(buffer)
+                }
+                if (!spooled) droppedCount.incrementAndGet()
+            } catch (e: Exception) {
+                droppedCount.incrementAndGet()
+                log.debug("Cannot spool overflowed event {}: {}", event.operation, e.message)
+            } finally {
+                budget.release(event.estimatedBytes().toLong())
+            }
+        }
+    }
+
+    /**
+     * Replay spooled payloads in order once the API answers its health check.
+     */
+    private fun replaySpool() {
+        val spool = this.spool ?: return
+        if (!running || spool.isEmpty || !breaker.allowRequest() || !healthCheck()) return
+
+        val replayed = spool.replay(this::replaySpooled)
+        if (replayed > 0) {
+            log.info("Replayed {} spooled events ({} still pending)", replayed, spool.pendingEvents)
+        }
+    }
+
+    /**
+     * Synchronously re-send one spooled payload. Returns true once the record is consumed.
+     */
+    private fun replaySpooled(kind: Byte, payload: ByteArray, events: Int): Boolean {
+        if (kind == EventSpool.KIND_BINARY_BATCH && !binaryEnabled) {
+            // Spooled before the API turned binary down: replay as JSON
+            val json = try {
+                encoder.encodeBatch(encoder.decodeBinaryBatch(payload, payload.size))
+            } catch (e: Exception) {
+                failedCount.addAndGet(events.toLong())
+                log.warn("Cannot convert spooled binary batch to JSON: {} events lost", events)
+                return true
+            }
+            try {
+                return replaySpooled(EventSpool.KIND_BATCH, json.array().copyOf(json.size()), events)
+            } finally {
+                encoder.release(json)
+            }
+        }
+        if (!breaker.allowRequest() || !transport.tryReserve(config.httpTimeoutMs.toLong())) return false
+        val status: Int = try {
+            transport.postAsync(endpointFor(kind), payload, payload.size, contentTypeFor(kind)).get()
+        } catch (e: Exception) {
+            breaker.onFailure()
+            log.debug("Spool replay failed: {}", e.message)
+            return false
         } finally {
-            conn.disconnect()
+            transport.release()
+        }
+        if (status == 415 && kind == EventSpool.KIND_BINARY_BATCH) {
+            binaryEnabled = false
+            log.warn("API rejected binary batches (HTTP 415) — falling back to JSON")
+            return false
+        }
+        if (isRetryable(status)) {
+            breaker.onFailure()
+            return false
         }
+        breaker.onSuccess()
+        if (status in 200..<300) {
+            sentCount.addAndGet(events.toLong())
+        } else {
+            failedCount.addAndGet(events.toLong())
+            log.warn("Spooled payload rejected with HTTP {}: {} events lost", status, events)
+        }
+        return true
     }
 
     /**
@@ -213,28 +554,33 @@ class MonitorApiClient private constructor() {
      */
     fun healthCheck(): Boolean {
         try {
-            val url: URL = URI(config.healthEndpoint).toURL()
-            val conn: HttpURLConnection = url.openConnection() as HttpURLConnection
-            if (conn is HttpsURLConnection && config.sslTrustAll) {
-                applyTrustAll(conn)
-            }
-            conn.setRequestMethod("GET")
-            conn.setConnectTimeout(3000)
-            conn.setReadTimeout(3000)
-            val status: Int = conn.getResponseCode()
-            conn.disconnect()
-            return status == 200
+            return transport.get(config.healthEndpoint, 3000) == 200
         } catch (e: Exception) {
             return false
         }
     }
 
+    private fun openSpool(): EventSpool? {
+        try {
+            return EventSpool(
+                Paths.get(config.spoolDir!!),
+                config.spoolMaxBytes,
+                config.spoolMaxAgeSeconds * 1000L
+            )
+        } catch (e: Exception) {
+            log.error("Cannot open spool directory {}: {} — failed batches will be dropped", config.spoolDir, e.message)
+            return null
+        }
+    }
+
     // ─── SSL Trust-All (Development Only) ─────────────────────────────
     /**
      * Disable SSL certificate verification globally.
      * WARNING: Only for local development!
+     *
+     * @return the trust-all context for the API transport, or null on failure
      */
-    private fun disableSslVerification() {
+    private fun disableSslVerification(): SSLContext? {
         try {
             val trustAll: Array<TrustManager> = arrayOf<TrustManager>(object : X509TrustManager {
                 override fun getAcceptedIssuers(): Array<X509Certificate?>? {
@@ -247,26 +593,17 @@ class MonitorApiClient private constructor() {
 
             val sc = SSLContext.getInstance("TLS")
             sc.init(null, trustAll, SecureRandom())
-            trustAllSocketFactory = sc.socketFactory
-            trustAllHostnameVerifier = HostnameVerifier { hostname: String?, session: SSLSession? -> true }
+
+            // java.net.http has no HostnameVerifier hook; this must be set before the client is built
+            System.setProperty("jdk.internal.httpclient.disableHostnameVerification", "true")
 
             // Also set as default for any other HTTPS connections
-            HttpsURLConnection.setDefaultSSLSocketFactory(trustAllSocketFactory)
-            HttpsURLConnection.setDefaultHostnameVerifier(trustAllHostnameVerifier)
+            HttpsURLConnection.setDefaultSSLSocketFactory(sc.socketFactory)
+            HttpsURLConnection.setDefaultHostnameVerifier { hostname: String?, session: SSLSession? -> true }
+            return sc
         } catch (e: java.lang.Exception) {
             log.error("Failed to disable SSL verification: {}", e.message)
-        }
-    }
-
-    /**
-     * Apply trust-all settings to a specific HTTPS connection.
-     */
-    private fun applyTrustAll(conn: HttpsURLConnection) {
-        if (trustAllSocketFactory != null) {
-            conn.sslSocketFactory = trustAllSocketFactory
-        }
-        if (trustAllHostnameVerifier != null) {
-            conn.setHostnameVerifier(trustAllHostnameVerifier)
+            return null
         }
     }
 
@@ -276,27 +613,73 @@ class MonitorApiClient private constructor() {
     fun shutdown() {
         log.info("Shutting down MonitorApiClient...")
         running = false
-        flush()
-        scheduler.shutdown()
-        httpPool.shutdown()
+        LockSupport.unpark(flusher)
         try {
-            httpPool.awaitTermination(5, TimeUnit.SECONDS)
+            flusher.join(config.httpTimeoutMs.toLong())
         } catch (e: InterruptedException) {
             Thread.currentThread().interrupt()
         }
+        spoolOverflowed()
+        flush()
+        maintenance.shutdown()
+        transport.shutdown(5000)
+        log.info(
+            "MonitorApiClient shutdown complete. Sent: {}, Failed: {}, Dropped: {}, Retries: {}, Encoder: {} B/event",
+            sentCount.get(), failedCount.get(), droppedCount.get(), retryCount.get(), encoder.allocatedBytesPerEvent
+        )
+        log.info("Encoding ({}): {}", if (binaryEnabled) "binary" else "json", encoder.formatStats())
+        log.info("Circuit breaker: {} (opened {} times)", breaker.currentState, breaker.openedCount.get())
+        log.info("Overload policy {}: {}", overloadPolicy.name, overloadPolicy.counters())
+        log.info(
+            "Memory budget: {} of {} bytes in use, peak {}, {} admissions refused",
+            budget.usedBytes, budget.limitBytes, budget.peakBytes, budget.rejectedCount.get()
+        )
         log.info(
-            "MonitorApiClient shutdown complete. Sent: {}, Failed: {}, Dropped: {}",
-            sentCount.get(), failedCount.get(), droppedCount.get()
+            "Transport: {} raw bytes, {} wire bytes (ratio {}), {} ms compressing",
+            transport.rawBytes.get(), transport.wireBytes.get(),
+            String.format("%.3f", transport.compressionRatio), transport.compressNanos.get() / 1_000_000
         )
+        if (spool != null) {
+            log.info(
+                "Spool: {} spooled, {} replayed, {} pending, {} expired, {} evicted",
+                spool.spooledEvents.get(), spool.replayedEvents.get(), spool.pendingEvents,
+                spool.expiredEvents.get(), spool.evictedEvents.get()
+            )
+        }
     }
 
     val queueSize: Int
         get() = eventQueue.size
 
+    /**
+     * Counters of the active overload policy (e.g. `priority.evicted`), complementing [droppedCount].
+     */
+    val overloadCounters: Map<String, Long>
+        get() = overloadPolicy.counters()
+
+    /**
+     * Heap bytes currently held by queued events and in-flight batches.
+     */
+    val memoryUsedBytes: Long
+        get() = budget.usedBytes
+
+    /**
+     * Circuit breaker state: CLOSED, OPEN or HALF_OPEN.
+     */
+    val breakerState: String
+        get() = breaker.currentState.name
+
+    val breakerOpenedCount: Long
+        get() = breaker.openedCount.get()
+
+    /**
+     * Bytes allocated per encoded event on the flush thread (-1 if the JVM cannot measure it).
+     */
+    val encodeAllocatedBytesPerEvent: Long
+        get() = encoder.allocatedBytesPerEvent
+
     companion object {
         private val log: Logger = LoggerFactory.getLogger(MonitorApiClient::class.java)
-        private var trustAllSocketFactory: SSLSocketFactory? = null
-        private var trustAllHostnameVerifier: HostnameVerifier? = null
 
         @get:Synchronized
         var instance: MonitorApiClient? = null
@@ -308,6 +691,9 @@ class MonitorApiClient private constructor() {
             }
             private set
 
-        private const val MAX_QUEUE_SIZE = 10000
+        private const val SPOOL_REPLAY_INTERVAL_MS = 5000L
+
+        /** Overflowed events waiting for the flusher to spool them. */
+        private const val OVERFLOW_HANDOFF_CAPACITY = 256
     }
 }
\ No newline at end of file
@@ -0,0 +1,100 @@
+package tr.akguel.api
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+
+/**
+ * Bounded multi-producer / single-consumer ring buffer.
+ *
+ * All slots are preallocated, so [offer] allocates nothing and takes no
+ * lock: a producer claims a slot with a single CAS on the tail and then
+ * publishes the element by advancing that slot's sequence number. The
+ * consumer only ever reads published slots, so producers never wait on it.
+ *
+ * Each slot carries a sequence (Vyukov's bounded queue):
+ * - `seq == pos`            the slot is free for the producer claiming `pos`
+ * - `seq == pos + 1`        the element for `pos` is published
+ * - `seq == pos + capacity` the consumer released it for the next lap
+ *
+ * [poll] and [drainTo] must only be called by one thread at a time.
+ * The capacity is rounded up to the next power of two.
+ */
+class MpscRingBuffer<E : Any>(requestedCapacity: Int) {
+
+    val capacity: Int = Integer.highestOneBit(maxOf(requestedCapacity - 1, 1)) shl 1
+    private val mask: Long = (capacity - 1).toLong()
+
+    private val elements = AtomicReferenceArray<E?>(capacity)
+    private val sequences = AtomicLongArray(capacity)
+    private val tail = AtomicLong(0)
+    private val head = AtomicLong(0)
+
+    init {
+        for (i in 0 until capacity) {
+            sequences.set(i, i.toLong())
+        }
+    }
+
+    /**
+     * Insert an element. Returns false if the buffer is full.
+     */
+    fun offer(element: E): Boolean {
+        var pos = tail.get()
+        while (true) {
+            val index = (pos and mask).toInt()
+            val diff = sequences.get(index) - pos
+            if (diff == 0L) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    elements.lazySet(index, element)
+                    sequences.lazySet(index, pos + 1)
+                    return true
+                }
+                pos = tail.get()
+            } else if (diff < 0) {
+                return false
+            } else {
+                // Another producer claimed this position; catch up
+                pos = tail.get()
+            }
+        }
+    }
+
+    /**
+     * Remove the oldest published element (consumer only).
+     */
+    fun poll(): E? {
+        val pos = head.get()
+        val index = (pos and mask).toInt()
+        if (sequences.get(index) != pos + 1) {
+            return null
+        }
+        val element = elements.get(index)
+        elements.lazySet(index, null)
+        sequences.lazySet(index, pos + capacity)
+        head.lazySet(pos + 1)
+        return element
+    }
+
+    /**
+     * Move up to [maxElements] published elements into [target] (consumer only).
+     */
+    fun drainTo(target: MutableCollection<in E>, maxElements: Int): Int {
+        var drained = 0
+        while (drained < maxElements) {
+            val element = poll() ?: break
+            target.add(element)
+            drained++
+        }
+        return drained
+    }
+
+    /**
+     * Approximate number of elements (claimed slots may not be published yet).
+     */
+    val size: Int
+        get() = (tail.get() - head.get()).coerceIn(0L, capacity.toLong()).toInt()
+
+    fun isEmpty(): Boolean = tail.get() == head.get()
+}
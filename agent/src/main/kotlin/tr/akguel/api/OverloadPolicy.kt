@@ -0,0 +1,211 @@
+package tr.akguel.api
+
+import tr.akguel.config.MonitorConfig
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.LockSupport
+
+
+/**
+ * Decides what happens to an event when the queue is (nearly) full.
+ *
+ * Selected with `monitor.queue.overload.policy`:
+ * - `drop-newest` — reject the incoming event (default)
+ * - `drop-oldest` — evict the oldest queued event to make room
+ * - `priority`    — keep the last [PRIORITY_RESERVE] of the queue for errors and slow calls;
+ *                   when full, a priority event evicts the oldest queued event
+ * - `block`       — wait up to `monitor.queue.block.timeout.ms` for room (test environments)
+ * - `sample`      — above half occupancy, admit routine events with a probability that
+ *                   falls linearly to zero at full; priority events are always tried
+ *
+ * Events that are lost go to [Queue.overflow] (spool or drop count); events a
+ * sampling decision skips are only counted. Every policy keeps its own counters.
+ *
+ * Evicting policies only evict when the queue is out of slots ([Offer.FULL]).
+ * An event refused by the memory budget ([Offer.OVER_BUDGET]) is lost right
+ * away: the budget may be held by batches in flight, which eviction cannot free.
+ */
+abstract class OverloadPolicy(val name: String) {
+
+    /**
+     * Outcome of [Queue.offer].
+     */
+    enum class Offer {
+        ACCEPTED,
+
+        /** No free slot in the queue. */
+        FULL,
+
+        /** The memory budget refused the event's estimated size. */
+        OVER_BUDGET
+    }
+
+    /**
+     * View of the event queue a policy operates on.
+     */
+    interface Queue {
+        val size: Int
+        val capacity: Int
+        fun offer(event: TrafficEvent): Offer
+        fun evictOldest(): TrafficEvent?
+        fun overflow(event: TrafficEvent)
+    }
+
+    private val counters: MutableMap<String, AtomicLong> = LinkedHashMap()
+
+    protected fun counter(key: String): AtomicLong {
+        val counter = AtomicLong(0)
+        counters[key] = counter
+        return counter
+    }
+
+    /**
+     * Try to enqueue [event]. Returns true if it ended up in the queue.
+     */
+    abstract fun admit(event: TrafficEvent, queue: Queue): Boolean
+
+    /**
+     * Snapshot of this policy's counters, keyed `<policy>.<counter>`.
+     */
+    fun counters(): Map<String, Long> {
+        val snapshot: MutableMap<String, Long> = LinkedHashMap()
+        for ((key, value) in counters) {
+            snapshot["$name.$key"] = value.get()
+        }
+        return snapshot
+    }
+
+    /**
+     * Offer [event], evicting the oldest queued events while the queue is out of slots.
+     * Returns false, after handing [event] to [Queue.overflow], if it could not be queued.
+     */
+    protected fun offerEvicting(event: TrafficEvent, queue: Queue, evicted: AtomicLong, rejected: AtomicLong): Boolean {
+        while (true) {
+            when (queue.offer(event)) {
+                Offer.ACCEPTED -> return true
+                Offer.OVER_BUDGET -> return reject(event, queue, rejected)
+                Offer.FULL -> {
+                    // Nothing to evict yet if the only slots are claimed but not yet published
+                    val oldest = queue.evictOldest() ?: return reject(event, queue, rejected)
+                    evicted.incrementAndGet()
+                    queue.overflow(oldest)
+                }
+            }
+        }
+    }
+
+    protected fun reject(event: TrafficEvent, queue: Queue, rejected: AtomicLong): Boolean {
+        rejected.incrementAndGet()
+        queue.overflow(event)
+        return false
+    }
+
+    private class DropNewest : OverloadPolicy("drop-newest") {
+        private val rejected = counter("rejected")
+
+        override fun admit(event: TrafficEvent, queue: Queue): Boolean {
+            if (queue.offer(event) == Offer.ACCEPTED) return true
+            rejected.incrementAndGet()
+            queue.overflow(event)
+            return false
+        }
+    }
+
+    private class DropOldest : OverloadPolicy("drop-oldest") {
+        private val evicted = counter("evicted")
+        private val rejected = counter("rejected")
+
+        override fun admit(event: TrafficEvent, queue: Queue): Boolean {
+            return offerEvicting(event, queue, evicted, rejected)
+        }
+    }
+
+    private class Priority(private val slowCallMs: Long) : OverloadPolicy("priority") {
+        private val rejectedRoutine = counter("rejected_routine")
+        private val evicted = counter("evicted")
+        private val rejectedPriority = counter("rejected_priority")
+
+        override fun admit(event: TrafficEvent, queue: Queue): Boolean {
+            if (!isPriority(event, slowCallMs)) {
+                if (queue.size < queue.capacity * (1.0 - PRIORITY_RESERVE) && queue.offer(event) == Offer.ACCEPTED) {
+                    return true
+                }
+                return reject(event, queue, rejectedRoutine)
+            }
+            return offerEvicting(event, queue, evicted, rejectedPriority)
+        }
+    }
+
+    private class Block(private val timeoutMs: Long) : OverloadPolicy("block") {
+        private val blocked = counter("blocked")
+        private val timedOut = counter("timed_out")
+
+        override fun admit(event: TrafficEvent, queue: Queue): Boolean {
+            if (queue.offer(event) == Offer.ACCEPTED) return true
+            blocked.incrementAndGet()
+            val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs)
+            while (System.nanoTime() < deadline) {
+                LockSupport.parkNanos(BLOCK_PARK_NANOS)
+                if (queue.offer(event) == Offer.ACCEPTED) return true
+            }
+            timedOut.incrementAndGet()
+            queue.overflow(event)
+            return false
+        }
+    }
+
+    private class AdaptiveSampling(private val slowCallMs: Long) : OverloadPolicy("sample") {
+        private val sampledOut = counter("sampled_out")
+        private val rejected = counter("rejected")
+
+        override fun admit(event: TrafficEvent, queue: Queue): Boolean {
+            if (!isPriority(event, slowCallMs)) {
+                val occupancy = queue.size.toDouble() / queue.capacity
+                if (occupancy > SAMPLING_START) {
+                    val keep = (1.0 - occupancy) / (1.0 - SAMPLING_START)
+                    if (ThreadLocalRandom.current().nextDouble() >= keep) {
+                        sampledOut.incrementAndGet()
+                        return false
+                    }
+                }
+            }
+            if (queue.offer(event) == Offer.ACCEPTED) return true
+            return reject(event, queue, rejected)
+        }
+    }
+
+    companion object {
+        /** Share of the queue only priority events may use. */
+        private const val PRIORITY_RESERVE = 0.1
+        private const val SAMPLING_START = 0.5
+        private const val BLOCK_PARK_NANOS = 50_000L
+
+        /**
+         * Errors, exceptions and slow calls are worth keeping over routine traffic.
+         */
+        fun isPriority(event: TrafficEvent, slowCallMs: Long): Boolean {
+            val status = event.status
+            if (status != null && status != "success") return true
+            val latency = event.latencyNanos
+            return latency != TrafficEvent.NOT_SET && latency >= slowCallMs * 1_000_000
+        }
+
+        fun forConfig(config: MonitorConfig): OverloadPolicy {
+            return named(config.queueOverloadPolicy, config.slowCallMs, config.queueBlockTimeoutMs)
+        }
+
+        /**
+         * The policy called [name]; unknown names fall back to `drop-newest`.
+         */
+        fun named(name: String, slowCallMs: Long, blockTimeoutMs: Long): OverloadPolicy {
+            return when (name) {
+                "drop-oldest" -> DropOldest()
+                "priority" -> Priority(slowCallMs)
+                "block" -> Block(blockTimeoutMs)
+                "sample" -> AdaptiveSampling(slowCallMs)
+                else -> DropNewest()
+            }
+        }
+    }
+}
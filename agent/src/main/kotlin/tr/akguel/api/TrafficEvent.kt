@@ -1,95 +1,136 @@
 package tr.akguel.api
 
-import com.google.gson.annotations.SerializedName
+import com.google.gson.annotations.JsonAdapter
 import java.time.Instant
 
 
 /**
  * Data Transfer Object for a single CORBA traffic event.
  * Maps to POST /api/traffic on the Laravel backend.
+ *
+ * Events are built on ORB threads, so the capture-time representation is
+ * kept cheap: timestamps are epoch nanos, latency is a long in nanos and
+ * ports, sizes and the sample weight are primitives with a "not set" value.
+ * The ISO timestamps and nullable JSON values are only produced when the
+ * event is serialized ([TrafficEventAdapter]) on the exporter thread.
  */
+@JsonAdapter(TrafficEventAdapter::class)
 class TrafficEvent {
-    @SerializedName("request_id")
     var requestId: String? = null
         private set
 
-    @SerializedName("operation")
     var operation: String? = null
         private set
 
-    @SerializedName("interface_name")
     var interfaceName: String? = null
         private set
 
-    @SerializedName("repository_id")
-    private var repositoryId: String? = null
+    var repositoryId: String? = null
+        private set
 
-    @SerializedName("direction")
-    var direction: String? = null // "request" or "reply"
+    var direction: String? = null // "request", "reply" or "span"
         private set
 
-    @SerializedName("status")
     var status: String? = null // "success", "error", "timeout", "exception"
         private set
 
-    @SerializedName("source_host")
-    private var sourceHost: String? = null
-
-    @SerializedName("source_port")
-    private var sourcePort: Int? = null
-
-    @SerializedName("target_host")
-    private var targetHost: String? = null
-
-    @SerializedName("target_port")
-    private var targetPort: Int? = null
+    var sourceHost: String? = null
+        private set
 
-    @SerializedName("source_service_name")
-    private var sourceServiceName: String? = null
+    var targetHost: String? = null
+        private set
 
-    @SerializedName("target_service_name")
-    private var targetServiceName: String? = null
+    var sourceServiceName: String? = null
+        private set
 
-    @SerializedName("request_data")
-    private var requestData: Any? = null
+    var targetServiceName: String? = null
+        private set
 
-    @SerializedName("response_data")
-    private var responseData: Any? = null
+    var requestData: Any? = null
+        private set
 
-    @SerializedName("error_message")
-    private var errorMessage: String? = null
+    var responseData: Any? = null
+        private set
 
-    @SerializedName("exception_type")
-    private var exceptionType: String? = null
+    var errorMessage: String? = null
+        private set
 
-    @SerializedName("latency_ms")
-    var latencyMs: Double? = null
+    var exceptionType: String? = null
         private set
 
-    @SerializedName("giop_version")
-    private var giopVersion: String? = null
+    var giopVersion: String? = null
+        private set
 
-    @SerializedName("message_type")
-    private var messageType: String? = null
+    var messageType: String? = null
+        private set
 
-    @SerializedName("request_size_bytes")
-    private var requestSizeBytes: Int? = null
+    var interceptorPoint: String? = null
+        private set
 
-    @SerializedName("response_size_bytes")
-    private var responseSizeBytes: Int? = null
+    var contextData: MutableMap<String, Any>? = null
+        private set
 
-    @SerializedName("interceptor_point")
-    private var interceptorPoint: String? = null
+    /** Wall-clock time of the interception in nanos since the epoch, 0 if unset. */
+    var timestampNanos: Long = epochNanosNow()
+        private set
 
-    @SerializedName("context_data")
-    private var contextData: MutableMap<String, Any>? = null
+    /** Span mode: [timestampNanos] of the request side, 0 if unset. */
+    var startedAtNanos: Long = 0
+        private set
 
-    @SerializedName("timestamp")
-    var timestamp: String?
+    /** Round-trip latency in nanos, [NOT_SET] if unknown. */
+    var latencyNanos: Long = NOT_SET
         private set
 
-    init {
-        this.timestamp = Instant.now().toString()
+    private var sourcePortValue: Int = NOT_SET_INT
+    private var targetPortValue: Int = NOT_SET_INT
+    private var requestSizeValue: Int = NOT_SET_INT
+    private var responseSizeValue: Int = NOT_SET_INT
+    private var sampleWeightValue: Double = Double.NaN // calls this event stands for when sampling is enabled
+
+    private var estimatedBytes: Int = -1
+
+    val sourcePort: Int?
+        get() = if (sourcePortValue == NOT_SET_INT) null else sourcePortValue
+
+    val targetPort: Int?
+        get() = if (targetPortValue == NOT_SET_INT) null else targetPortValue
+
+    val requestSizeBytes: Int?
+        get() = if (requestSizeValue == NOT_SET_INT) null else requestSizeValue
+
+    val responseSizeBytes: Int?
+        get() = if (responseSizeValue == NOT_SET_INT) null else responseSizeValue
+
+    val sampleWeight: Double?
+        get() = if (sampleWeightValue.isNaN()) null else sampleWeightValue
+
+    val latencyMs: Double?
+        get() = if (latencyNanos == NOT_SET) null else latencyNanos / 1_000_000.0
+
+    /** ISO-8601 form of [timestampNanos]; formatted on every call, so not meant for the capture path. */
+    val timestamp: String?
+        get() = formatEpochNanos(timestampNanos)
+
+    /** ISO-8601 form of [startedAtNanos]. */
+    val startedAt: String?
+        get() = formatEpochNanos(startedAtNanos)
+
+    /**
+     * Rough size of this event's JSON encoding, computed once.
+     * Used for byte-based flush triggers; not exact, but cheap.
+     */
+    fun estimatedBytes(): Int {
+        if (estimatedBytes < 0) {
+            var size = BASE_JSON_BYTES
+            size += len(requestId) + len(operation) + len(interfaceName) + len(repositoryId)
+            size += len(sourceHost) + len(targetHost) + len(sourceServiceName) + len(targetServiceName)
+            size += len(errorMessage) + len(exceptionType) + len(interceptorPoint)
+            size += estimateValue(requestData, 0) + estimateValue(responseData, 0)
+            size += estimateValue(contextData, 0)
+            estimatedBytes = size
+        }
+        return estimatedBytes
     }
 
     // Builder-style setters
@@ -128,8 +169,8 @@ class TrafficEvent {
         return this
     }
 
-    fun sourcePort(sourcePort: Int?): TrafficEvent {
-        this.sourcePort = sourcePort
+    fun sourcePort(sourcePort: Int): TrafficEvent {
+        this.sourcePortValue = sourcePort
         return this
     }
 
@@ -138,8 +179,8 @@ class TrafficEvent {
         return this
     }
 
-    fun targetPort(targetPort: Int?): TrafficEvent {
-        this.targetPort = targetPort
+    fun targetPort(targetPort: Int): TrafficEvent {
+        this.targetPortValue = targetPort
         return this
     }
 
@@ -173,8 +214,13 @@ class TrafficEvent {
         return this
     }
 
+    fun latencyNanos(nanos: Long): TrafficEvent {
+        this.latencyNanos = nanos
+        return this
+    }
+
     fun latencyMs(ms: Double?): TrafficEvent {
-        this.latencyMs = ms
+        this.latencyNanos = if (ms == null) NOT_SET else (ms * 1_000_000.0).toLong()
         return this
     }
 
@@ -188,13 +234,13 @@ class TrafficEvent {
         return this
     }
 
-    fun requestSizeBytes(bytes: Int?): TrafficEvent {
-        this.requestSizeBytes = bytes
+    fun requestSizeBytes(bytes: Int): TrafficEvent {
+        this.requestSizeValue = bytes
         return this
     }
 
-    fun responseSizeBytes(bytes: Int?): TrafficEvent {
-        this.responseSizeBytes = bytes
+    fun responseSizeBytes(bytes: Int): TrafficEvent {
+        this.responseSizeValue = bytes
         return this
     }
 
@@ -208,15 +254,109 @@ class TrafficEvent {
         return this
     }
 
+    fun timestampNanos(epochNanos: Long): TrafficEvent {
+        this.timestampNanos = epochNanos
+        return this
+    }
+
+    /**
+     * Set the timestamp from its ISO-8601 form (decoding only).
+     */
     fun timestamp(ts: String?): TrafficEvent {
-        this.timestamp = ts
+        this.timestampNanos = parseEpochNanos(ts)
+        return this
+    }
+
+    fun sampleWeight(weight: Double): TrafficEvent {
+        this.sampleWeightValue = weight
+        return this
+    }
+
+    /**
+     * Set the span start from its ISO-8601 form (decoding only).
+     */
+    fun startedAt(ts: String?): TrafficEvent {
+        this.startedAtNanos = parseEpochNanos(ts)
+        return this
+    }
+
+    /**
+     * Turn a held-back request-side event into a span completed at [interceptorPoint].
+     * The request fields (operation, hosts, context, arguments) are kept as they are.
+     */
+    fun toSpan(interceptorPoint: String?): TrafficEvent {
+        this.startedAtNanos = this.timestampNanos
+        this.timestampNanos = epochNanosNow()
+        this.direction = "span"
+        this.interceptorPoint = interceptorPoint
+        this.estimatedBytes = -1
         return this
     }
 
+    private fun len(value: String?): Int = value?.length ?: 0
+
+    private fun estimateValue(value: Any?, depth: Int): Int {
+        if (value == null) return 0
+        return when (value) {
+            is String -> value.length + 2
+            is Number, is Boolean -> 8
+            is Map<*, *> -> {
+                if (depth >= MAX_ESTIMATE_DEPTH) return value.size * 32
+                var size = 2
+                for ((k, v) in value) {
+                    size += (k?.toString()?.length ?: 4) + 4 + estimateValue(v, depth + 1)
+                }
+                size
+            }
+            is Collection<*> -> {
+                if (depth >= MAX_ESTIMATE_DEPTH) return value.size * 32
+                var size = 2
+                for (v in value) {
+                    size += 1 + estimateValue(v, depth + 1)
+                }
+                size
+            }
+            else -> 32
+        }
+    }
+
     override fun toString(): String {
         return String.format(
             "TrafficEvent{op=%s, iface=%s, dir=%s, status=%s, latency=%.1fms}",
-            operation, interfaceName, direction, status, if (latencyMs != null) latencyMs else 0.0
+            operation, interfaceName, direction, status, latencyMs ?: 0.0
         )
     }
+
+    companion object {
+        /** Keys, punctuation and fixed-width fields of an event with empty strings. */
+        private const val BASE_JSON_BYTES = 640
+        private const val MAX_ESTIMATE_DEPTH = 3
+
+        const val NOT_SET: Long = -1
+        private const val NOT_SET_INT: Int = -1
+        private const val NANOS_PER_SECOND = 1_000_000_000L
+
+        /**
+         * Current wall-clock time in epoch nanos. The [Instant] does not escape,
+         * so the JIT can scalar-replace it on the capture path.
+         */
+        fun epochNanosNow(): Long {
+            val now = Instant.now()
+            return now.epochSecond * NANOS_PER_SECOND + now.nano
+        }
+
+        fun formatEpochNanos(epochNanos: Long): String? {
+            if (epochNanos == 0L) return null
+            return Instant.ofEpochSecond(
+                Math.floorDiv(epochNanos, NANOS_PER_SECOND),
+                Math.floorMod(epochNanos, NANOS_PER_SECOND)
+            ).toString()
+        }
+
+        fun parseEpochNanos(iso: String?): Long {
+            if (iso == null) return 0
+            val instant = Instant.parse(iso)
+            return instant.epochSecond * NANOS_PER_SECOND + instant.nano
+        }
+    }
 }
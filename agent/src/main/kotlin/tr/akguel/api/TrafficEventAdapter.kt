@@ -0,0 +1,124 @@
+package tr.akguel.api
+
+import com.google.gson.Gson
+import com.google.gson.TypeAdapter
+import com.google.gson.TypeAdapterFactory
+import com.google.gson.reflect.TypeToken
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import com.google.gson.stream.JsonWriter
+
+
+/**
+ * Gson binding of [TrafficEvent] (attached via `@JsonAdapter`).
+ *
+ * Writes the JSON the API expects — snake_case keys, ISO-8601 timestamps,
+ * `latency_ms` as a double — from the event's primitive capture fields, so
+ * timestamp formatting and boxing happen on the exporter thread instead of
+ * the ORB thread. Nulls follow the writer's `serializeNulls` setting.
+ * Free-form values (arguments, results, context) are delegated to Gson.
+ */
+class TrafficEventAdapter : TypeAdapterFactory {
+
+    override fun <T> create(gson: Gson, type: TypeToken<T>): TypeAdapter<T>? {
+        if (type.rawType != TrafficEvent::class.java) return null
+        @Suppress("UNCHECKED_CAST")
+        return Adapter(gson) as TypeAdapter<T>
+    }
+
+    private class Adapter(private val gson: Gson) : TypeAdapter<TrafficEvent>() {
+
+        private val anyAdapter: TypeAdapter<Any> = gson.getAdapter(Any::class.java)
+
+        override fun write(out: JsonWriter, event: TrafficEvent?) {
+            if (event == null) {
+                out.nullValue()
+                return
+            }
+            out.beginObject()
+            out.name("request_id").value(event.requestId)
+            out.name("operation").value(event.operation)
+            out.name("interface_name").value(event.interfaceName)
+            out.name("repository_id").value(event.repositoryId)
+            out.name("direction").value(event.direction)
+            out.name("status").value(event.status)
+            out.name("source_host").value(event.sourceHost)
+            out.name("source_port").value(event.sourcePort)
+            out.name("target_host").value(event.targetHost)
+            out.name("target_port").value(event.targetPort)
+            out.name("source_service_name").value(event.sourceServiceName)
+            out.name("target_service_name").value(event.targetServiceName)
+            writeAny(out.name("request_data"), event.requestData)
+            writeAny(out.name("response_data"), event.responseData)
+            out.name("error_message").value(event.errorMessage)
+            out.name("exception_type").value(event.exceptionType)
+            out.name("latency_ms").value(event.latencyMs)
+            out.name("giop_version").value(event.giopVersion)
+            out.name("message_type").value(event.messageType)
+            out.name("request_size_bytes").value(event.requestSizeBytes)
+            out.name("response_size_bytes").value(event.responseSizeBytes)
+            out.name("interceptor_point").value(event.interceptorPoint)
+            writeAny(out.name("context_data"), event.contextData)
+            out.name("timestamp").value(event.timestamp)
+            out.name("sample_weight").value(event.sampleWeight)
+            out.name("started_at").value(event.startedAt)
+            out.endObject()
+        }
+
+        private fun writeAny(out: JsonWriter, value: Any?) {
+            if (value == null) {
+                out.nullValue()
+            } else {
+                anyAdapter.write(out, value)
+            }
+        }
+
+        @Suppress("UNCHECKED_CAST")
+        override fun read(reader: JsonReader): TrafficEvent? {
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull()
+                return null
+            }
+            val event = TrafficEvent().timestamp(null)
+            reader.beginObject()
+            while (reader.hasNext()) {
+                val name = reader.nextName()
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull()
+                    continue
+                }
+                when (name) {
+                    "request_id" -> event.requestId(reader.nextString())
+                    "operation" -> event.operation(reader.nextString())
+                    "interface_name" -> event.interfaceName(reader.nextString())
+                    "repository_id" -> event.repositoryId(reader.nextString())
+                    "direction" -> event.direction(reader.nextString())
+                    "status" -> event.status(reader.nextString())
+                    "source_host" -> event.sourceHost(reader.nextString())
+                    "source_port" -> event.sourcePort(reader.nextInt())
+                    "target_host" -> event.targetHost(reader.nextString())
+                    "target_port" -> event.targetPort(reader.nextInt())
+                    "source_service_name" -> event.sourceServiceName(reader.nextString())
+                    "target_service_name" -> event.targetServiceName(reader.nextString())
+                    "request_data" -> event.requestData(anyAdapter.read(reader))
+                    "response_data" -> event.responseData(anyAdapter.read(reader))
+                    "error_message" -> event.errorMessage(reader.nextString())
+                    "exception_type" -> event.exceptionType(reader.nextString())
+                    "latency_ms" -> event.latencyMs(reader.nextDouble())
+                    "giop_version" -> event.giopVersion(reader.nextString())
+                    "message_type" -> event.messageType(reader.nextString())
+                    "request_size_bytes" -> event.requestSizeBytes(reader.nextInt())
+                    "response_size_bytes" -> event.responseSizeBytes(reader.nextInt())
+                    "interceptor_point" -> event.interceptorPoint(reader.nextString())
+                    "context_data" -> event.contextData(anyAdapter.read(reader) as? MutableMap<String, Any>)
+                    "timestamp" -> event.timestamp(reader.nextString())
+                    "sample_weight" -> event.sampleWeight(reader.nextDouble())
+                    "started_at" -> event.startedAt(reader.nextString())
+                    else -> reader.skipValue()
+                }
+            }
+            reader.endObject()
+            return event
+        }
+    }
+}
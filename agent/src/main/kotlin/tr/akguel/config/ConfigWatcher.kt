@@ -0,0 +1,105 @@
+package tr.akguel.config
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import java.io.IOException
+import java.nio.file.ClosedWatchServiceException
+import java.nio.file.FileSystems
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.StandardWatchEventKinds
+import java.nio.file.WatchService
+import kotlin.concurrent.Volatile
+
+
+/**
+ * Watches `monitor.config.file` and calls [MonitorConfig.reload] when it changes.
+ *
+ * The directory of the file is registered with a [WatchService] (editors often
+ * replace a file instead of writing it in place). Changes are debounced by
+ * [DEBOUNCE_MS], so a save that touches the file several times reloads once.
+ * A file that cannot be parsed is logged and the current snapshot stays active.
+ */
+class ConfigWatcher private constructor(private val file: Path, private val service: WatchService) {
+
+    private val worker = Thread({ this.run() }, "corba-monitor-config-watch")
+
+    @Volatile
+    private var running = true
+
+    private fun run() {
+        while (running) {
+            try {
+                val key = service.take()
+                var changed = false
+                for (event in key.pollEvents()) {
+                    val name = event.context() as? Path
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW || name == file.fileName) changed = true
+                }
+                key.reset()
+                if (!changed) continue
+
+                // Swallow the burst of events a single save produces
+                Thread.sleep(DEBOUNCE_MS)
+                service.poll()?.let {
+                    it.pollEvents()
+                    it.reset()
+                }
+                reload()
+            } catch (e: InterruptedException) {
+                return
+            } catch (e: ClosedWatchServiceException) {
+                return
+            }
+        }
+    }
+
+    private fun reload() {
+        try {
+            MonitorConfig.reload()
+        } catch (e: Exception) {
+            log.error("Reloading {} failed — keeping the current configuration: {}", file, e.message)
+        }
+    }
+
+    fun shutdown() {
+        running = false
+        try {
+            service.close()
+        } catch (ignored: IOException) {
+        }
+        worker.interrupt()
+    }
+
+    companion object {
+        private val log: Logger = LoggerFactory.getLogger(ConfigWatcher::class.java)
+
+        private const val DEBOUNCE_MS = 250L
+
+        /**
+         * Start watching the config file of [config]; returns null if none is set or it cannot be watched.
+         */
+        fun start(config: MonitorConfig): ConfigWatcher? {
+            val name = config.configFile
+            if (name.isNullOrEmpty()) return null
+            val file = Paths.get(name).toAbsolutePath()
+            val dir = file.parent ?: return null
+            return try {
+                val service = FileSystems.getDefault().newWatchService()
+                dir.register(
+                    service,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY
+                )
+                val watcher = ConfigWatcher(file, service)
+                watcher.worker.setDaemon(true)
+                watcher.worker.start()
+                log.info("Watching {} for configuration changes", file)
+                watcher
+            } catch (e: IOException) {
+                log.warn("Cannot watch config file {}: {}", file, e.message)
+                null
+            }
+        }
+    }
+}
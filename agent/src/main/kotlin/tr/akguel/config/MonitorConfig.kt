@@ -1,52 +1,175 @@
 package tr.akguel.config
 
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import tr.akguel.rules.CaptureRules
 import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Paths
 import java.util.*
+import java.util.concurrent.CopyOnWriteArrayList
 
 /**
  * Configuration for the CORBA Monitor Agent.
  * Reads from monitor.properties, system properties, or environment variables.
  *
- * Priority: System Property > Environment Variable > Properties File > Default
+ * Priority: Runtime Override > System Property > Environment Variable > Config File > Properties File > Default
+ *
+ * An instance is an immutable snapshot. [reload] builds a new one (re-reading
+ * `monitor.config.file`) and swaps it in with a single volatile write, so
+ * readers see either the old or the new configuration, never a mix. A new
+ * snapshot is range-checked ([validate]) before it is swapped in; runtime
+ * overrides are only kept if the snapshot built with them is valid. Reloads
+ * are triggered by the [ConfigWatcher] and the `MonitorControl` MBean. Only
+ * settings that are read from [instance] per interception point or per batch
+ * take effect without a restart: [enabled], [spanEnabled], capture flags and
+ * rules, sampling, decode budget and payload size, batch size and flush
+ * interval and size. Everything else (exporter, queue, memory budget, HTTP,
+ * spool, timing, aggregation, scanner) is read once at startup.
  */
-class MonitorConfig private constructor() {
+class MonitorConfig private constructor(private val overrides: Map<String, String>) {
     val apiBaseUrl: String?
+    val exporter: String
+    val exporterFileDir: String?
+    val exporterFileMaxBytes: Long
+    val exporterFileMaxFiles: Int
+    val exporterMemoryCapacity: Int
     val apiToken: String?
     val batchSize: Int
     val flushIntervalMs: Int
+    val flushMaxBytes: Long
+    val queueCapacity: Int
+    val memoryBudgetBytes: Long
+    val queueOverloadPolicy: String
+    val queueBlockTimeoutMs: Long
+    val slowCallMs: Long
     val httpTimeoutMs: Int
     val httpPoolSize: Int
+    val httpMaxInFlight: Int
+    val httpCompression: String
+    val httpCompressionMinBytes: Int
+    val httpFormat: String
+    val retryMaxAttempts: Int
+    val retryBackoffMs: Long
+    val retryBackoffMaxMs: Long
+    val breakerFailureThreshold: Int
+    val breakerProbeIntervalMs: Long
     val enabled: Boolean
     val captureRequestData: Boolean
     val captureResponseData: Boolean
     val maxPayloadBytes: Int
+    val decodeBudgetMs: Long
+    val rules: String?
+    val configFile: String?
+    val spanEnabled: Boolean
+    val timingTtlMs: Long
+    val timingSlots: Boolean
+    val targetCacheSize: Int
+    val aggregationMode: String
+    val aggregationIntervalSeconds: Long
+    val aggregationMaxSeries: Int
+    val samplingEnabled: Boolean
+    val samplingDefaultRate: Double
+    val samplingRates: String?
+    val samplingLimits: String?
+    val samplingTailLatencyMs: Long
     val nameserverHost: String?
     val nameserverPort: Int
     val scanIntervalSeconds: Int
     val scanEnabled: Boolean
     val sslTrustAll: Boolean
+    val spoolEnabled: Boolean
+    val spoolDir: String?
+    val spoolMaxBytes: Long
+    val spoolMaxAgeSeconds: Long
+
+    /** [rules] compiled, once per snapshot. */
+    val captureRules: CaptureRules by lazy { CaptureRules.compile(this) }
 
     init {
         val props: Properties = loadProperties()
+        this.configFile = resolve(props, "monitor.config.file", "CORBA_MONITOR_CONFIG_FILE", "")
+        loadConfigFile(props, configFile)
 
         this.apiBaseUrl = resolve(props, "monitor.api.url", "CORBA_MONITOR_API_URL", "http://localhost:8000/api")!!
         this.apiToken = resolve(props, "monitor.api.token", "CORBA_MONITOR_API_TOKEN", "")!!
+        this.exporter = resolve(props, "monitor.exporter", "CORBA_MONITOR_EXPORTER", "http")!!.lowercase()
+        this.exporterFileDir = resolve(props, "monitor.exporter.file.dir", "CORBA_MONITOR_EXPORTER_FILE_DIR", "traffic")!!
+        this.exporterFileMaxBytes =
+            resolve(props, "monitor.exporter.file.max.bytes", "CORBA_MONITOR_EXPORTER_FILE_MAX_BYTES", "67108864")!!.toLong()
+        this.exporterFileMaxFiles =
+            resolve(props, "monitor.exporter.file.max.files", "CORBA_MONITOR_EXPORTER_FILE_MAX_FILES", "10")!!.toInt()
+        this.exporterMemoryCapacity =
+            resolve(props, "monitor.exporter.memory.capacity", "CORBA_MONITOR_EXPORTER_MEMORY_CAPACITY", "10000")!!.toInt()
         this.batchSize = resolve(props, "monitor.batch.size", "CORBA_MONITOR_BATCH_SIZE", "50")!!.toInt()
         this.flushIntervalMs = resolve(props, "monitor.flush.interval.ms", "CORBA_MONITOR_FLUSH_MS", "1000")!!.toInt()
+        this.flushMaxBytes = resolve(props, "monitor.flush.max.bytes", "CORBA_MONITOR_FLUSH_BYTES", "262144")!!.toLong()
+        this.queueCapacity = resolve(props, "monitor.queue.capacity", "CORBA_MONITOR_QUEUE_CAPACITY", "10000")!!.toInt()
+        this.memoryBudgetBytes =
+            resolve(props, "monitor.memory.budget.bytes", "CORBA_MONITOR_MEMORY_BUDGET", "33554432")!!.toLong()
+        this.queueOverloadPolicy =
+            resolve(props, "monitor.queue.overload.policy", "CORBA_MONITOR_OVERLOAD_POLICY", "drop-newest")!!.lowercase()
+        this.queueBlockTimeoutMs =
+            resolve(props, "monitor.queue.block.timeout.ms", "CORBA_MONITOR_BLOCK_TIMEOUT", "100")!!.toLong()
+        this.slowCallMs = resolve(props, "monitor.slow.call.ms", "CORBA_MONITOR_SLOW_CALL_MS", "1000")!!.toLong()
         this.httpTimeoutMs = resolve(props, "monitor.http.timeout.ms", "CORBA_MONITOR_HTTP_TIMEOUT", "5000")!!.toInt()
         this.httpPoolSize = resolve(props, "monitor.http.pool.size", "CORBA_MONITOR_HTTP_POOL", "4")!!.toInt()
+        this.httpMaxInFlight =
+            resolve(props, "monitor.http.max.inflight", "CORBA_MONITOR_HTTP_MAX_INFLIGHT", "8")!!.toInt()
+        this.httpCompression =
+            resolve(props, "monitor.http.compression", "CORBA_MONITOR_HTTP_COMPRESSION", "none")!!.lowercase()
+        this.httpCompressionMinBytes =
+            resolve(props, "monitor.http.compression.min.bytes", "CORBA_MONITOR_HTTP_COMPRESSION_MIN", "1024")!!.toInt()
+        this.httpFormat = resolve(props, "monitor.http.format", "CORBA_MONITOR_HTTP_FORMAT", "json")!!.lowercase()
+        this.retryMaxAttempts = resolve(props, "monitor.retry.max.attempts", "CORBA_MONITOR_RETRY_ATTEMPTS", "3")!!.toInt()
+        this.retryBackoffMs = resolve(props, "monitor.retry.backoff.ms", "CORBA_MONITOR_RETRY_BACKOFF", "200")!!.toLong()
+        this.retryBackoffMaxMs =
+            resolve(props, "monitor.retry.backoff.max.ms", "CORBA_MONITOR_RETRY_BACKOFF_MAX", "5000")!!.toLong()
+        this.breakerFailureThreshold =
+            resolve(props, "monitor.breaker.failure.threshold", "CORBA_MONITOR_BREAKER_THRESHOLD", "5")!!.toInt()
+        this.breakerProbeIntervalMs =
+            resolve(props, "monitor.breaker.probe.interval.ms", "CORBA_MONITOR_BREAKER_PROBE_MS", "5000")!!.toLong()
         this.enabled = resolve(props, "monitor.enabled", "CORBA_MONITOR_ENABLED", "true")!!.toBoolean()
         this.captureRequestData =
             resolve(props, "monitor.capture.request", "CORBA_MONITOR_CAPTURE_REQ", "true")!!.toBoolean()
         this.captureResponseData =
             resolve(props, "monitor.capture.response", "CORBA_MONITOR_CAPTURE_RES", "true")!!.toBoolean()
         this.maxPayloadBytes = resolve(props, "monitor.max.payload.bytes", "CORBA_MONITOR_MAX_PAYLOAD", "65536")!!.toInt()
+        this.decodeBudgetMs =
+            resolve(props, "monitor.capture.decode.budget.ms", "CORBA_MONITOR_DECODE_BUDGET_MS", "5")!!.toLong()
+        this.rules = resolve(props, "monitor.rules", "CORBA_MONITOR_RULES", "")
+        this.spanEnabled = resolve(props, "monitor.span.enabled", "CORBA_MONITOR_SPAN_ENABLED", "false")!!.toBoolean()
+        this.timingTtlMs = resolve(props, "monitor.timing.ttl.ms", "CORBA_MONITOR_TIMING_TTL", "300000")!!.toLong()
+        this.timingSlots = resolve(props, "monitor.timing.slots", "CORBA_MONITOR_TIMING_SLOTS", "true")!!.toBoolean()
+        this.targetCacheSize =
+            resolve(props, "monitor.target.cache.size", "CORBA_MONITOR_TARGET_CACHE_SIZE", "4096")!!.toInt()
+        this.aggregationMode =
+            resolve(props, "monitor.aggregation.mode", "CORBA_MONITOR_AGGREGATION_MODE", "off")!!.lowercase()
+        this.aggregationIntervalSeconds =
+            resolve(props, "monitor.aggregation.interval.seconds", "CORBA_MONITOR_AGGREGATION_INTERVAL", "10")!!.toLong()
+        this.aggregationMaxSeries =
+            resolve(props, "monitor.aggregation.max.series", "CORBA_MONITOR_AGGREGATION_MAX_SERIES", "5000")!!.toInt()
+        this.samplingEnabled =
+            resolve(props, "monitor.sampling.enabled", "CORBA_MONITOR_SAMPLING_ENABLED", "false")!!.toBoolean()
+        this.samplingDefaultRate =
+            resolve(props, "monitor.sampling.default.rate", "CORBA_MONITOR_SAMPLING_RATE", "1.0")!!.toDouble()
+        this.samplingRates = resolve(props, "monitor.sampling.rates", "CORBA_MONITOR_SAMPLING_RATES", "")
+        this.samplingLimits = resolve(props, "monitor.sampling.limits", "CORBA_MONITOR_SAMPLING_LIMITS", "")
+        this.samplingTailLatencyMs = resolve(
+            props, "monitor.sampling.tail.latency.ms", "CORBA_MONITOR_SAMPLING_TAIL_MS", slowCallMs.toString()
+        )!!.toLong()
         this.nameserverHost = resolve(props, "monitor.nameserver.host", "CORBA_NAMESERVER_HOST", "localhost")!!
         this.nameserverPort = resolve(props, "monitor.nameserver.port", "CORBA_NAMESERVER_PORT", "2809")!!.toInt()
         this.scanIntervalSeconds =
             resolve(props, "monitor.scan.interval.seconds", "CORBA_MONITOR_SCAN_INTERVAL", "30")!!.toInt()
         this.scanEnabled = resolve(props, "monitor.scan.enabled", "CORBA_MONITOR_SCAN_ENABLED", "true")!!.toBoolean()
         this.sslTrustAll = resolve(props, "monitor.ssl.trust-all", "CORBA_MONITOR_SSL_TRUST_ALL", "false")!!.toBoolean()
+        this.spoolEnabled = resolve(props, "monitor.spool.enabled", "CORBA_MONITOR_SPOOL_ENABLED", "false")!!.toBoolean()
+        this.spoolDir = resolve(props, "monitor.spool.dir", "CORBA_MONITOR_SPOOL_DIR", "spool")!!
+        this.spoolMaxBytes =
+            resolve(props, "monitor.spool.max.bytes", "CORBA_MONITOR_SPOOL_MAX_BYTES", "67108864")!!.toLong()
+        this.spoolMaxAgeSeconds =
+            resolve(props, "monitor.spool.max.age.seconds", "CORBA_MONITOR_SPOOL_MAX_AGE", "86400")!!.toLong()
     }
 
     private fun loadProperties(): Properties {
@@ -64,10 +187,61 @@ class MonitorConfig private constructor() {
     }
 
     /**
-     * Resolve a config value: System Property > Env Var > Properties > Default
+     * Overlay [props] with the external config file, if one is set.
+     */
+    private fun loadConfigFile(props: Properties, file: String?) {
+        if (file.isNullOrEmpty()) return
+        val path = Paths.get(file)
+        if (!Files.isReadable(path)) {
+            log.warn("Config file {} not readable — using monitor.properties only", path.toAbsolutePath())
+            return
+        }
+        try {
+            Files.newBufferedReader(path).use { props.load(it) }
+        } catch (e: IOException) {
+            log.warn("Cannot read config file {}: {}", path, e.message)
+        }
+    }
+
+    /**
+     * Range-check the values that can change at runtime.
+     *
+     * @throws IllegalArgumentException naming the first invalid property
+     */
+    fun validate() {
+        require(batchSize > 0) { "monitor.batch.size must be > 0: $batchSize" }
+        require(flushIntervalMs > 0) { "monitor.flush.interval.ms must be > 0: $flushIntervalMs" }
+        require(flushMaxBytes > 0) { "monitor.flush.max.bytes must be > 0: $flushMaxBytes" }
+        require(maxPayloadBytes > 0) { "monitor.max.payload.bytes must be > 0: $maxPayloadBytes" }
+        require(decodeBudgetMs > 0) { "monitor.capture.decode.budget.ms must be > 0: $decodeBudgetMs" }
+        require(samplingDefaultRate in 0.0..1.0) { "monitor.sampling.default.rate must be in [0, 1]: $samplingDefaultRate" }
+        require(samplingTailLatencyMs >= 0) { "monitor.sampling.tail.latency.ms must be >= 0: $samplingTailLatencyMs" }
+        checkRules("monitor.sampling.rates", samplingRates, 1.0)
+        checkRules("monitor.sampling.limits", samplingLimits, Double.MAX_VALUE)
+    }
+
+    /**
+     * Check a `key:value, key:value` list: every value a number in [0, max].
+     */
+    private fun checkRules(key: String, spec: String?, max: Double) {
+        if (spec.isNullOrBlank()) return
+        for (entry in spec.split(',')) {
+            val trimmed = entry.trim()
+            if (trimmed.isEmpty()) continue
+            val colon = trimmed.lastIndexOf(':')
+            val value = if (colon > 0) trimmed.substring(colon + 1).trim().toDoubleOrNull() else null
+            require(value != null && value >= 0.0 && value <= max) { "$key: malformed or out-of-range entry '$trimmed'" }
+        }
+    }
+
+    /**
+     * Resolve a config value: Override > System Property > Env Var > Properties > Default
      */
     private fun resolve(props: Properties, propKey: String, envKey: String?, defaultValue: String?): String? {
-        var value = System.getProperty(propKey)
+        var value = overrides[propKey]
+        if (value != null && !value.isEmpty()) return value
+
+        value = System.getProperty(propKey)
         if (value != null && !value.isEmpty()) return value
 
         value = System.getenv(envKey)
@@ -83,6 +257,8 @@ class MonitorConfig private constructor() {
         get() = "$apiBaseUrl/traffic"
     val batchEndpoint: String
         get() = "$apiBaseUrl/traffic/batch"
+    val summaryEndpoint: String
+        get() = "$apiBaseUrl/traffic/summary"
     val nameserverReportEndpoint: String
         get() = "$apiBaseUrl/nameserver/report"
     val healthEndpoint: String
@@ -97,16 +273,100 @@ class MonitorConfig private constructor() {
     }
 
     companion object {
+        private val log: Logger = LoggerFactory.getLogger(MonitorConfig::class.java)
+
         private const val PROPS_FILE = "monitor.properties"
 
-        @get:Synchronized
-        var instance: MonitorConfig? = null
-            get() {
-                if (field == null) {
-                    this.instance = MonitorConfig()
+        /** Runtime overrides; replaced as a whole, only with values a valid snapshot was built from. */
+        @Volatile
+        private var activeOverrides: Map<String, String> = emptyMap()
+        private val listeners = CopyOnWriteArrayList<(MonitorConfig) -> Unit>()
+
+        @Volatile
+        private var current: MonitorConfig? = null
+
+        /**
+         * The current snapshot. Read it once per unit of work (call, batch) and
+         * use that reference throughout.
+         */
+        val instance: MonitorConfig?
+            get() = current ?: initialize()
+
+        @Synchronized
+        private fun initialize(): MonitorConfig {
+            return current ?: MonitorConfig(activeOverrides).also { current = it }
+        }
+
+        /**
+         * Build a new snapshot from the current sources and swap it in, then
+         * notify the reload listeners. The old snapshot stays in place if the
+         * new configuration cannot be parsed or is out of range.
+         *
+         * @throws IllegalArgumentException if it cannot
+         */
+        @Synchronized
+        fun reload(): MonitorConfig {
+            return swap(build(activeOverrides))
+        }
+
+        /**
+         * A validated snapshot with [overrides] applied, not yet swapped in.
+         */
+        private fun build(overrides: Map<String, String>): MonitorConfig {
+            val next = MonitorConfig(overrides)
+            next.validate()
+            next.captureRules
+            return next
+        }
+
+        private fun swap(next: MonitorConfig): MonitorConfig {
+            activeOverrides = next.overrides
+            current = next
+            log.info("Configuration reloaded: {}", next)
+            for (listener in listeners) {
+                try {
+                    listener(next)
+                } catch (e: Exception) {
+                    log.warn("Reload listener failed: {}", e.message)
                 }
-                return field
             }
-            private set
+            return next
+        }
+
+        /**
+         * Register [listener] to be called with each reloaded snapshot.
+         */
+        fun onReload(listener: (MonitorConfig) -> Unit) {
+            listeners.add(listener)
+        }
+
+        /**
+         * Set a runtime override for [key] (a `monitor.*` property), or remove it when [value]
+         * is empty, and reload. The override is only kept if the resulting snapshot is valid.
+         *
+         * @throws IllegalArgumentException if it is not; nothing changes then
+         */
+        @Synchronized
+        fun setOverride(key: String, value: String?): MonitorConfig {
+            val candidate = HashMap(activeOverrides)
+            if (value.isNullOrEmpty()) {
+                candidate.remove(key)
+            } else {
+                candidate[key] = value
+            }
+            return swap(build(candidate))
+        }
+
+        /**
+         * Remove all runtime overrides and reload.
+         */
+        @Synchronized
+        fun clearOverrides(): MonitorConfig {
+            return swap(build(emptyMap()))
+        }
+
+        fun overrides(): Map<String, String> {
+            return TreeMap(activeOverrides)
+        }
     }
-}
\ No newline at end of file
+}
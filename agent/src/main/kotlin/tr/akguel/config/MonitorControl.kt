@@ -0,0 +1,69 @@
+package tr.akguel.config
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import java.lang.management.ManagementFactory
+import javax.management.JMException
+import javax.management.ObjectName
+
+
+/**
+ * Standard MBean to reload the configuration and set runtime overrides while
+ * the ORB keeps running (e.g. from JConsole or `jcmd`).
+ *
+ * Operations return the resulting snapshot, or the error if the new
+ * configuration could not be built or is out of range — the current snapshot
+ * and overrides then stay active.
+ */
+class MonitorControl private constructor() : MonitorControlMBean {
+
+    override val configuration: String
+        get() = MonitorConfig.instance!!.toString()
+
+    override val overrides: Map<String, String>
+        get() = MonitorConfig.overrides()
+
+    override fun reload(): String {
+        return apply("Reload") { MonitorConfig.reload() }
+    }
+
+    override fun setOverride(key: String, value: String?): String {
+        return apply("Override $key") { MonitorConfig.setOverride(key, value) }
+    }
+
+    override fun clearOverrides(): String {
+        return apply("Clearing overrides") { MonitorConfig.clearOverrides() }
+    }
+
+    private inline fun apply(what: String, change: () -> MonitorConfig): String {
+        return try {
+            change().toString()
+        } catch (e: IllegalArgumentException) {
+            log.error("{} via JMX failed — keeping the current configuration: {}", what, e.message)
+            "$what failed: ${e.message}"
+        }
+    }
+
+    companion object {
+        private val log: Logger = LoggerFactory.getLogger(MonitorControl::class.java)
+
+        const val OBJECT_NAME = "tr.akguel:type=CorbaMonitor"
+
+        /**
+         * Register the MBean with the platform MBean server (once per JVM).
+         */
+        @Synchronized
+        fun register() {
+            try {
+                val server = ManagementFactory.getPlatformMBeanServer()
+                val name = ObjectName(OBJECT_NAME)
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(MonitorControl(), name)
+                    log.info("JMX control registered as {}", OBJECT_NAME)
+                }
+            } catch (e: JMException) {
+                log.warn("Cannot register JMX control {}: {}", OBJECT_NAME, e.message)
+            }
+        }
+    }
+}
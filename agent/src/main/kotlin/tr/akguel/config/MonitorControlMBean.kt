@@ -0,0 +1,21 @@
+package tr.akguel.config
+
+/**
+ * JMX management interface of the agent, registered as `tr.akguel:type=CorbaMonitor`.
+ */
+interface MonitorControlMBean {
+    /** The active configuration snapshot. */
+    val configuration: String
+
+    /** Runtime overrides, applied on top of every other source. */
+    val overrides: Map<String, String>
+
+    /** Re-read all sources and swap in the new snapshot. */
+    fun reload(): String
+
+    /** Override a `monitor.*` property (empty value removes it) and reload; kept only if valid. */
+    fun setOverride(key: String, value: String?): String
+
+    /** Remove all runtime overrides and reload. */
+    fun clearOverrides(): String
+}
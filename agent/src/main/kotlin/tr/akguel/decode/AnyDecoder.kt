@@ -0,0 +1,77 @@
+package tr.akguel.decode
+
+import org.omg.CORBA.Any
+import org.omg.CORBA.TCKind
+import org.omg.CORBA.TypeCode
+
+
+/**
+ * Converts CORBA `Any` values into plain Java values for JSON serialization.
+ * Runs on the [DecodeStage] thread, never on an ORB thread.
+ *
+ * Primitives and enums are extracted directly; structs, unions, sequences,
+ * arrays, aliases and user exceptions are read with the plan compiled for
+ * their type by [TypeCodeCompiler]. Unsigned IDL types are reported with
+ * their unsigned value.
+ */
+object AnyDecoder {
+
+    /**
+     * Convert a CORBA Any to a Java Object for JSON serialization.
+     */
+    fun decode(any: Any?, budget: DecodeBudget): kotlin.Any? {
+        if (any == null) return null
+
+        try {
+            val type = any.type()
+            val kind = type.kind()
+            when (kind.value()) {
+                TCKind._tk_string -> return budget.clip(any.extract_string())
+                TCKind._tk_wstring -> return budget.clip(any.extract_wstring())
+                TCKind._tk_enum -> return budget.clip(type.member_name(any.create_input_stream().read_long()))
+                TCKind._tk_void, TCKind._tk_null -> return null
+                TCKind._tk_boolean, TCKind._tk_char, TCKind._tk_wchar, TCKind._tk_octet, TCKind._tk_short,
+                TCKind._tk_ushort, TCKind._tk_long, TCKind._tk_ulong, TCKind._tk_longlong, TCKind._tk_ulonglong,
+                TCKind._tk_float, TCKind._tk_double -> {
+                    budget.charge(8)
+                    return primitive(any, kind.value())
+                }
+                else -> {
+                    val reader = TypeCodeCompiler.readerFor(type) ?: return describe(type, kind)
+                    return reader.read(any.create_input_stream(), budget)
+                }
+            }
+        } catch (e: Exception) {
+            return "<" + e.javaClass.getSimpleName() + ">"
+        }
+    }
+
+    private fun primitive(any: Any, kind: Int): kotlin.Any? {
+        return when (kind) {
+            TCKind._tk_boolean -> any.extract_boolean()
+            TCKind._tk_char -> any.extract_char().toString()
+            TCKind._tk_wchar -> any.extract_wchar().toString()
+            TCKind._tk_octet -> any.extract_octet().toInt() and 0xFF
+            TCKind._tk_short -> any.extract_short()
+            TCKind._tk_ushort -> any.extract_ushort().toInt() and 0xFFFF
+            TCKind._tk_long -> any.extract_long()
+            TCKind._tk_ulong -> any.extract_ulong().toLong() and 0xFFFFFFFFL
+            TCKind._tk_longlong -> any.extract_longlong()
+            TCKind._tk_ulonglong -> any.extract_ulonglong()
+            TCKind._tk_float -> any.extract_float()
+            TCKind._tk_double -> any.extract_double()
+            else -> null
+        }
+    }
+
+    /**
+     * Type info for values whose type cannot be decoded.
+     */
+    private fun describe(type: TypeCode, kind: TCKind): MutableMap<String, kotlin.Any> {
+        val complex: MutableMap<String, kotlin.Any> = LinkedHashMap<String, kotlin.Any>()
+        complex["_type"] = type.name()
+        complex["_kind"] = kind.value()
+        complex["_id"] = type.id()
+        return complex
+    }
+}
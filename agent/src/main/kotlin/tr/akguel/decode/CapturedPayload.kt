@@ -0,0 +1,91 @@
+package tr.akguel.decode
+
+import org.omg.CORBA.Any
+
+
+/**
+ * Arguments, a return value or a user exception captured by reference at an
+ * interception point.
+ *
+ * The interceptor only keeps the `Any` references (the values are complete
+ * once the request or reply has been marshalled); the [DecodeStage] turns
+ * them into the JSON-ready map later, within a time budget per event.
+ */
+class CapturedPayload private constructor(
+    private val idlType: String?,
+    private val values: Array<Any?>,
+    private val valueKey: String?
+) {
+
+    /**
+     * Decode into the `request_data`/`response_data` shape, producing at most
+     * about [maxBytes] of JSON. Values not reached before [deadlineNanos] or
+     * beyond [maxBytes] are left out; the payload is then flagged `truncated`
+     * with the point of the cut and the element counts of the cut sequences.
+     */
+    fun decode(deadlineNanos: Long, maxBytes: Int): MutableMap<String, kotlin.Any> {
+        val budget = DecodeBudget(deadlineNanos, maxBytes)
+        val data: MutableMap<String, kotlin.Any> = LinkedHashMap()
+        if (idlType != null) {
+            data["_idl_type"] = idlType
+        }
+        if (valueKey != null) {
+            data[valueKey] = AnyDecoder.decode(values[0], budget) ?: "<unavailable>"
+            if (budget.exhausted) {
+                markTruncated(data, budget, valueKey, "$valueKey is incomplete")
+            }
+            return data
+        }
+
+        val params: MutableMap<String, kotlin.Any> = LinkedHashMap()
+        var cutAt = -1
+        for (i in values.indices) {
+            if (i > 0 && !budget.checkNow()) {
+                cutAt = i
+                break
+            }
+            params["arg$i"] = AnyDecoder.decode(values[i], budget) ?: "<unavailable>"
+            if (budget.exhausted) {
+                cutAt = i
+                break
+            }
+        }
+        data["params"] = params
+        if (cutAt >= 0) {
+            markTruncated(
+                data, budget, "params.arg$cutAt",
+                "decoded ${params.size} of ${values.size} arguments, the last one may be incomplete"
+            )
+        }
+        return data
+    }
+
+    private fun markTruncated(data: MutableMap<String, kotlin.Any>, budget: DecodeBudget, root: String, detail: String) {
+        data["truncated"] = true
+        data["_truncated_at"] = budget.truncationPoint(root)
+        data["_truncated_by"] = budget.reason ?: "time"
+        val counts = budget.elementCounts(root)
+        if (counts.isNotEmpty()) {
+            data["_element_counts"] = counts
+        }
+        data["_note"] = if (budget.reason == "size") {
+            "Payload exceeds monitor.max.payload.bytes, $detail"
+        } else {
+            "Decode budget exceeded, $detail"
+        }
+    }
+
+    companion object {
+        fun arguments(operation: String?, values: Array<Any?>): CapturedPayload {
+            return CapturedPayload(operation, values, null)
+        }
+
+        fun result(operation: String?, value: Any): CapturedPayload {
+            return CapturedPayload("$operation::_return", arrayOf<Any?>(value), "return_value")
+        }
+
+        fun exception(exceptionId: String, value: Any): CapturedPayload {
+            return CapturedPayload(exceptionId, arrayOf<Any?>(value), "exception")
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package tr.akguel.decode
+
+/**
+ * Time and size budget for decoding one payload.
+ *
+ * Readers call [check] once per element or member and [charge] the
+ * approximate JSON size of what they produce. The clock is only read every
+ * [CHECK_INTERVAL] calls. Once the deadline has passed or more than
+ * [maxBytes] have been produced, [exhausted] stays set: readers stop where
+ * they are and return what they have, the rest of the CDR stream is not read
+ * and the rest of the structure is never built.
+ *
+ * While unwinding, readers report their position ([unwind]), so the payload
+ * can tell where it was cut and how many elements the cut sequences hold.
+ */
+class DecodeBudget(private val deadlineNanos: Long, private val maxBytes: Int = Int.MAX_VALUE) {
+    private var calls = 0
+    private var bytes = 0L
+    private val segments = ArrayList<String>(0)
+    private val counts = ArrayList<SequenceCount>(0)
+
+    var exhausted: Boolean = false
+        private set
+
+    /** `time` or `size` once [exhausted]. */
+    var reason: String? = null
+        private set
+
+    fun check(): Boolean {
+        if (exhausted) return false
+        if (((++calls) and (CHECK_INTERVAL - 1)) == 0 && System.nanoTime() > deadlineNanos) {
+            exhaust("time")
+        }
+        return !exhausted
+    }
+
+    /** Check the clock now, e.g. between two arguments. */
+    fun checkNow(): Boolean {
+        if (!exhausted && System.nanoTime() > deadlineNanos) {
+            exhaust("time")
+        }
+        return !exhausted
+    }
+
+    /** Account for [size] bytes of output. */
+    fun charge(size: Int) {
+        bytes += size
+        if (bytes > maxBytes && !exhausted) exhaust("size")
+    }
+
+    /** Bytes that can still be produced. */
+    fun remaining(): Int {
+        return (maxBytes - bytes).coerceIn(0L, Int.MAX_VALUE.toLong()).toInt()
+    }
+
+    /** Charge a string, cutting it to what is left of the size budget. */
+    fun clip(value: String): String {
+        val left = remaining() - 2
+        charge(value.length + 2)
+        return if (value.length <= left) value else value.substring(0, maxOf(0, left))
+    }
+
+    /**
+     * Record the position of a reader that stopped or whose element was cut:
+     * [segment] is `.member` or `[index]`, called from the innermost reader outwards.
+     */
+    fun unwind(segment: String) {
+        segments.add(segment)
+    }
+
+    /** Like [unwind] for a sequence cut at [index] of [total] elements. */
+    fun unwind(index: Int, total: Int) {
+        counts.add(SequenceCount(segments.size, index, total))
+        segments.add("[$index]")
+    }
+
+    /** Path of the cut below [root], e.g. `return_value[812].driver_name`. */
+    fun truncationPoint(root: String): String {
+        return root + pathFrom(0)
+    }
+
+    /** Decoded and total element count of every cut sequence, keyed by its path below [root]. */
+    fun elementCounts(root: String): MutableMap<String, Any> {
+        val result: MutableMap<String, Any> = LinkedHashMap()
+        for (count in counts.asReversed()) {
+            result[root + pathFrom(count.depth + 1)] = linkedMapOf("decoded" to count.decoded, "total" to count.total)
+        }
+        return result
+    }
+
+    private fun pathFrom(first: Int): String {
+        val path = StringBuilder()
+        for (i in segments.size - 1 downTo first) {
+            path.append(segments[i])
+        }
+        return path.toString()
+    }
+
+    private fun exhaust(why: String) {
+        exhausted = true
+        reason = why
+    }
+
+    private class SequenceCount(val depth: Int, val decoded: Int, val total: Int)
+
+    companion object {
+        private const val CHECK_INTERVAL = 64
+    }
+}
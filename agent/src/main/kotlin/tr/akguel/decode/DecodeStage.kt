@@ -0,0 +1,176 @@
+package tr.akguel.decode
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import tr.akguel.api.MemoryBudget
+import tr.akguel.api.MpscRingBuffer
+import tr.akguel.api.TrafficEvent
+import tr.akguel.config.MonitorConfig
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.LockSupport
+import kotlin.concurrent.Volatile
+
+
+/**
+ * Turns the [CapturedPayload]s of sampled events into JSON-ready maps on a
+ * background thread, then hands the events to [downstream] (the exporter).
+ *
+ * Interceptors only offer events to a lock-free ring buffer; the
+ * `corba-monitor-decode` thread drains it. Each event gets a budget of
+ * `monitor.capture.decode.budget.ms` for its arguments and result together,
+ * and each payload at most `monitor.max.payload.bytes` of output; values not
+ * reached in time or beyond the size are left out and the payload is flagged
+ * `truncated`. Both limits are read from the current config snapshot per event,
+ * so a reload applies to the next event.
+ *
+ * A queued event pins its raw `Any` payloads, so it reserves their size in the
+ * shared [MemoryBudget] until it is decoded — estimated by the GIOP message
+ * size of its request or reply, [DEFAULT_PAYLOAD_BYTES] if that is unknown.
+ * When the buffer is full or the budget refuses the reservation, the payload
+ * is dropped and counted, and the event is shipped right away with a note
+ * instead; nothing is decoded on the interceptor thread.
+ */
+class DecodeStage(
+    private val config: MonitorConfig,
+    private val budget: MemoryBudget,
+    private val downstream: (TrafficEvent) -> Unit
+) {
+    private val queue = MpscRingBuffer<TrafficEvent>(config.queueCapacity)
+    private val signalled = AtomicBoolean(false)
+    private val worker = Thread({ this.run() }, "corba-monitor-decode")
+
+    val decodedCount: AtomicLong = AtomicLong(0)
+    val budgetExceededCount: AtomicLong = AtomicLong(0)
+    val truncatedCount: AtomicLong = AtomicLong(0)
+    val overflowCount: AtomicLong = AtomicLong(0)
+    val overBudgetCount: AtomicLong = AtomicLong(0)
+
+    @Volatile
+    private var running = true
+
+    init {
+        worker.setDaemon(true)
+        worker.start()
+    }
+
+    fun submit(event: TrafficEvent) {
+        val bytes = payloadBytes(event)
+        if (!budget.tryReserve(bytes)) {
+            overBudgetCount.incrementAndGet()
+            dropPayload(event, "memory budget exhausted")
+            return
+        }
+        if (!running || !queue.offer(event)) {
+            budget.release(bytes)
+            overflowCount.incrementAndGet()
+            dropPayload(event, "decode queue full")
+            return
+        }
+        if (signalled.compareAndSet(false, true)) {
+            LockSupport.unpark(worker)
+        }
+    }
+
+    private fun run() {
+        while (running) {
+            if (queue.isEmpty() && !signalled.get()) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS)
+            }
+            signalled.set(false)
+            drain()
+        }
+    }
+
+    @Synchronized
+    private fun drain() {
+        while (true) {
+            val event = queue.poll() ?: return
+            // The decoded map is accounted for by the exporter from here on
+            budget.release(payloadBytes(event))
+            try {
+                val snapshot = MonitorConfig.instance!!
+                val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(snapshot.decodeBudgetMs)
+                event.requestData(decode(event.requestData, deadline, snapshot.maxPayloadBytes))
+                event.responseData(decode(event.responseData, deadline, snapshot.maxPayloadBytes))
+                decodedCount.incrementAndGet()
+            } catch (e: Exception) {
+                log.debug("Decoding payload of {} failed: {}", event.operation, e.message)
+            }
+            downstream(event)
+        }
+    }
+
+    private fun decode(data: Any?, deadlineNanos: Long, maxBytes: Int): Any? {
+        if (data !is CapturedPayload) return data
+        val decoded = data.decode(deadlineNanos, maxBytes)
+        when (decoded["_truncated_by"]) {
+            "time" -> budgetExceededCount.incrementAndGet()
+            "size" -> truncatedCount.incrementAndGet()
+        }
+        return decoded
+    }
+
+    /**
+     * Ship [event] without its captured payloads (the interceptor thread must not decode them).
+     */
+    private fun dropPayload(event: TrafficEvent, reason: String) {
+        event.requestData(skipped(event.requestData, reason))
+        event.responseData(skipped(event.responseData, reason))
+        downstream(event)
+    }
+
+    private fun skipped(data: Any?, reason: String): Any? {
+        if (data !is CapturedPayload) return data
+        return mutableMapOf<String, Any>("_note" to "Not decoded ($reason)")
+    }
+
+    /**
+     * Bytes the captured payloads of [event] hold while queued; stable until the event is drained.
+     */
+    private fun payloadBytes(event: TrafficEvent): Long {
+        var bytes = 0L
+        if (event.requestData is CapturedPayload) {
+            bytes += event.requestSizeBytes ?: DEFAULT_PAYLOAD_BYTES
+        }
+        if (event.responseData is CapturedPayload) {
+            bytes += event.responseSizeBytes ?: DEFAULT_PAYLOAD_BYTES
+        }
+        return bytes
+    }
+
+    fun counters(): Map<String, Long> {
+        return linkedMapOf(
+            "decoded" to decodedCount.get(),
+            "budget_exceeded" to budgetExceededCount.get(),
+            "truncated" to truncatedCount.get(),
+            "overflow" to overflowCount.get(),
+            "over_budget" to overBudgetCount.get()
+        )
+    }
+
+    /**
+     * Stop the worker and decode what is still queued on the calling thread.
+     */
+    fun shutdown() {
+        running = false
+        LockSupport.unpark(worker)
+        try {
+            worker.join(config.httpTimeoutMs.toLong())
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+        drain()
+        log.info("DecodeStage stopped: {}, type plans {}", counters(), TypeCodeCompiler.counters())
+    }
+
+    companion object {
+        private val log: Logger = LoggerFactory.getLogger(DecodeStage::class.java)
+
+        private val IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100)
+
+        /** Payload estimate when the GIOP message size is unknown. */
+        const val DEFAULT_PAYLOAD_BYTES = 4096
+    }
+}
@@ -0,0 +1,329 @@
+package tr.akguel.decode
+
+import org.omg.CORBA.TCKind
+import org.omg.CORBA.TypeCode
+import org.omg.CORBA.portable.InputStream
+import java.util.Base64
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+
+/**
+ * Compiled plan for one IDL type: reads a value of that type from a CDR stream
+ * into plain Java values (maps for structs, lists for sequences and arrays).
+ */
+fun interface ValueReader {
+    fun read(input: InputStream, budget: DecodeBudget): Any?
+}
+
+/**
+ * Compiles [TypeCode]s into [ValueReader]s.
+ *
+ * A type code is walked once per repository id; the resulting plan is cached
+ * and later values of the same type are read straight from the `Any`'s input
+ * stream, without DynAny or reflection on generated helper classes. Named
+ * members (structs inside structs, aliases) are cached under their own ids,
+ * recursive types refer back to the plan being built. Types that cannot be
+ * read from CDR without the generated classes — value types, fixed,
+ * long double, native — are cached as unsupported, so their values keep the
+ * `{_type, _kind, _id}` description.
+ */
+object TypeCodeCompiler {
+    private const val MAX_PLANS = 4096
+
+    /** Compiled plans by repository id, or [Unsupported] for types that cannot be compiled. */
+    private val plans = ConcurrentHashMap<String, Any>()
+
+    private object Unsupported
+
+    val hitCount: AtomicLong = AtomicLong(0)
+    val compiledCount: AtomicLong = AtomicLong(0)
+    val unsupportedCount: AtomicLong = AtomicLong(0)
+
+    /**
+     * Plan for [type], compiled on first use. Returns null if the type is not supported.
+     */
+    fun readerFor(type: TypeCode): ValueReader? {
+        val id = idOf(type)
+        if (id != null) {
+            val cached = plans[id]
+            if (cached != null) {
+                hitCount.incrementAndGet()
+                return if (cached === Unsupported) null else cached as ValueReader
+            }
+        }
+        val reader = try {
+            Compilation().compile(type)
+        } catch (e: UnsupportedTypeException) {
+            unsupportedCount.incrementAndGet()
+            if (id != null) store(id, Unsupported)
+            return null
+        }
+        compiledCount.incrementAndGet()
+        if (id != null) store(id, reader)
+        return reader
+    }
+
+    fun counters(): Map<String, Long> {
+        return linkedMapOf(
+            "plans" to plans.size.toLong(),
+            "hits" to hitCount.get(),
+            "compiled" to compiledCount.get(),
+            "unsupported" to unsupportedCount.get()
+        )
+    }
+
+    private fun store(id: String, plan: Any) {
+        if (plans.size < MAX_PLANS) plans.putIfAbsent(id, plan)
+    }
+
+    /** Repository id of named types; null for anonymous ones (sequences, arrays, primitives). */
+    private fun idOf(type: TypeCode): String? {
+        return when (type.kind().value()) {
+            TCKind._tk_struct, TCKind._tk_except, TCKind._tk_union, TCKind._tk_enum,
+            TCKind._tk_alias, TCKind._tk_objref -> type.id().ifEmpty { null }
+            else -> null
+        }
+    }
+
+    private class UnsupportedTypeException(kind: Int) : Exception("Unsupported TCKind $kind")
+
+    /**
+     * One compilation run; tracks the named types currently being built so
+     * that recursive references resolve to the enclosing plan.
+     */
+    private class Compilation {
+        private val inProgress = HashMap<String, DeferredReader>()
+
+        fun compile(type: TypeCode): ValueReader {
+            val kind = type.kind().value()
+            return when (kind) {
+                TCKind._tk_null, TCKind._tk_void -> NULL
+                TCKind._tk_boolean -> primitive { input -> input.read_boolean() }
+                TCKind._tk_char -> primitive { input -> input.read_char().toString() }
+                TCKind._tk_wchar -> primitive { input -> input.read_wchar().toString() }
+                TCKind._tk_octet -> primitive { input -> input.read_octet().toInt() and 0xFF }
+                TCKind._tk_short -> primitive { input -> input.read_short() }
+                TCKind._tk_ushort -> primitive { input -> input.read_ushort().toInt() and 0xFFFF }
+                TCKind._tk_long -> primitive { input -> input.read_long() }
+                TCKind._tk_ulong -> primitive { input -> input.read_ulong().toLong() and 0xFFFFFFFFL }
+                TCKind._tk_longlong -> primitive { input -> input.read_longlong() }
+                TCKind._tk_ulonglong -> primitive { input -> input.read_ulonglong() }
+                TCKind._tk_float -> primitive { input -> input.read_float() }
+                TCKind._tk_double -> primitive { input -> input.read_double() }
+                TCKind._tk_string -> ValueReader { input, budget -> budget.clip(input.read_string()) }
+                TCKind._tk_wstring -> ValueReader { input, budget -> budget.clip(input.read_wstring()) }
+                TCKind._tk_any -> ValueReader { input, budget -> AnyDecoder.decode(input.read_any(), budget) }
+                TCKind._tk_TypeCode -> ValueReader { input, budget -> budget.clip(describe(input.read_TypeCode())) }
+                TCKind._tk_objref -> named(type) { ObjectReferenceReader(type.id()) }
+                TCKind._tk_enum -> named(type) { EnumReader(Array(type.member_count()) { type.member_name(it) }) }
+                TCKind._tk_alias -> named(type) { compile(type.content_type()) }
+                TCKind._tk_struct -> named(type) { structReader(type, null) }
+                TCKind._tk_except -> named(type) { structReader(type, type.id()) }
+                TCKind._tk_union -> named(type) { unionReader(type) }
+                TCKind._tk_sequence -> sequenceReader(type.content_type(), -1)
+                TCKind._tk_array -> sequenceReader(type.content_type(), type.length())
+                else -> throw UnsupportedTypeException(kind)
+            }
+        }
+
+        private fun named(type: TypeCode, build: () -> ValueReader): ValueReader {
+            val id = type.id()
+            if (id.isEmpty()) return build()
+            inProgress[id]?.let { return it }
+            plans[id]?.let { if (it !== Unsupported) return it as ValueReader }
+
+            val deferred = DeferredReader()
+            inProgress[id] = deferred
+            try {
+                val reader = build()
+                deferred.target = reader
+                store(id, reader)
+                return reader
+            } finally {
+                inProgress.remove(id)
+            }
+        }
+
+        private fun structReader(type: TypeCode, exceptionId: String?): ValueReader {
+            val count = type.member_count()
+            val names = Array(count) { type.member_name(it) }
+            val members = Array(count) { compile(type.member_type(it)) }
+            return StructReader(names, members, exceptionId != null)
+        }
+
+        private fun unionReader(type: TypeCode): ValueReader {
+            val count = type.member_count()
+            val defaultIndex = type.default_index()
+            val labels = HashMap<Any, Int>()
+            for (i in 0 until count) {
+                if (i == defaultIndex) continue
+                AnyDecoder.decode(type.member_label(i), DecodeBudget(Long.MAX_VALUE))?.let { labels.putIfAbsent(normalize(it), i) }
+            }
+            return UnionReader(
+                compile(type.discriminator_type()),
+                labels,
+                defaultIndex,
+                Array(count) { type.member_name(it) },
+                Array(count) { compile(type.member_type(it)) }
+            )
+        }
+
+        private fun sequenceReader(elementType: TypeCode, fixedLength: Int): ValueReader {
+            var resolved = elementType
+            while (resolved.kind().value() == TCKind._tk_alias) {
+                resolved = resolved.content_type()
+            }
+            return when (resolved.kind().value()) {
+                TCKind._tk_octet -> OctetSequenceReader(fixedLength)
+                TCKind._tk_char -> CharSequenceReader(fixedLength)
+                else -> SequenceReader(compile(elementType), fixedLength)
+            }
+        }
+    }
+
+    private const val PRIMITIVE_BYTES = 8
+
+    private val NULL = ValueReader { _, _ -> null }
+
+    private fun primitive(read: (InputStream) -> Any?): ValueReader {
+        return ValueReader { input, budget ->
+            budget.charge(PRIMITIVE_BYTES)
+            read(input)
+        }
+    }
+
+    /** Union labels and discriminators compare as Long, Boolean or String (chars, enum members). */
+    private fun normalize(value: Any): Any {
+        return if (value is Number) value.toLong() else value
+    }
+
+    private fun describe(type: TypeCode): String {
+        return try {
+            type.id()
+        } catch (e: Exception) {
+            "TCKind:" + type.kind().value()
+        }
+    }
+
+    private class DeferredReader : ValueReader {
+        lateinit var target: ValueReader
+
+        override fun read(input: InputStream, budget: DecodeBudget): Any? = target.read(input, budget)
+    }
+
+    private class EnumReader(private val names: Array<String>) : ValueReader {
+        override fun read(input: InputStream, budget: DecodeBudget): Any? {
+            val index = input.read_long()
+            if (index !in names.indices) {
+                budget.charge(PRIMITIVE_BYTES)
+                return index
+            }
+            budget.charge(names[index].length + 2)
+            return names[index]
+        }
+    }
+
+    private class ObjectReferenceReader(private val repositoryId: String) : ValueReader {
+        override fun read(input: InputStream, budget: DecodeBudget): Any? {
+            val reference = input.read_Object() ?: return null
+            budget.charge(repositoryId.length + 24)
+            return linkedMapOf<String, Any>("_objref" to repositoryId, "ior" to budget.clip(reference.toString()))
+        }
+    }
+
+    /** Structs and user exceptions; exceptions are preceded by their repository id. */
+    private class StructReader(
+        private val names: Array<String>,
+        private val members: Array<ValueReader>,
+        private val isException: Boolean
+    ) : ValueReader {
+        private val segments = Array(names.size) { "." + names[it] }
+
+        override fun read(input: InputStream, budget: DecodeBudget): Any? {
+            if (isException) input.read_string()
+            val value = LinkedHashMap<String, Any?>(names.size * 2)
+            for (i in names.indices) {
+                if (!budget.check()) {
+                    budget.unwind(segments[i])
+                    break
+                }
+                budget.charge(names[i].length + 4)
+                value[names[i]] = members[i].read(input, budget)
+                if (budget.exhausted) {
+                    budget.unwind(segments[i])
+                    break
+                }
+            }
+            return value
+        }
+    }
+
+    private class UnionReader(
+        private val discriminator: ValueReader,
+        private val labels: Map<Any, Int>,
+        private val defaultIndex: Int,
+        private val names: Array<String>,
+        private val members: Array<ValueReader>
+    ) : ValueReader {
+        override fun read(input: InputStream, budget: DecodeBudget): Any? {
+            val discriminant = discriminator.read(input, budget)
+            val value = LinkedHashMap<String, Any?>(4)
+            value["_discriminator"] = discriminant
+            val index = discriminant?.let { labels[normalize(it)] } ?: defaultIndex
+            if (index >= 0 && !budget.exhausted) {
+                budget.charge(names[index].length + 4)
+                value[names[index]] = members[index].read(input, budget)
+                if (budget.exhausted) budget.unwind("." + names[index])
+            }
+            return value
+        }
+    }
+
+    /** Sequences (length-prefixed) and arrays ([fixedLength] >= 0). */
+    private class SequenceReader(private val element: ValueReader, private val fixedLength: Int) : ValueReader {
+        override fun read(input: InputStream, budget: DecodeBudget): Any? {
+            val length = if (fixedLength >= 0) fixedLength else input.read_ulong()
+            val values = ArrayList<Any?>(length.coerceIn(0, 1024))
+            budget.charge(2)
+            for (i in 0 until length) {
+                if (!budget.check()) {
+                    budget.unwind(i, length)
+                    break
+                }
+                budget.charge(1)
+                values.add(element.read(input, budget))
+                if (budget.exhausted) {
+                    budget.unwind(i, length)
+                    break
+                }
+            }
+            return values
+        }
+    }
+
+    /** Octet sequences and arrays as Base64, read in one call — up to what the size budget allows. */
+    private class OctetSequenceReader(private val fixedLength: Int) : ValueReader {
+        override fun read(input: InputStream, budget: DecodeBudget): Any? {
+            val length = if (fixedLength >= 0) fixedLength else input.read_ulong()
+            val take = minOf(length, budget.remaining() / 4 * 3)
+            val bytes = ByteArray(take)
+            input.read_octet_array(bytes, 0, take)
+            budget.charge((length + 2) / 3 * 4 + 2)
+            if (take < length) budget.unwind(take, length)
+            return Base64.getEncoder().encodeToString(bytes)
+        }
+    }
+
+    private class CharSequenceReader(private val fixedLength: Int) : ValueReader {
+        override fun read(input: InputStream, budget: DecodeBudget): Any? {
+            val length = if (fixedLength >= 0) fixedLength else input.read_ulong()
+            val take = minOf(length, maxOf(0, budget.remaining() - 2))
+            val chars = CharArray(take)
+            input.read_char_array(chars, 0, take)
+            budget.charge(length + 2)
+            if (take < length) budget.unwind(take, length)
+            return String(chars)
+        }
+    }
+}
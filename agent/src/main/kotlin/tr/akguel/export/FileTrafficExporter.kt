@@ -0,0 +1,235 @@
+package tr.akguel.export
+
+import com.google.gson.Gson
+import com.google.gson.GsonBuilder
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import tr.akguel.api.BatchEncoder
+import tr.akguel.api.LatencySummary
+import tr.akguel.api.MpscRingBuffer
+import tr.akguel.api.TrafficEvent
+import tr.akguel.config.MonitorConfig
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.LockSupport
+import kotlin.concurrent.Volatile
+import kotlin.io.path.name
+
+
+/**
+ * Writes traffic to rolling NDJSON files, for hosts without access to the API.
+ *
+ * Interceptor threads only offer events to a lock-free ring buffer. A single
+ * writer thread drains it, streams each event as one JSON line into a reusable
+ * buffer and writes that buffer to a [FileChannel] in large chunks. Events go to
+ * `traffic-<millis>.ndjson`, interval summaries to `summary-<millis>.ndjson`
+ * under `monitor.exporter.file.dir`. A file is rolled once it would exceed
+ * `monitor.exporter.file.max.bytes`; only the newest `monitor.exporter.file.max.files`
+ * files of each kind are kept.
+ */
+class FileTrafficExporter : TrafficExporter {
+
+    private lateinit var config: MonitorConfig
+    private lateinit var queue: MpscRingBuffer<TrafficEvent>
+    private lateinit var events: RollingFile
+    private lateinit var summaryFile: RollingFile
+    private lateinit var writer: Thread
+    private val pendingSummaries = ConcurrentLinkedQueue<LatencySummary>()
+    private val writeSignalled = AtomicBoolean(false)
+    private val gson: Gson = GsonBuilder().disableHtmlEscaping().serializeNulls().create()
+    private val buffer = BatchEncoder.PooledBuffer(CHUNK_BYTES + CHUNK_BYTES / 4)
+
+    val writtenCount: AtomicLong = AtomicLong(0)
+    val droppedCount: AtomicLong = AtomicLong(0)
+    val failedBytes: AtomicLong = AtomicLong(0)
+
+    @Volatile
+    private var running = true
+
+    override val name: String
+        get() = "file"
+
+    override fun start(config: MonitorConfig) {
+        this.config = config
+        val dir = Paths.get(config.exporterFileDir!!)
+        Files.createDirectories(dir)
+        this.queue = MpscRingBuffer<TrafficEvent>(config.queueCapacity)
+        this.events = RollingFile(dir, "traffic-", config.exporterFileMaxBytes, config.exporterFileMaxFiles)
+        this.summaryFile = RollingFile(dir, "summary-", config.exporterFileMaxBytes, config.exporterFileMaxFiles)
+        this.writer = Thread({ this.runWriter() }, "corba-monitor-file")
+        writer.setDaemon(true)
+        writer.start()
+        log.info("FileTrafficExporter writing to {}", dir.toAbsolutePath())
+    }
+
+    override fun export(event: TrafficEvent) {
+        if (!running) return
+        if (!queue.offer(event)) {
+            if (droppedCount.incrementAndGet() % 1000 == 0L) {
+                log.warn("File exporter queue full — dropped {} events so far", droppedCount.get())
+            }
+            return
+        }
+        if (queue.size >= MonitorConfig.instance!!.batchSize && writeSignalled.compareAndSet(false, true)) {
+            LockSupport.unpark(writer)
+        }
+    }
+
+    override fun exportSummaries(summaries: List<LatencySummary>) {
+        pendingSummaries.addAll(summaries)
+        LockSupport.unpark(writer)
+    }
+
+    private fun runWriter() {
+        while (running) {
+            if (queue.isEmpty() && pendingSummaries.isEmpty() && !writeSignalled.get()) {
+                // Flush interval of the current config snapshot, so a reload applies to the next wait
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(MonitorConfig.instance!!.flushIntervalMs.toLong()))
+            }
+            writeSignalled.set(false)
+            writePending()
+        }
+    }
+
+    /**
+     * Drain the queue and the pending summaries into the files (writer thread, and once more on shutdown).
+     */
+    @Synchronized
+    private fun writePending() {
+        try {
+            while (true) {
+                val event = queue.poll() ?: break
+                appendLine(event, TrafficEvent::class.java)
+                writtenCount.incrementAndGet()
+                if (buffer.size() >= CHUNK_BYTES) events.write(buffer)
+            }
+            events.write(buffer)
+
+            while (true) {
+                val summary = pendingSummaries.poll() ?: break
+                appendLine(summary, LatencySummary::class.java)
+            }
+            summaryFile.write(buffer)
+        } catch (e: IOException) {
+            failedBytes.addAndGet(buffer.size().toLong())
+            buffer.reset()
+            log.error("Writing traffic file failed: {}", e.message)
+        }
+    }
+
+    private fun appendLine(value: Any, type: Class<*>) {
+        val json = buffer.jsonWriter()
+        gson.toJson(value, type, json)
+        json.flush()
+        buffer.write('\n'.code)
+    }
+
+    override fun healthCheck(): Boolean {
+        return Files.isWritable(Paths.get(config.exporterFileDir!!))
+    }
+
+    override fun counters(): Map<String, Long> {
+        return linkedMapOf(
+            "written" to writtenCount.get(),
+            "dropped" to droppedCount.get(),
+            "failed_bytes" to failedBytes.get(),
+            "files_rolled" to events.rolledCount + summaryFile.rolledCount
+        )
+    }
+
+    override fun shutdown() {
+        running = false
+        LockSupport.unpark(writer)
+        try {
+            writer.join(config.httpTimeoutMs.toLong())
+        } catch (e: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+        writePending()
+        events.close()
+        summaryFile.close()
+        log.info("FileTrafficExporter stopped: {}", counters())
+    }
+
+    /**
+     * One rolling file set (`<prefix><millis>.ndjson`). Chunks are written whole,
+     * so lines never span two files.
+     */
+    private class RollingFile(
+        private val dir: Path,
+        private val prefix: String,
+        private val maxBytes: Long,
+        private val maxFiles: Int
+    ) {
+        private var channel: FileChannel? = null
+        private var written: Long = 0
+        var rolledCount: Long = 0
+            private set
+
+        fun write(chunk: BatchEncoder.PooledBuffer) {
+            if (chunk.size() == 0) return
+            var current = channel
+            if (current == null || (written > 0 && written + chunk.size() > maxBytes)) {
+                current = roll()
+            }
+            val bytes = ByteBuffer.wrap(chunk.array(), 0, chunk.size())
+            while (bytes.hasRemaining()) {
+                current.write(bytes)
+            }
+            written += chunk.size()
+            chunk.reset()
+        }
+
+        private fun roll(): FileChannel {
+            close()
+            var stamp = System.currentTimeMillis()
+            var path = dir.resolve(String.format("%s%016d%s", prefix, stamp, SUFFIX))
+            while (Files.exists(path)) {
+                path = dir.resolve(String.format("%s%016d%s", prefix, ++stamp, SUFFIX))
+            }
+            val opened = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)
+            channel = opened
+            written = 0
+            rolledCount++
+            pruneOldFiles()
+            return opened
+        }
+
+        private fun pruneOldFiles() {
+            Files.list(dir).use { files ->
+                val existing = files.filter { it.name.startsWith(prefix) && it.name.endsWith(SUFFIX) }
+                    .sorted()
+                    .toList()
+                for (i in 0 until existing.size - maxFiles) {
+                    Files.deleteIfExists(existing[i])
+                }
+            }
+        }
+
+        fun close() {
+            try {
+                channel?.force(false)
+                channel?.close()
+            } catch (e: IOException) {
+                log.debug("Cannot close traffic file: {}", e.message)
+            }
+            channel = null
+        }
+    }
+
+    companion object {
+        private val log: Logger = LoggerFactory.getLogger(FileTrafficExporter::class.java)
+
+        private const val CHUNK_BYTES = 256 * 1024
+        private const val SUFFIX = ".ndjson"
+    }
+}
@@ -0,0 +1,48 @@
+package tr.akguel.export
+
+import tr.akguel.api.LatencySummary
+import tr.akguel.api.MonitorApiClient
+import tr.akguel.api.TrafficEvent
+import tr.akguel.config.MonitorConfig
+
+
+/**
+ * Exporter to the Laravel Monitor API (default): batching, retries,
+ * circuit breaker and spool are provided by [MonitorApiClient].
+ */
+class HttpTrafficExporter : TrafficExporter {
+
+    private lateinit var apiClient: MonitorApiClient
+
+    override val name: String
+        get() = "http"
+
+    override fun start(config: MonitorConfig) {
+        apiClient = MonitorApiClient.instance!!
+    }
+
+    override fun export(event: TrafficEvent) {
+        apiClient.submit(event)
+    }
+
+    override fun exportSummaries(summaries: List<LatencySummary>) {
+        apiClient.submitSummaries(summaries)
+    }
+
+    override fun healthCheck(): Boolean {
+        return apiClient.healthCheck()
+    }
+
+    override fun counters(): Map<String, Long> {
+        return linkedMapOf(
+            "sent" to apiClient.sentCount.get(),
+            "failed" to apiClient.failedCount.get(),
+            "dropped" to apiClient.droppedCount.get(),
+            "retries" to apiClient.retryCount.get()
+        )
+    }
+
+    override fun shutdown() {
+        apiClient.shutdown()
+    }
+}
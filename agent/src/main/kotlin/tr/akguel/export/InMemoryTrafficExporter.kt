@@ -0,0 +1,75 @@
+package tr.akguel.export
+
+import tr.akguel.api.LatencySummary
+import tr.akguel.api.TrafficEvent
+import tr.akguel.config.MonitorConfig
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.atomic.AtomicLong
+
+
+/**
+ * Keeps the most recent events in memory instead of sending them anywhere.
+ *
+ * Meant for tests and for measuring interceptor overhead without network
+ * or disk noise: [export] is a bounded queue offer, and when the queue is
+ * full the oldest event is discarded. Retained events can be inspected with
+ * [events] and [summaries].
+ */
+class InMemoryTrafficExporter : TrafficExporter {
+
+    private var retained: ArrayBlockingQueue<TrafficEvent> = ArrayBlockingQueue(1)
+    private var retainedSummaries: ArrayBlockingQueue<LatencySummary> = ArrayBlockingQueue(1)
+
+    val exportedCount: AtomicLong = AtomicLong(0)
+    val discardedCount: AtomicLong = AtomicLong(0)
+    val summaryCount: AtomicLong = AtomicLong(0)
+
+    override val name: String
+        get() = "memory"
+
+    override fun start(config: MonitorConfig) {
+        retained = ArrayBlockingQueue(maxOf(1, config.exporterMemoryCapacity))
+        retainedSummaries = ArrayBlockingQueue(maxOf(1, config.exporterMemoryCapacity))
+    }
+
+    override fun export(event: TrafficEvent) {
+        exportedCount.incrementAndGet()
+        while (!retained.offer(event)) {
+            if (retained.poll() != null) discardedCount.incrementAndGet()
+        }
+    }
+
+    override fun exportSummaries(summaries: List<LatencySummary>) {
+        for (summary in summaries) {
+            summaryCount.incrementAndGet()
+            while (!retainedSummaries.offer(summary)) {
+                retainedSummaries.poll()
+            }
+        }
+    }
+
+    /**
+     * Snapshot of the retained events, oldest first.
+     */
+    fun events(): List<TrafficEvent> = ArrayList(retained)
+
+    fun summaries(): List<LatencySummary> = ArrayList(retainedSummaries)
+
+    fun clear() {
+        retained.clear()
+        retainedSummaries.clear()
+    }
+
+    override fun healthCheck(): Boolean = true
+
+    override fun counters(): Map<String, Long> {
+        return linkedMapOf(
+            "exported" to exportedCount.get(),
+            "discarded" to discardedCount.get(),
+            "summaries" to summaryCount.get()
+        )
+    }
+
+    override fun shutdown() {
+    }
+}
@@ -0,0 +1,44 @@
+package tr.akguel.export
+
+import tr.akguel.api.LatencySummary
+import tr.akguel.api.TrafficEvent
+import tr.akguel.config.MonitorConfig
+
+
+/**
+ * Destination for captured traffic.
+ *
+ * Implementations are discovered with [java.util.ServiceLoader] (listed in
+ * `META-INF/services/tr.akguel.export.TrafficExporter`) and selected by
+ * [name] through `monitor.exporter`. They need a public no-arg constructor;
+ * [start] is called once before the first event.
+ *
+ * [export] and [exportSummaries] are called on interceptor threads and must
+ * not block on I/O.
+ */
+interface TrafficExporter {
+
+    /** Value of `monitor.exporter` that selects this exporter. */
+    val name: String
+
+    fun start(config: MonitorConfig)
+
+    fun export(event: TrafficEvent)
+
+    fun exportSummaries(summaries: List<LatencySummary>)
+
+    /**
+     * Whether the destination is currently usable (API reachable, directory writable, ...).
+     */
+    fun healthCheck(): Boolean
+
+    /**
+     * Counters for the shutdown log, e.g. `sent`, `failed`, `dropped`.
+     */
+    fun counters(): Map<String, Long>
+
+    /**
+     * Deliver what is still buffered and release resources.
+     */
+    fun shutdown()
+}
@@ -0,0 +1,42 @@
+package tr.akguel.export
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import tr.akguel.config.MonitorConfig
+import java.util.ServiceLoader
+
+
+/**
+ * Looks up the exporter selected by `monitor.exporter` among the
+ * [TrafficExporter] implementations on the classpath.
+ */
+object TrafficExporters {
+    private val log: Logger = LoggerFactory.getLogger(TrafficExporters::class.java)
+
+    /**
+     * Create and start the configured exporter; falls back to HTTP if it is unknown
+     * or fails to start.
+     */
+    fun create(config: MonitorConfig): TrafficExporter {
+        val wanted = config.exporter
+        val available: MutableList<String> = ArrayList()
+        for (exporter in ServiceLoader.load(TrafficExporter::class.java, TrafficExporter::class.java.classLoader)) {
+            available.add(exporter.name)
+            if (exporter.name != wanted) continue
+            try {
+                exporter.start(config)
+                log.info("Traffic exporter: {}", exporter.name)
+                return exporter
+            } catch (e: Exception) {
+                log.error("Exporter '{}' failed to start: {} — falling back to http", wanted, e.message)
+                break
+            }
+        }
+        if (wanted !in available) {
+            log.warn("Unknown exporter '{}' (available: {}) — falling back to http", wanted, available)
+        }
+        val fallback = HttpTrafficExporter()
+        fallback.start(config)
+        return fallback
+    }
+}
@@ -10,12 +10,15 @@ import org.omg.PortableInterceptor.ClientRequestInterceptor
 import org.omg.PortableInterceptor.ForwardRequest
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
-import tr.akguel.api.MonitorApiClient
 import tr.akguel.api.TrafficEvent
 import tr.akguel.config.MonitorConfig
+import tr.akguel.decode.CapturedPayload
+import tr.akguel.ior.IiopAddress
+import tr.akguel.ior.IorDecoder
+import tr.akguel.rules.CaptureAction
+import tr.akguel.rules.CaptureRules
 import java.net.InetAddress
 import java.util.*
-import kotlin.math.min
 
 
 /**
@@ -29,10 +32,12 @@ import kotlin.math.min
  * - Arguments and return values (when configured)
  * - CORBA system/user exceptions
  */
-class ClientInterceptor(private val slotId: Int) : LocalObject(), ClientRequestInterceptor {
+class ClientInterceptor : LocalObject(), ClientRequestInterceptor {
 
+    /** Startup snapshot, only for the restart-only timing mode and cache size. */
     private val config: MonitorConfig = MonitorConfig.instance!!
-    private val apiClient: MonitorApiClient = MonitorApiClient.instance!!
+    private val recorder: TrafficRecorder = TrafficRecorder.instance!!
+    private val targetCache = TargetMetadataCache(config.targetCacheSize)
     private val localHost: String?
 
     init {
@@ -45,7 +50,7 @@ class ClientInterceptor(private val slotId: Int) : LocalObject(), ClientRequestI
         }
         this.localHost = host
 
-        log.info("ClientInterceptor initialized (slot={})", slotId)
+        log.info("ClientInterceptor initialized (thread frames={})", config.timingSlots)
     }
 
     override fun name(): String {
@@ -54,65 +59,98 @@ class ClientInterceptor(private val slotId: Int) : LocalObject(), ClientRequestI
 
 
     /**
-     * Check if this request should be skipped (infrastructure call).
+     * Action the capture rules choose for this request ([CaptureAction.SKIP] for infrastructure calls).
      */
-    private fun shouldSkip(ri: ClientRequestInfo): Boolean {
-        try {
-            // Skip by operation name
-            val op = ri.operation()
-            if (op != null && SKIP_OPERATIONS.contains(op)) {
-                return true
-            }
+    private fun captureAction(ri: ClientRequestInfo, target: TargetMetadata, snapshot: MonitorConfig): CaptureAction {
+        val op = try {
+            ri.operation()
+        } catch (ignored: Exception) {
+            null
+        }
+        // Rules of the point's config snapshot; reselected for the target after a reload
+        val rules = snapshot.captureRules
+        var targetRules = target.rules
+        if (targetRules == null || targetRules.owner !== rules) {
+            targetRules = rules.forTarget(SIDE, target.repositoryIds, target.host)
+            target.rules = targetRules
+        }
+        return targetRules.actionFor(op)
+    }
 
-            // Skip by target interface (if available)
-            try {
-                val target = ri.target()
-                if (target != null) {
-                    val ids = (target as ObjectImpl)._ids()
-                    if (ids != null) {
-                        for (id in ids) {
-                            for (fragment in SKIP_INTERFACE_FRAGMENTS) {
-                                if (id.contains(fragment)) {
-                                    return true
-                                }
-                            }
-                        }
-                    }
-                }
-            } catch (ignored: java.lang.Exception) {
-                // Can't determine target — don't skip, but be safe in buildBaseEvent
-            }
-        } catch (ignored: java.lang.Exception) {
+    /**
+     * Metadata of the request's target: one cache lookup per call once the reference is known.
+     */
+    private fun targetMetadata(ri: ClientRequestInfo): TargetMetadata {
+        val effectiveTarget = try {
+            ri.effective_target()
+        } catch (e: Exception) {
+            null
+        } ?: return TargetMetadata(null, null, null, null, -1)
+        return targetCache.get(effectiveTarget) ?: targetCache.put(effectiveTarget, loadTargetMetadata(ri, effectiveTarget))
+    }
+
+    /**
+     * Resolve capture rules, repository ID, interface name and address of a target (cache miss).
+     */
+    private fun loadTargetMetadata(ri: ClientRequestInfo, effectiveTarget: org.omg.CORBA.Object): TargetMetadata {
+        var ids: Array<String>? = null
+        try {
+            ids = (ri.target() as ObjectImpl)._ids()
+        } catch (ignored: Exception) {
+            // Can't determine target — don't skip
         }
+        val repositoryId = ids?.firstOrNull()
 
-        return false
+        // Host/port of the first IIOP profile of the reference the request actually goes to
+        var address: IiopAddress? = null
+        try {
+            address = IorDecoder.decode(effectiveTarget.toString())?.primaryAddress
+        } catch (ignored: Exception) {
+        }
+        return TargetMetadata(
+            ids, repositoryId, parseInterfaceName(repositoryId), address?.host, address?.port ?: -1,
+            TargetMetadata.nextScope()
+        )
     }
 
     /**
      * Called before a request is sent to the server.
      * We record the start time and capture request parameters.
+     * In span mode the request event is held back until the reply arrives.
      */
     @Throws(ForwardRequest::class)
     override fun send_request(ri: ClientRequestInfo) {
-        if (shouldSkip(ri)) return
+        val snapshot = MonitorConfig.instance!!
+        if (!snapshot.enabled) return
+        val target = targetMetadata(ri)
+        val action = captureAction(ri, target, snapshot)
+        if (action == CaptureAction.SKIP) return
+        CaptureRules.count(action)
 
         try {
             // Store start time for latency calculation
             val startNanos = System.nanoTime()
-            RequestTimingStore.setStartTime(ri.request_id().toString().toByteArray(Charsets.UTF_8), startNanos)
+            if (!action.ship) {
+                beginTiming(ri, target, startNanos, null)
+                return
+            }
 
             // Build and send event
-            val event: TrafficEvent = buildBaseEvent(ri, "send_request")
+            val event: TrafficEvent = buildBaseEvent(ri, target, "send_request")
                 .direction("request")
                 .status("success")
                 .messageType("Request")
+                .requestSizeBytes(GiopStreams.requestSize(ri))
 
             // Capture request arguments
-            if (config.captureRequestData) {
-                event.requestData(extractArguments(ri))
+            if (action.captureArguments) {
+                event.requestData(captureArguments(ri))
             }
 
-            apiClient.submit(event)
+            beginTiming(ri, target, startNanos, if (snapshot.spanEnabled) event else null)
+            if (!snapshot.spanEnabled) {
+                recorder.record(event)
+            }
         } catch (e: Exception) {
             // Never let monitoring break the actual CORBA call
             log.debug("Error in send_request interceptor: {}", e.message)
@@ -123,23 +161,26 @@ class ClientInterceptor(private val slotId: Int) : LocalObject(), ClientRequestI
      * Called when a reply is received from the server.
      */
     override fun receive_reply(ri: ClientRequestInfo) {
-        if (shouldSkip(ri)) return
+        val snapshot = MonitorConfig.instance!!
+        if (!snapshot.enabled) return discardTiming(ri)
+        val target = targetMetadata(ri)
+        val action = captureAction(ri, target, snapshot)
+        if (action == CaptureAction.SKIP) return discardTiming(ri, target)
 
         try {
-            val latency: Double? = calculateLatency(ri.request_id().toString().toByteArray(Charsets.UTF_8))
+            val state: InvocationState? = endTiming(ri, target)
 
-            val event: TrafficEvent = buildBaseEvent(ri, "receive_reply")
-                .direction("reply")
+            val event: TrafficEvent = replyEvent(ri, target, state, "receive_reply")
                 .status("success")
-                .latencyMs(latency)
+                .latencyNanos(state?.latencyNanos() ?: TrafficEvent.NOT_SET)
                 .messageType("Reply")
 
             // Capture response
-            if (config.captureResponseData) {
-                event.responseData(extractResult(ri))
+            if (action.captureResult) {
+                event.responseData(captureResult(ri))
             }
 
-            apiClient.submit(event)
+            recorder.record(event, action.ship)
         } catch (e: Exception) {
             log.debug("Error in receive_reply interceptor: {}", e.message)
         }
@@ -150,10 +191,14 @@ class ClientInterceptor(private val slotId: Int) : LocalObject(), ClientRequestI
      */
     @Throws(ForwardRequest::class)
     override fun receive_exception(ri: ClientRequestInfo) {
-        if (shouldSkip(ri)) return;
+        val snapshot = MonitorConfig.instance!!
+        if (!snapshot.enabled) return discardTiming(ri)
+        val target = targetMetadata(ri)
+        val action = captureAction(ri, target, snapshot)
+        if (action == CaptureAction.SKIP) return discardTiming(ri, target)
 
         try {
-            val latency: Double? = calculateLatency(ri.request_id().toString().toByteArray(Charsets.UTF_8))
+            val state: InvocationState? = endTiming(ri, target)
 
             var exceptionId = "UNKNOWN"
             try {
@@ -166,15 +211,14 @@ class ClientInterceptor(private val slotId: Int) : LocalObject(), ClientRequestI
             val exceptionType: String = parseExceptionType(exceptionId)
             val errorMessage = "CORBA::" + exceptionType
 
-            val event: TrafficEvent = buildBaseEvent(ri, "receive_exception")
-                .direction("reply")
+            val event: TrafficEvent = replyEvent(ri, target, state, "receive_exception")
                 .status(
                     if (exceptionType.contains("TRANSIENT") || exceptionType.contains("TIMEOUT"))
                         "timeout"
                     else
                         "exception"
                 )
-                .latencyMs(latency)
+                .latencyNanos(state?.latencyNanos() ?: TrafficEvent.NOT_SET)
                 .errorMessage(errorMessage)
                 .exceptionType(
                     if (exceptionId.contains("USER_EXCEPTION"))
@@ -184,7 +228,12 @@ class ClientInterceptor(private val slotId: Int) : LocalObject(), ClientRequestI
                 )
                 .messageType("Reply")
 
-            apiClient.submit(event)
+            // Capture the members of user exceptions
+            if (action.captureResult && !exceptionId.startsWith("IDL:omg.org/CORBA/")) {
+                event.responseData(captureException(ri, exceptionId))
+            }
+
+            recorder.record(event, action.ship)
         } catch (e: Exception) {
             log.debug("Error in receive_exception interceptor: {}", e.message)
         }
@@ -195,15 +244,22 @@ class ClientInterceptor(private val slotId: Int) : LocalObject(), ClientRequestI
      */
     @Throws(ForwardRequest::class)
     override fun receive_other(ri: ClientRequestInfo) {
-        if (shouldSkip(ri)) return
+        val snapshot = MonitorConfig.instance!!
+        if (!snapshot.enabled) return discardTiming(ri)
+        val target = targetMetadata(ri)
+        val action = captureAction(ri, target, snapshot)
+        if (action == CaptureAction.SKIP) return discardTiming(ri, target)
 
         try {
-            val event: TrafficEvent = buildBaseEvent(ri, "receive_other")
+            // No reply follows (location forward, oneway): a held-back span request is shipped as is
+            endTiming(ri, target)?.pending?.let { recorder.record(it) }
+
+            val event: TrafficEvent = buildBaseEvent(ri, target, "receive_other")
                 .direction("reply")
                 .status("success")
                 .messageType("LocateReply")
 
-            apiClient.submit(event)
+            recorder.record(event, action.ship)
         } catch (e: Exception) {
             log.debug("Error in receive_other interceptor: {}", e.message)
         }
@@ -214,46 +270,27 @@ class ClientInterceptor(private val slotId: Int) : LocalObject(), ClientRequestI
     }
 
     override fun destroy() {
-        log.info("ClientInterceptor destroyed")
+        log.info("ClientInterceptor destroyed (target cache: {}, IOR decoder: {})", targetCache.counters(), IorDecoder.counters())
     }
 
     // ─── Helper Methods ───────────────────────────────────────────────
     /**
      * Build a base TrafficEvent with common fields from the RequestInfo.
      */
-    private fun buildBaseEvent(ri: ClientRequestInfo, interceptorPoint: String?): TrafficEvent {
+    private fun buildBaseEvent(ri: ClientRequestInfo, target: TargetMetadata, interceptorPoint: String?): TrafficEvent {
         val event = TrafficEvent()
             .requestId(formatRequestId(ri.request_id().toString().toByteArray(Charsets.UTF_8)))
             .operation(ri.operation())
             .interceptorPoint(interceptorPoint)
             .sourceHost(localHost)
-            .giopVersion("1.2")
-
-        // Extract interface/repository info
-        try {
-            val target = ri.target()
-            if (target != null) {
-                try {
-                    val ids = (target as ObjectImpl)
-                        ._ids()
-                    if (ids != null && ids.size > 0) {
-                        event.repositoryId(ids[0])
-                        event.interfaceName(parseInterfaceName(ids[0]))
-                    }
-                } catch (ignored: Exception) {
-                }
-            }
-        } catch (ignored: Exception) {
-        }
-
-        // Extract target host/port from effective_target IOR
-        try {
-            val effectiveTarget = ri.effective_target()
-            if (effectiveTarget != null) {
-                val ior: String = effectiveTarget.toString()
-                parseIORAddress(ior, event)
-            }
-        } catch (ignored: Exception) {
+            .giopVersion(GiopStreams.version(ri))
+
+        // Interface/repository info and target host/port, resolved once per target reference
+        event.repositoryId(target.repositoryId)
+            .interfaceName(target.interfaceName)
+            .targetHost(target.host)
+        if (target.port >= 0) {
+            event.targetPort(target.port)
         }
 
         // Service contexts
@@ -269,92 +306,56 @@ class ClientInterceptor(private val slotId: Int) : LocalObject(), ClientRequestI
     }
 
     /**
-     * Extract arguments from the request (if available).
+     * Capture the arguments of the request (if available). Only the `Any`
+     * references are kept; the [tr.akguel.decode.DecodeStage] decodes them later.
      */
-    private fun extractArguments(ri: ClientRequestInfo): MutableMap<String, kotlin.Any> {
-        val args: MutableMap<String, kotlin.Any> = LinkedHashMap<String, kotlin.Any>()
+    private fun captureArguments(ri: ClientRequestInfo): kotlin.Any? {
         try {
-            val params = ri.arguments()
-            if (params != null) {
-                args["_idl_type"] = ri.operation().toString().toByteArray(Charsets.UTF_8)
-                val paramMap: MutableMap<String, kotlin.Any> = LinkedHashMap<String, kotlin.Any>()
-                for (i in params.indices) {
-                    val key = "arg$i"
-                    try {
-                        paramMap[key] = anyToObject(params[i]!!.argument) ?: "<unavailable>"
-                    } catch (e: Exception) {
-                        paramMap[key] = "<unavailable>"
-                    }
-                }
-                args["params"] = paramMap
+            val params = ri.arguments() ?: return null
+            val values = arrayOfNulls<Any>(params.size)
+            for (i in params.indices) {
+                values[i] = params[i]?.argument
             }
+            return CapturedPayload.arguments(ri.operation(), values)
         } catch (bp: BAD_PARAM) {
             // Arguments not available at this interception point
-            args["_note"] = "Arguments not available (BAD_PARAM)"
+            return mutableMapOf<String, kotlin.Any>("_note" to "Arguments not available (BAD_PARAM)")
         } catch (e: Exception) {
-            args["_note"] = "Could not extract arguments: " + e.message
+            return mutableMapOf<String, kotlin.Any>("_note" to "Could not extract arguments: " + e.message)
         }
-        return args
     }
 
     /**
-     * Extract the return value from the reply.
+     * Capture the return value of the reply, see [captureArguments].
      */
-    private fun extractResult(ri: ClientRequestInfo): MutableMap<String, kotlin.Any> {
-        val result: MutableMap<String, kotlin.Any> = LinkedHashMap<String, kotlin.Any>()
+    private fun captureResult(ri: ClientRequestInfo): kotlin.Any? {
         try {
             val returnValue = ri.result()
             if (returnValue != null && returnValue.type().kind() != TCKind.tk_void && returnValue.type()
                     .kind() != TCKind.tk_null
             ) {
-                result["_idl_type"] = ri.operation() + "::_return"
-                result["return_value"] = anyToObject(returnValue) ?: "<unavailable>" // TODO: Handle null value properly
+                return CapturedPayload.result(ri.operation(), returnValue)
             }
         } catch (bp: BAD_PARAM) {
             // Result not available
         } catch (e: Exception) {
-            result["_note"] = "Could not extract result: " + e.message
+            return mutableMapOf<String, kotlin.Any>("_note" to "Could not extract result: " + e.message)
         }
-        return result
+        return mutableMapOf<String, kotlin.Any>()
     }
 
     /**
-     * Convert a CORBA Any to a Java Object for JSON serialization.
+     * Capture the received exception, see [captureArguments].
      */
-    private fun anyToObject(any: Any?): kotlin.Any? {
-        if (any == null) return null
-
+    private fun captureException(ri: ClientRequestInfo, exceptionId: String): kotlin.Any? {
         try {
-            val kind = any.type().kind()
-            when (kind.value()) {
-                TCKind._tk_boolean -> return any.extract_boolean()
-                TCKind._tk_char -> return any.extract_char().toString()
-                TCKind._tk_wchar -> return any.extract_wchar().toString()
-                TCKind._tk_octet -> return any.extract_octet().toInt()
-                TCKind._tk_short -> return any.extract_short()
-                TCKind._tk_ushort -> return any.extract_ushort()
-                TCKind._tk_long -> return any.extract_long()
-                TCKind._tk_ulong -> return any.extract_ulong()
-                TCKind._tk_longlong -> return any.extract_longlong()
-                TCKind._tk_ulonglong -> return any.extract_ulonglong()
-                TCKind._tk_float -> return any.extract_float()
-                TCKind._tk_double -> return any.extract_double()
-                TCKind._tk_string -> return any.extract_string()
-                TCKind._tk_wstring -> return any.extract_wstring()
-                TCKind._tk_enum -> return any.type().member_name(any.create_input_stream().read_long())
-                TCKind._tk_void, TCKind._tk_null -> return null
-                else -> {
-                    // For complex types, return type info
-                    val complex: MutableMap<String, kotlin.Any> = LinkedHashMap<String, kotlin.Any>()
-                    complex["_type"] = any.type().name()
-                    complex["_kind"] = kind.value()
-                    complex["_id"] = any.type().id()
-                    return complex
-                }
-            }
+            return CapturedPayload.exception(exceptionId, ri.received_exception())
+        } catch (bp: BAD_PARAM) {
+            // Exception not available
         } catch (e: Exception) {
-            return "<" + e.javaClass.getSimpleName() + ">"
+            log.debug("Could not capture exception {}: {}", exceptionId, e.message)
         }
+        return null
     }
 
     /**
@@ -415,79 +416,75 @@ class ClientInterceptor(private val slotId: Int) : LocalObject(), ClientRequestI
     }
 
     /**
-     * Parse host and port from an IOR string.
-     * This is a best-effort attempt for common IOR formats.
+     * Format request ID bytes as a short hex string.
      */
-    private fun parseIORAddress(ior: String?, event: TrafficEvent) {
-        if (ior == null) return
-        // JacORB's toString() may give "IOR:..." or the corbaloc form
-        // We try to extract from the object reference implementation
+    private fun formatRequestId(requestId: ByteArray?): String {
+        if (requestId == null || requestId.isEmpty()) return UUID.randomUUID().toString()
+        return RequestTimingStore.toHex(requestId)
+    }
+
+    /**
+     * Keep the invocation's state in the thread's frame stack, or in the
+     * global store when `monitor.timing.slots=false`.
+     */
+    private fun beginTiming(ri: ClientRequestInfo, target: TargetMetadata, startNanos: Long, pending: TrafficEvent?) {
+        val key = timingKey(ri, target)
+        if (config.timingSlots) {
+            val state = InvocationState(startNanos, key)
+            state.pending = pending
+            InvocationFrames.push(state)
+        } else {
+            RequestTimingStore.client.begin(key, startNanos, pending)
+        }
+    }
+
+    private fun endTiming(ri: ClientRequestInfo, target: TargetMetadata): InvocationState? {
+        val key = timingKey(ri, target)
+        if (config.timingSlots) {
+            InvocationFrames.pop(key)?.let { return it }
+        }
+        return RequestTimingStore.client.remove(key)
+    }
+
+    /**
+     * Drop the state of a call that was started before the monitor was disabled
+     * or before a rule reload made it skipped.
+     */
+    private fun discardTiming(ri: ClientRequestInfo, target: TargetMetadata? = null) {
         try {
-            if (ior.contains("://")) {
-                // corbaloc format: corbaloc::host:port/...
-                val parts = ior.split("://".toRegex()).dropLastWhile { it.isEmpty() }.toTypedArray()
-                if (parts.size > 1) {
-                    val hostPort = parts[1].split("/".toRegex()).dropLastWhile { it.isEmpty() }.toTypedArray()[0]
-                    val hp = hostPort.split(":".toRegex()).dropLastWhile { it.isEmpty() }.toTypedArray()
-                    if (hp.size >= 1) event.targetHost(hp[0])
-                    if (hp.size >= 2) event.targetPort(hp[1].toInt())
-                }
-            }
+            endTiming(ri, target ?: targetMetadata(ri))
         } catch (ignored: Exception) {
         }
     }
 
     /**
-     * Format request ID bytes as a short hex string.
+     * Timing key of a request: request ids are scoped by the target reference
+     * they are sent to, through the target's unique [TargetMetadata.scope].
      */
-    private fun formatRequestId(requestId: ByteArray?): String {
-        if (requestId == null || requestId.isEmpty()) return UUID.randomUUID().toString()
-        val sb = StringBuilder()
-        for (i in 0..<min(requestId.size, 16)) {
-            sb.append(String.format("%02x", requestId[i].toInt() and 0xFF))
-        }
-        return sb.toString()
+    private fun timingKey(ri: ClientRequestInfo, target: TargetMetadata): Long {
+        return RequestTimingStore.key(target.scope, ri.request_id())
     }
 
     /**
-     * Calculate latency from stored start time.
+     * The event for a reply-side interception point: the held-back request
+     * completed into a span (span mode), or a separate reply event.
      */
-    private fun calculateLatency(requestId: ByteArray?): Double? {
-        val id: String = formatRequestId(requestId)
-        val startNanos: Long? = RequestTimingStore.getAndRemoveStartTime(id)
-        if (startNanos != null) {
-            return (System.nanoTime() - startNanos) / 1000000.0
-        }
-        return null
+    private fun replyEvent(
+        ri: ClientRequestInfo,
+        target: TargetMetadata,
+        state: InvocationState?,
+        interceptorPoint: String
+    ): TrafficEvent {
+        val pending = state?.pending
+        val event = pending?.toSpan(interceptorPoint) ?: buildBaseEvent(ri, target, interceptorPoint).direction("reply")
+        return event
+            .requestSizeBytes(GiopStreams.requestSize(ri))
+            .responseSizeBytes(GiopStreams.replySize(ri))
     }
 
     companion object {
         private val log: Logger = LoggerFactory.getLogger(ClientInterceptor::class.java)
-        private const val TIMESTAMP_SLOT_ID = 0
-
-        /**
-         * Operations and interfaces that should NOT be intercepted.
-         * These are CORBA infrastructure calls that would cause recursion or TRANSIENT errors
-         * if the interceptor tries to process them (especially during ORB/Naming bootstrap).
-         */
-        val SKIP_OPERATIONS: MutableSet<String> =
-            mutableSetOf<String>( // CORBA built-in operations (called during narrow, _is_a, etc.)
-                "_is_a", "_non_existent", "_get_interface_def", "_get_component",
-                "_get_domain_managers", "_get_policy", "_repository_id",  // COS Naming Service operations
-                "resolve", "resolve_str", "bind", "rebind", "unbind",
-                "bind_context", "rebind_context", "bind_new_context",
-                "list", "to_name", "to_string", "destroy",
-                "new_context", "to_url",  // ORB/POA internals
-                "resolve_initial_references"
-            )
-
-        val SKIP_INTERFACE_FRAGMENTS: MutableSet<String> = mutableSetOf<String>(
-            "CosNaming",  // CosNaming::NamingContext, NamingContextExt
-            "NamingContext",  // Any naming context interface
-            "PortableServer",  // POA internals
-            "IORTable",  // IOR table lookups
-            "CORBA/Repository",  // Interface repository
-            "InitialReferences" // ORB initial references
-        )
+
+        private const val SIDE = "client"
     }
 }
\ No newline at end of file
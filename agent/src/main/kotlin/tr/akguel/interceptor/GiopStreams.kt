@@ -0,0 +1,96 @@
+package tr.akguel.interceptor
+
+import org.jacorb.orb.CDROutputStream
+import org.jacorb.orb.dsi.ServerRequest
+import org.jacorb.orb.giop.MessageInputStream
+import org.jacorb.orb.portableInterceptor.ClientRequestInfoImpl
+import org.jacorb.orb.portableInterceptor.ServerRequestInfoImpl
+import org.omg.PortableInterceptor.ClientRequestInfo
+import org.omg.PortableInterceptor.ServerRequestInfo
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import java.lang.reflect.Field
+
+
+/**
+ * Marshalled GIOP message sizes and the negotiated GIOP version, read from
+ * JacORB's request and reply streams behind the request info.
+ *
+ * The portable interceptor API does not expose the streams, so the fields
+ * holding them (`request_os`, `reply_is` on the client, `request` on the
+ * server) are looked up once by reflection. Sizes include the 12-byte GIOP
+ * header. If the fields are missing (another ORB or JacORB version), sizes
+ * stay unset and the version falls back to [FALLBACK_VERSION].
+ */
+object GiopStreams {
+    const val FALLBACK_VERSION = "1.2"
+
+    private const val HEADER_BYTES = 12
+    private val VERSIONS = arrayOf("1.0", "1.1", "1.2", "1.3")
+
+    private val log: Logger = LoggerFactory.getLogger(GiopStreams::class.java)
+
+    private val requestOutput: Field? = field(ClientRequestInfoImpl::class.java, "request_os")
+    private val replyInput: Field? = field(ClientRequestInfoImpl::class.java, "reply_is")
+    private val serverRequest: Field? = field(ServerRequestInfoImpl::class.java, "request")
+
+    /** Size of the request message sent by the client, or -1. */
+    fun requestSize(ri: ClientRequestInfo): Int {
+        return (get(requestOutput, ri) as? CDROutputStream)?.size() ?: -1
+    }
+
+    /** Size of the reply message received by the client, or -1 (e.g. for local exceptions). */
+    fun replySize(ri: ClientRequestInfo): Int {
+        return size(get(replyInput, ri) as? MessageInputStream)
+    }
+
+    fun version(ri: ClientRequestInfo): String {
+        val output = get(requestOutput, ri) as? CDROutputStream ?: return FALLBACK_VERSION
+        return version(output.getGIOPMinor())
+    }
+
+    /** Size of the request message received by the server, or -1. */
+    fun requestSize(ri: ServerRequestInfo): Int {
+        return size(request(ri)?.get_in())
+    }
+
+    /** Size of the reply message marshalled by the server so far, or -1. */
+    fun replySize(ri: ServerRequestInfo): Int {
+        return request(ri)?.get_out()?.size() ?: -1
+    }
+
+    fun version(ri: ServerRequestInfo): String {
+        val input = request(ri)?.get_in() ?: return FALLBACK_VERSION
+        return version(input.getGIOPMinor())
+    }
+
+    private fun request(ri: ServerRequestInfo): ServerRequest? {
+        return get(serverRequest, ri) as? ServerRequest
+    }
+
+    private fun size(input: MessageInputStream?): Int {
+        return if (input == null) -1 else input.msg_size + HEADER_BYTES
+    }
+
+    private fun version(minor: Int): String {
+        return if (minor in VERSIONS.indices) VERSIONS[minor] else "1.$minor"
+    }
+
+    private fun get(field: Field?, ri: Any): Any? {
+        if (field == null || !field.declaringClass.isInstance(ri)) return null
+        return try {
+            field.get(ri)
+        } catch (e: Exception) {
+            null
+        }
+    }
+
+    private fun field(type: Class<*>, name: String): Field? {
+        return try {
+            type.getDeclaredField(name).also { it.isAccessible = true }
+        } catch (e: Exception) {
+            log.info("GIOP sizes unavailable: {}.{} not accessible ({})", type.simpleName, name, e.message)
+            null
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package tr.akguel.interceptor
+
+import java.util.ArrayDeque
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Per-thread stack of client invocations in flight.
+ *
+ * `ClientRequestInfo` can read but not write PICurrent slots, so the client
+ * side keeps its [InvocationState]s with the thread that sends the request:
+ * a synchronous call's reply is intercepted on the same thread, and
+ * collocated or nested calls complete in LIFO order. Deferred or AMI replies
+ * arrive on another thread and find no frame; applications relying on them
+ * should set `monitor.timing.slots=false` to time every call in [RequestTimingStore].
+ *
+ * Frames whose reply never comes back on their thread are trimmed once the
+ * stack exceeds [MAX_DEPTH]; a held-back span request is then shipped on its own.
+ */
+object InvocationFrames {
+    private const val MAX_DEPTH = 32
+
+    private val frames: ThreadLocal<ArrayDeque<InvocationState>> = ThreadLocal.withInitial { ArrayDeque(4) }
+
+    /** Frames dropped from a thread's stack without a reply. */
+    val staleCount: AtomicLong = AtomicLong(0)
+
+    fun push(state: InvocationState) {
+        val stack = frames.get()
+        if (stack.size >= MAX_DEPTH) {
+            val stale = stack.pollLast()
+            staleCount.incrementAndGet()
+            stale?.pending?.let { TrafficRecorder.instance!!.record(it) }
+        }
+        stack.push(state)
+    }
+
+    /**
+     * Remove and return the frame of request [key] from the current thread, or null if it is not here.
+     */
+    fun pop(key: Long): InvocationState? {
+        val stack = frames.get()
+        val top = stack.peek() ?: return null
+        if (top.key == key) return stack.pop()
+        val iterator = stack.iterator()
+        while (iterator.hasNext()) {
+            val state = iterator.next()
+            if (state.key == key) {
+                iterator.remove()
+                return state
+            }
+        }
+        return null
+    }
+}
@@ -0,0 +1,31 @@
+package tr.akguel.interceptor
+
+import org.omg.CORBA.portable.ObjectImpl
+import tr.akguel.api.TrafficEvent
+
+/**
+ * Per-invocation state kept between the request and the reply interception points.
+ *
+ * Holds the start time for latency and, in span mode, the request-side event
+ * that is completed into a single span once the reply (or exception) arrives.
+ *
+ * It is a (local, never marshalled) object reference so that it can be stored
+ * in a PICurrent slot as an `Any` of kind `tk_objref`; [key] identifies the
+ * request when the state lives in a per-thread [InvocationFrames] stack.
+ */
+class InvocationState(val startNanos: Long, val key: Long = 0) : ObjectImpl() {
+
+    @Volatile
+    var pending: TrafficEvent? = null
+
+    fun latencyNanos(): Long {
+        return System.nanoTime() - startNanos
+    }
+
+    override fun _ids(): Array<String> = IDS
+
+    companion object {
+        const val REPOSITORY_ID = "IDL:tr.akguel/InvocationState:1.0"
+        private val IDS = arrayOf(REPOSITORY_ID)
+    }
+}
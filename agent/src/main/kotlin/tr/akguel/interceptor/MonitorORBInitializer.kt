@@ -1,5 +1,6 @@
 package tr.akguel.interceptor
 
+import org.jacorb.orb.portableInterceptor.ORBInitInfoImpl
 import org.omg.CORBA.LocalObject
 import org.omg.PortableInterceptor.ORBInitInfo
 import org.omg.PortableInterceptor.ORBInitInfoPackage.DuplicateName
@@ -23,16 +24,20 @@ class MonitorORBInitializer : LocalObject(), ORBInitializer {
         log.info("╚══════════════════════════════════════════════════╝")
 
         try {
-            // Allocate a slot for timing data
+            // Allocate a slot for per-invocation state (written on the server side;
+            // client request info only reads slots, so the client keeps thread frames)
             val slotId = info.allocate_slot_id()
 
             // Register client-side interceptor
-            val clientInterceptor = ClientInterceptor(slotId)
+            val clientInterceptor = ClientInterceptor()
             info.add_client_request_interceptor(clientInterceptor)
             log.info("✓ ClientRequestInterceptor registered")
 
             // Register server-side interceptor
-            val serverInterceptor = ServerInterceptor()
+            // The ORB being initialized creates the slot values; ORB.init() would
+            // enter the singleton's global lock on every request
+            val orb = (info as? ORBInitInfoImpl)?.orb
+            val serverInterceptor = ServerInterceptor(slotId, orb)
             info.add_server_request_interceptor(serverInterceptor)
             log.info("✓ ServerRequestInterceptor registered")
         } catch (e: DuplicateName) {
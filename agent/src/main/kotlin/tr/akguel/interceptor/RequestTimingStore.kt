@@ -1,45 +1,76 @@
 package tr.akguel.interceptor
 
-import java.util.concurrent.ConcurrentHashMap
+import tr.akguel.config.MonitorConfig
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
 import kotlin.math.min
 
 /**
- * Thread-safe store for request start times.
- * Used to calculate round-trip latency between send_request and receive_reply.
+ * Global store for per-invocation state (start time, pending span) between the
+ * request and the reply interception points. Used to calculate round-trip latency.
  *
- * Entries are automatically removed after retrieval to prevent memory leaks.
- * A background cleanup is not needed since entries are short-lived.
+ * Normally the state travels with the request instead — in its PICurrent slot
+ * on the server, in the thread's [InvocationFrames] on the client. This store
+ * is the fallback when `monitor.timing.slots=false` or the ORB refuses the slot
+ * write ([slotFallbackCount]).
+ *
+ * GIOP request ids are only unique per connection, and the client and server
+ * sides of one ORB number their requests independently, so each side has its
+ * own [TimingTable], keyed by a primitive `long` that combines a scope with the
+ * request id (see [key]):
+ * - client: the unique [TargetMetadata.scope] of the effective target reference
+ * - server: the dispatching thread, which runs every server interception point of a request
+ *
+ * Entries are removed when the reply (or exception) is intercepted. Entries
+ * whose reply never comes — lost replies, oneways without a reply point,
+ * calls that end on a path the interceptors skip — expire after
+ * `monitor.timing.ttl.ms`; a held-back span request is then recorded on its own.
  */
 object RequestTimingStore {
-    private val timings = ConcurrentHashMap<String, Long>()
+    private val HEX = "0123456789abcdef".toCharArray()
+    private val ttlNanos = TimeUnit.MILLISECONDS.toNanos(MonitorConfig.instance!!.timingTtlMs)
 
-    fun setStartTime(requestId: ByteArray?, nanoTime: Long) {
-        val key: String = formatKey(requestId)
-        timings[key] = nanoTime
-    }
+    val client = TimingTable(ttlNanos, this::expired)
+    val server = TimingTable(ttlNanos, this::expired)
 
-    fun getAndRemoveStartTime(key: String): Long? {
-        return timings.remove(key)
+    /** Server requests timed here because their slot could not be written. */
+    val slotFallbackCount: AtomicLong = AtomicLong(0)
+
+    /**
+     * Key of request [requestId] within [scope]: scope in the upper, request id in the lower 32 bits.
+     */
+    fun key(scope: Int, requestId: Int): Long {
+        return (scope.toLong() shl 32) or (requestId.toLong() and 0xFFFFFFFFL)
     }
 
-    fun getAndRemoveStartTime(requestId: ByteArray?): Long? {
-        return timings.remove(formatKey(requestId))
+    private fun expired(state: InvocationState) {
+        val pending = state.pending ?: return
+        TrafficRecorder.instance!!.record(pending)
     }
 
-    private fun formatKey(requestId: ByteArray?): String {
-        if (requestId == null || requestId.isEmpty()) return "unknown"
-        val sb = StringBuilder()
-        for (i in 0..<min(requestId.size, 16)) {
-            sb.append(String.format("%02x", requestId[i].toInt() and 0xFF))
+    /**
+     * Lower-case hex of the first 16 bytes of a request ID (no per-byte formatting on the ORB thread).
+     */
+    fun toHex(requestId: ByteArray): String {
+        val length = min(requestId.size, 16)
+        val chars = CharArray(length * 2)
+        for (i in 0..<length) {
+            val b = requestId[i].toInt() and 0xFF
+            chars[i * 2] = HEX[b ushr 4]
+            chars[i * 2 + 1] = HEX[b and 0x0F]
         }
-        return sb.toString()
+        return String(chars)
     }
 
+    val expiredCount: Long
+        get() = client.expiredCount.get() + server.expiredCount.get()
+
     fun size(): Int {
-        return timings.size
+        return client.size() + server.size()
     }
 
     fun clear() {
-        timings.clear()
+        client.clear()
+        server.clear()
     }
-}
\ No newline at end of file
+}
@@ -2,31 +2,47 @@ package tr.akguel.interceptor
 
 import org.omg.CORBA.BAD_PARAM
 import org.omg.CORBA.LocalObject
+import org.omg.CORBA.ORB
+import org.omg.CORBA.TCKind
+import org.omg.CORBA.TypeCode
 import org.omg.PortableInterceptor.ForwardRequest
 import org.omg.PortableInterceptor.ServerRequestInfo
 import org.omg.PortableInterceptor.ServerRequestInterceptor
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
-import tr.akguel.api.MonitorApiClient
 import tr.akguel.api.TrafficEvent
 import tr.akguel.config.MonitorConfig
-import tr.akguel.interceptor.RequestTimingStore.getAndRemoveStartTime
+import tr.akguel.rules.CaptureAction
+import tr.akguel.rules.CaptureRules
 import java.net.InetAddress
 import java.util.*
-import kotlin.math.min
+import java.util.concurrent.ConcurrentHashMap
 
 /**
  * Server-side Portable Interceptor.
  *
  * Intercepts all incoming CORBA requests on the supplier side.
  * Captures the server's view of the interaction.
+ *
+ * [orb] creates the `Any` values for the PICurrent slot; without it the ORB
+ * singleton is resolved once on first use.
  */
-class ServerInterceptor : LocalObject(), ServerRequestInterceptor {
+class ServerInterceptor(private val slotId: Int, orb: ORB? = null) : LocalObject(), ServerRequestInterceptor {
 
+    /** Startup snapshot, only for the restart-only timing mode. */
     private val config: MonitorConfig = MonitorConfig.instance!!
-    private val apiClient: MonitorApiClient = MonitorApiClient.instance!!
+    private val recorder: TrafficRecorder = TrafficRecorder.instance!!
+    @Volatile
+    private var targetRules = ConcurrentHashMap<String, CaptureRules.TargetRules>()
     private val localHost: String?
 
+    private val slotOrb: ORB by lazy { orb ?: ORB.init() }
+
+    /** `tk_objref` TypeCode of [InvocationState], built once for all slot writes. */
+    private val stateType: TypeCode by lazy {
+        slotOrb.create_interface_tc(InvocationState.REPOSITORY_ID, "InvocationState")
+    }
+
     init {
         var host: String?
         try {
@@ -36,30 +52,61 @@ class ServerInterceptor : LocalObject(), ServerRequestInterceptor {
         }
         this.localHost = host
 
-        log.info("ServerInterceptor initialized")
+        log.info("ServerInterceptor initialized (slot={}, slots={})", slotId, config.timingSlots)
     }
 
     override fun name(): String {
         return "CORBAMonitorServerInterceptor"
     }
 
-    private fun shouldSkip(ri: ServerRequestInfo): Boolean {
-        try {
-            val op = ri.operation()
-            return op != null && SKIP_OPERATIONS.contains(op)
-        } catch (e: java.lang.Exception) {
-            return false
+    /**
+     * Action the capture rules choose for this request. The target's repository ID
+     * is only known from `receive_request` on; before that only rules without a
+     * `repo` condition can match.
+     */
+    private fun captureAction(ri: ServerRequestInfo, withTarget: Boolean, snapshot: MonitorConfig): CaptureAction {
+        val op = try {
+            ri.operation()
+        } catch (e: Exception) {
+            null
+        }
+        val repositoryId = if (!withTarget) null else try {
+            ri.target_most_derived_interface()
+        } catch (e: Exception) {
+            null
+        }
+        return rulesFor(snapshot.captureRules, repositoryId).actionFor(op)
+    }
+
+    /**
+     * Rules for one repository ID; the cache is dropped when the config snapshot changes.
+     */
+    private fun rulesFor(rules: CaptureRules, repositoryId: String?): CaptureRules.TargetRules {
+        val key = repositoryId ?: ""
+        var cache = targetRules
+        val cached = cache[key]
+        if (cached != null) {
+            if (cached.owner === rules) return cached
+            cache = ConcurrentHashMap()
+            targetRules = cache
         }
+        val compiled = rules.forTarget(SIDE, repositoryId?.let { arrayOf(it) }, localHost)
+        if (cache.size < MAX_TARGETS) cache[key] = compiled
+        return compiled
     }
 
     /**
      * Called when a request arrives at the server, before dispatch.
      */
     override fun receive_request_service_contexts(ri: ServerRequestInfo) {
-        if (shouldSkip(ri)) return
+        val snapshot = MonitorConfig.instance!!
+        if (!snapshot.enabled || captureAction(ri, false, snapshot) == CaptureAction.SKIP) return
 
         try {
-            RequestTimingStore.setStartTime(ri.request_id().toString().toByteArray(Charsets.UTF_8), System.nanoTime())
+            val state = InvocationState(System.nanoTime())
+            if (!bindSlot(ri, state)) {
+                RequestTimingStore.server.begin(timingKey(ri), state.startNanos)
+            }
         } catch (e: Exception) {
             log.debug("Error storing start time: {}", e.message)
         }
@@ -70,7 +117,16 @@ class ServerInterceptor : LocalObject(), ServerRequestInterceptor {
      */
     @Throws(ForwardRequest::class)
     override fun receive_request(ri: ServerRequestInfo) {
-        if (shouldSkip(ri)) return
+        val snapshot = MonitorConfig.instance!!
+        if (!snapshot.enabled) return discardTiming(ri)
+        val action = captureAction(ri, true, snapshot)
+        if (action == CaptureAction.SKIP) {
+            // Skipped by a repository rule: drop the timing started for it
+            endTiming(ri)
+            return
+        }
+        CaptureRules.count(action)
+        if (!action.ship) return
 
         try {
             val event: TrafficEvent = buildBaseEvent(ri, "receive_request")
@@ -78,13 +134,23 @@ class ServerInterceptor : LocalObject(), ServerRequestInterceptor {
                 .status("success")
                 .targetHost(localHost)
                 .messageType("Request")
+                .requestSizeBytes(GiopStreams.requestSize(ri))
 
             // Capture arguments
-            if (config.captureRequestData) {
+            if (action.captureArguments) {
                 event.requestData(extractArguments(ri))
             }
 
-            apiClient.submit(event)
+            if (snapshot.spanEnabled) {
+                val state = slotState(ri)
+                if (state != null) {
+                    state.pending = event
+                } else {
+                    RequestTimingStore.server.attach(timingKey(ri), event)
+                }
+            } else {
+                recorder.record(event)
+            }
         } catch (e: Exception) {
             log.debug("Error in receive_request interceptor: {}", e.message)
         }
@@ -94,23 +160,25 @@ class ServerInterceptor : LocalObject(), ServerRequestInterceptor {
      * Called after the servant has processed the request, before sending reply.
      */
     override fun send_reply(ri: ServerRequestInfo) {
-        if (shouldSkip(ri)) return
+        val snapshot = MonitorConfig.instance!!
+        if (!snapshot.enabled) return discardTiming(ri)
+        val action = captureAction(ri, true, snapshot)
+        if (action == CaptureAction.SKIP) return discardTiming(ri)
 
         try {
-            val latency: Double? = calculateLatency(ri.request_id().toString().toByteArray(Charsets.UTF_8))
+            val state: InvocationState? = endTiming(ri)
 
-            val event: TrafficEvent = buildBaseEvent(ri, "send_reply")
-                .direction("reply")
+            val event: TrafficEvent = replyEvent(ri, state, "send_reply")
                 .status("success")
-                .latencyMs(latency)
+                .latencyNanos(state?.latencyNanos() ?: TrafficEvent.NOT_SET)
                 .targetHost(localHost)
                 .messageType("Reply")
 
-            if (config.captureResponseData) {
+            if (action.captureResult) {
                 event.responseData(extractResult(ri))
             }
 
-            apiClient.submit(event)
+            recorder.record(event, action.ship)
         } catch (e: Exception) {
             log.debug("Error in send_reply interceptor: {}", e.message)
         }
@@ -121,10 +189,13 @@ class ServerInterceptor : LocalObject(), ServerRequestInterceptor {
      */
     @Throws(ForwardRequest::class)
     override fun send_exception(ri: ServerRequestInfo) {
-        if (shouldSkip(ri)) return
+        val snapshot = MonitorConfig.instance!!
+        if (!snapshot.enabled) return discardTiming(ri)
+        val action = captureAction(ri, true, snapshot)
+        if (action == CaptureAction.SKIP) return discardTiming(ri)
 
         try {
-            val latency: Double? = calculateLatency(ri.request_id().toString().toByteArray(Charsets.UTF_8))
+            val state: InvocationState? = endTiming(ri)
 
             var exceptionId: String? = "UNKNOWN"
             try {
@@ -132,24 +203,32 @@ class ServerInterceptor : LocalObject(), ServerRequestInterceptor {
             } catch (ignored: Exception) {
             }
 
-            val event: TrafficEvent = buildBaseEvent(ri, "send_exception")
-                .direction("reply")
+            val event: TrafficEvent = replyEvent(ri, state, "send_exception")
                 .status("exception")
-                .latencyMs(latency)
+                .latencyNanos(state?.latencyNanos() ?: TrafficEvent.NOT_SET)
                 .errorMessage(exceptionId)
                 .exceptionType("SYSTEM_EXCEPTION")
                 .targetHost(localHost)
                 .messageType("Reply")
 
-            apiClient.submit(event)
+            recorder.record(event, action.ship)
         } catch (e: Exception) {
             log.debug("Error in send_exception interceptor: {}", e.message)
         }
     }
 
     @Throws(ForwardRequest::class)
-    override fun send_other(ri: ServerRequestInfo?) {
-        // Location forward or similar
+    override fun send_other(ri: ServerRequestInfo) {
+        // Location forward or similar: no reply follows, so drop the timing entry
+        val snapshot = MonitorConfig.instance!!
+        if (!snapshot.enabled) return discardTiming(ri)
+        if (captureAction(ri, true, snapshot) == CaptureAction.SKIP) return discardTiming(ri)
+
+        try {
+            endTiming(ri)?.pending?.let { recorder.record(it) }
+        } catch (e: Exception) {
+            log.debug("Error in send_other interceptor: {}", e.message)
+        }
     }
 
     override fun destroy() {
@@ -162,7 +241,7 @@ class ServerInterceptor : LocalObject(), ServerRequestInterceptor {
             .requestId(formatRequestId(ri.request_id().toString().toByteArray(Charsets.UTF_8)))
             .operation(ri.operation())
             .interceptorPoint(interceptorPoint)
-            .giopVersion("1.2")
+            .giopVersion(GiopStreams.version(ri))
 
         // Try to get adapter/object info
         try {
@@ -220,34 +299,77 @@ class ServerInterceptor : LocalObject(), ServerRequestInterceptor {
 
     private fun formatRequestId(requestId: ByteArray?): String {
         if (requestId == null || requestId.isEmpty()) return UUID.randomUUID().toString()
-        val sb = StringBuilder()
-        for (i in 0..<min(requestId.size, 16)) {
-            sb.append(String.format("%02x", requestId[i].toInt() and 0xFF))
+        return RequestTimingStore.toHex(requestId)
+    }
+
+    /**
+     * Store the invocation's state in the request's PICurrent slot, which travels
+     * with the request through all server interception points. Returns false if
+     * slots are disabled or the ORB does not accept the write.
+     */
+    private fun bindSlot(ri: ServerRequestInfo, state: InvocationState): Boolean {
+        if (!config.timingSlots) return false
+        try {
+            val any = slotOrb.create_any()
+            any.insert_Object(state, stateType)
+            ri.set_slot(slotId, any)
+            return true
+        } catch (e: Exception) {
+            RequestTimingStore.slotFallbackCount.incrementAndGet()
+            return false
         }
-        return sb.toString()
     }
 
-    private fun calculateLatency(requestId: ByteArray?): Double? {
-        val id: String = formatRequestId(requestId)
-        val startNanos = getAndRemoveStartTime(id)
-        if (startNanos != null) {
-            return (System.nanoTime() - startNanos) / 1000000.0
+    private fun slotState(ri: ServerRequestInfo): InvocationState? {
+        if (!config.timingSlots) return null
+        try {
+            val any = ri.get_slot(slotId)
+            if (any == null || any.type().kind() != TCKind.tk_objref) return null
+            return any.extract_Object() as? InvocationState
+        } catch (e: Exception) {
+            return null
         }
-        return null
+    }
+
+    private fun endTiming(ri: ServerRequestInfo): InvocationState? {
+        return slotState(ri) ?: RequestTimingStore.server.remove(timingKey(ri))
+    }
+
+    /**
+     * Drop the state of a request that was started before the monitor was disabled
+     * or before a rule reload made it skipped.
+     */
+    private fun discardTiming(ri: ServerRequestInfo) {
+        try {
+            endTiming(ri)
+        } catch (ignored: Exception) {
+        }
+    }
+
+    /**
+     * Timing key of a request: all server interception points of a request run on
+     * the thread that dispatches it, which scopes the per-connection request id.
+     */
+    private fun timingKey(ri: ServerRequestInfo): Long {
+        return RequestTimingStore.key(Thread.currentThread().threadId().toInt(), ri.request_id())
+    }
+
+    /**
+     * The event for a reply-side interception point: the held-back request
+     * completed into a span (span mode), or a separate reply event.
+     */
+    private fun replyEvent(ri: ServerRequestInfo, state: InvocationState?, interceptorPoint: String): TrafficEvent {
+        val pending = state?.pending
+        val event = pending?.toSpan(interceptorPoint) ?: buildBaseEvent(ri, interceptorPoint).direction("reply")
+        return event
+            .requestSizeBytes(GiopStreams.requestSize(ri))
+            .responseSizeBytes(GiopStreams.replySize(ri))
     }
 
     companion object {
         private val log: Logger = LoggerFactory.getLogger(ServerInterceptor::class.java)
 
-        /**
-         * Operations to skip (CORBA infrastructure / Naming Service internals).
-         */
-        val SKIP_OPERATIONS: MutableSet<String> = mutableSetOf<String>(
-            "_is_a", "_non_existent", "_get_interface_def", "_get_component",
-            "_get_domain_managers", "_get_policy", "_repository_id",
-            "resolve", "resolve_str", "bind", "rebind", "unbind",
-            "bind_context", "rebind_context", "bind_new_context",
-            "list", "to_name", "to_string", "destroy", "new_context", "to_url"
-        )
+        private const val SIDE = "server"
+        private const val MAX_TARGETS = 1024
     }
 }
\ No newline at end of file
@@ -0,0 +1,166 @@
+package tr.akguel.interceptor
+
+import tr.akguel.rules.CaptureRules
+import java.lang.ref.ReferenceQueue
+import java.lang.ref.WeakReference
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * What the client interceptor needs to know about a target reference,
+ * resolved once per reference instead of on every call.
+ *
+ * [scope] scopes the target's GIOP request ids in the timing store. Unlike an
+ * identity hash it is unique per resolved reference, so calls to two targets
+ * never share a timing key. A reference evicted from the cache between
+ * request and reply is resolved again with a new scope; that call then has
+ * no latency and its timing entry expires.
+ */
+class TargetMetadata(
+    val repositoryIds: Array<String>?,
+    val repositoryId: String?,
+    val interfaceName: String?,
+    val host: String?,
+    val port: Int,
+    val scope: Int = 0
+) {
+    /** Capture rules selected for this target, from the config snapshot they belong to. */
+    @Volatile
+    var rules: CaptureRules.TargetRules? = null
+
+    companion object {
+        private val scopes = AtomicInteger(0)
+
+        /** A new timing scope; 0 is left to requests without a known target. */
+        fun nextScope(): Int {
+            while (true) {
+                val scope = scopes.incrementAndGet()
+                if (scope != 0) return scope
+            }
+        }
+    }
+}
+
+/**
+ * Bounded cache of [TargetMetadata] keyed by the identity of an object reference.
+ *
+ * Keys are held weakly, so stubs the application drops are not kept alive and
+ * their entries are purged on the next access of their stripe. Each of the
+ * [STRIPES] stripes is an access-ordered map guarded by its own monitor and
+ * evicts its least recently used entry beyond `maxEntries / STRIPES`. Lookups
+ * go through a per-stripe probe key, so a hit allocates nothing.
+ */
+class TargetMetadataCache(maxEntries: Int) {
+
+    private val maxPerStripe = maxOf(1, maxEntries / STRIPES)
+    private val stripes = Array(STRIPES) { Stripe() }
+
+    val hitCount: AtomicLong = AtomicLong(0)
+    val missCount: AtomicLong = AtomicLong(0)
+
+    fun get(target: Any): TargetMetadata? {
+        val hash = System.identityHashCode(target)
+        val stripe = stripes[spread(hash) and (STRIPES - 1)]
+        val metadata = synchronized(stripe) { stripe.get(target, hash) }
+        if (metadata != null) hitCount.incrementAndGet() else missCount.incrementAndGet()
+        return metadata
+    }
+
+    /**
+     * Cache [metadata] unless another thread resolved the target first;
+     * returns the cached entry, so all calls to a target share one [TargetMetadata.scope].
+     */
+    fun put(target: Any, metadata: TargetMetadata): TargetMetadata {
+        val hash = System.identityHashCode(target)
+        val stripe = stripes[spread(hash) and (STRIPES - 1)]
+        return synchronized(stripe) { stripe.putIfAbsent(target, hash, metadata) }
+    }
+
+    fun size(): Int {
+        var size = 0
+        for (stripe in stripes) {
+            synchronized(stripe) { size += stripe.size }
+        }
+        return size
+    }
+
+    fun counters(): Map<String, Long> {
+        return linkedMapOf(
+            "entries" to size().toLong(),
+            "hits" to hitCount.get(),
+            "misses" to missCount.get()
+        )
+    }
+
+    private inner class Stripe {
+        private val queue = ReferenceQueue<Any>()
+        private val probe = ProbeKey()
+        private val entries = object : LinkedHashMap<Any, TargetMetadata>(16, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Any, TargetMetadata>): Boolean {
+                return size > maxPerStripe
+            }
+        }
+
+        val size: Int
+            get() = entries.size
+
+        fun get(target: Any, hash: Int): TargetMetadata? {
+            expunge()
+            probe.referent = target
+            probe.hash = hash
+            try {
+                return entries[probe]
+            } finally {
+                probe.referent = null
+            }
+        }
+
+        fun putIfAbsent(target: Any, hash: Int, metadata: TargetMetadata): TargetMetadata {
+            get(target, hash)?.let { return it }
+            entries[WeakKey(target, hash, queue)] = metadata
+            return metadata
+        }
+
+        private fun expunge() {
+            while (true) {
+                val stale = queue.poll() ?: return
+                entries.remove(stale)
+            }
+        }
+    }
+
+    /** Weak key comparing by referent identity; equal to a [ProbeKey] for the same referent. */
+    private class WeakKey(referent: Any, private val hash: Int, queue: ReferenceQueue<Any>) :
+        WeakReference<Any>(referent, queue) {
+
+        override fun hashCode(): Int = hash
+
+        override fun equals(other: Any?): Boolean {
+            if (this === other) return true
+            val referent = get() ?: return false
+            return when (other) {
+                is WeakKey -> referent === other.get()
+                is ProbeKey -> referent === other.referent
+                else -> false
+            }
+        }
+    }
+
+    /** Reusable strong key for lookups (used under the stripe lock only). */
+    private class ProbeKey {
+        var referent: Any? = null
+        var hash: Int = 0
+
+        override fun hashCode(): Int = hash
+
+        override fun equals(other: Any?): Boolean {
+            return other is WeakKey && referent != null && other.get() === referent
+        }
+    }
+
+    companion object {
+        private const val STRIPES = 16
+
+        private fun spread(hash: Int): Int = hash xor (hash ushr 16)
+    }
+}
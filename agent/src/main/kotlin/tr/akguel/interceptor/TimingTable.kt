@@ -0,0 +1,235 @@
+package tr.akguel.interceptor
+
+import tr.akguel.api.TrafficEvent
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.min
+
+/**
+ * Primitive `long`-keyed table of [InvocationState]s for one side (client or server).
+ *
+ * The table is split into stripes, each an open-addressing hash with linear
+ * probing guarded by its own monitor, so no key is boxed and no map entry is
+ * allocated per call. Every stripe also owns a timing wheel of [WHEEL_SLOTS]
+ * slots covering [ttlNanos]: a new entry's key is appended to the slot of its
+ * start tick, and whenever the stripe's clock moves on, the slots it passes
+ * are swept and entries still present and older than the TTL are removed and
+ * handed to [onExpired]. Sweeping happens on the threads that add entries,
+ * one tick's worth at a time, so there is no cleanup thread.
+ */
+class TimingTable(
+    private val ttlNanos: Long,
+    private val onExpired: (InvocationState) -> Unit
+) {
+    private val tickNanos = maxOf(1L, ttlNanos / WHEEL_SLOTS)
+    private val stripes = Array(STRIPES) { Stripe() }
+
+    /** Entries removed by the timing wheel because no reply arrived within the TTL. */
+    val expiredCount: AtomicLong = AtomicLong(0)
+
+    /**
+     * Start timing an invocation, optionally holding back its request-side event for a span.
+     */
+    fun begin(key: Long, startNanos: Long, pending: TrafficEvent? = null) {
+        val state = InvocationState(startNanos)
+        state.pending = pending
+        val stripe = stripeFor(key)
+        val expired = synchronized(stripe) {
+            val swept = stripe.advance(startNanos)
+            stripe.put(key, state)
+            stripe.track(key, startNanos)
+            swept
+        }
+        expired?.forEach(onExpired)
+    }
+
+    /**
+     * Attach a pending request-side event to an invocation, timing it from now if it is not timed yet.
+     */
+    fun attach(key: Long, pending: TrafficEvent) {
+        val stripe = stripeFor(key)
+        val now = System.nanoTime()
+        val expired = synchronized(stripe) {
+            val swept = stripe.advance(now)
+            var state = stripe.get(key)
+            if (state == null) {
+                state = InvocationState(now)
+                stripe.put(key, state)
+                stripe.track(key, now)
+            }
+            state.pending = pending
+            swept
+        }
+        expired?.forEach(onExpired)
+    }
+
+    fun remove(key: Long): InvocationState? {
+        val stripe = stripeFor(key)
+        synchronized(stripe) {
+            return stripe.remove(key)
+        }
+    }
+
+    fun size(): Int {
+        var size = 0
+        for (stripe in stripes) {
+            synchronized(stripe) { size += stripe.size }
+        }
+        return size
+    }
+
+    fun clear() {
+        for (stripe in stripes) {
+            synchronized(stripe) { stripe.clear() }
+        }
+    }
+
+    private fun stripeFor(key: Long): Stripe = stripes[mix(key) and (STRIPES - 1)]
+
+    private inner class Stripe {
+        private var keys = LongArray(INITIAL_CAPACITY)
+        private var values = arrayOfNulls<InvocationState>(INITIAL_CAPACITY)
+        var size = 0
+            private set
+
+        private val wheel = Array(WHEEL_SLOTS) { LongArray(INITIAL_SLOT_CAPACITY) }
+        private val wheelCounts = IntArray(WHEEL_SLOTS)
+        private var lastTick = Math.floorDiv(System.nanoTime(), tickNanos)
+
+        fun get(key: Long): InvocationState? {
+            val mask = values.size - 1
+            var i = (mix(key) ushr STRIPE_BITS) and mask
+            while (true) {
+                val value = values[i] ?: return null
+                if (keys[i] == key) return value
+                i = (i + 1) and mask
+            }
+        }
+
+        fun put(key: Long, state: InvocationState) {
+            if ((size + 1) * 2 > values.size) grow()
+            val mask = values.size - 1
+            var i = (mix(key) ushr STRIPE_BITS) and mask
+            while (values[i] != null) {
+                if (keys[i] == key) {
+                    values[i] = state
+                    return
+                }
+                i = (i + 1) and mask
+            }
+            keys[i] = key
+            values[i] = state
+            size++
+        }
+
+        fun remove(key: Long): InvocationState? {
+            val mask = values.size - 1
+            var i = (mix(key) ushr STRIPE_BITS) and mask
+            while (true) {
+                val value = values[i] ?: return null
+                if (keys[i] == key) {
+                    removeAt(i)
+                    return value
+                }
+                i = (i + 1) and mask
+            }
+        }
+
+        /** Backward-shift deletion keeps probe chains intact without tombstones. */
+        private fun removeAt(index: Int) {
+            val mask = values.size - 1
+            var hole = index
+            values[hole] = null
+            size--
+            var j = hole
+            while (true) {
+                j = (j + 1) and mask
+                if (values[j] == null) return
+                val home = (mix(keys[j]) ushr STRIPE_BITS) and mask
+                val movable = if (hole <= j) (home <= hole || home > j) else (home <= hole && home > j)
+                if (movable) {
+                    keys[hole] = keys[j]
+                    values[hole] = values[j]
+                    values[j] = null
+                    hole = j
+                }
+            }
+        }
+
+        private fun grow() {
+            val oldKeys = keys
+            val oldValues = values
+            keys = LongArray(oldKeys.size * 2)
+            values = arrayOfNulls(oldValues.size * 2)
+            size = 0
+            for (i in oldValues.indices) {
+                val value = oldValues[i] ?: continue
+                put(oldKeys[i], value)
+            }
+        }
+
+        fun track(key: Long, startNanos: Long) {
+            val slot = Math.floorMod(Math.floorDiv(startNanos, tickNanos), WHEEL_SLOTS.toLong()).toInt()
+            var slotKeys = wheel[slot]
+            val count = wheelCounts[slot]
+            if (count == slotKeys.size) {
+                slotKeys = slotKeys.copyOf(count * 2)
+                wheel[slot] = slotKeys
+            }
+            slotKeys[count] = key
+            wheelCounts[slot] = count + 1
+        }
+
+        /**
+         * Move the wheel to [now], sweeping every slot passed on the way.
+         * Returns the expired states, or null if none expired.
+         */
+        fun advance(now: Long): MutableList<InvocationState>? {
+            val tick = Math.floorDiv(now, tickNanos)
+            if (tick <= lastTick) return null
+            val steps = min(tick - lastTick, WHEEL_SLOTS.toLong()).toInt()
+            var expired: MutableList<InvocationState>? = null
+            for (step in 1..steps) {
+                val slot = Math.floorMod(lastTick + step, WHEEL_SLOTS.toLong()).toInt()
+                val slotKeys = wheel[slot]
+                for (n in 0 until wheelCounts[slot]) {
+                    val state = get(slotKeys[n]) ?: continue
+                    // A slot is reused one revolution later, so what is left in it is about a TTL old
+                    if (now - state.startNanos >= ttlNanos - tickNanos) {
+                        remove(slotKeys[n])
+                        expiredCount.incrementAndGet()
+                        if (expired == null) expired = ArrayList()
+                        expired.add(state)
+                    }
+                }
+                wheelCounts[slot] = 0
+                if (slotKeys.size > MAX_RETAINED_SLOT_CAPACITY) {
+                    wheel[slot] = LongArray(INITIAL_SLOT_CAPACITY)
+                }
+            }
+            lastTick = tick
+            return expired
+        }
+
+        fun clear() {
+            keys = LongArray(INITIAL_CAPACITY)
+            values = arrayOfNulls(INITIAL_CAPACITY)
+            size = 0
+            wheelCounts.fill(0)
+        }
+    }
+
+    companion object {
+        internal const val STRIPE_BITS = 4
+        internal const val STRIPES = 1 shl STRIPE_BITS
+        internal const val WHEEL_SLOTS = 64
+        internal const val INITIAL_CAPACITY = 64
+        private const val INITIAL_SLOT_CAPACITY = 16
+        private const val MAX_RETAINED_SLOT_CAPACITY = 4096
+
+        /** Hash of a key: the low [STRIPE_BITS] select the stripe, the rest the home slot. */
+        internal fun mix(key: Long): Int {
+            val h = key * -7046029254386353131L
+            return (h xor (h ushr 32)).toInt() and Int.MAX_VALUE
+        }
+    }
+}
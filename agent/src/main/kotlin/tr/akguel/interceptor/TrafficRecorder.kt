@@ -0,0 +1,124 @@
+package tr.akguel.interceptor
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import tr.akguel.api.MemoryBudget
+import tr.akguel.api.TrafficEvent
+import tr.akguel.config.ConfigWatcher
+import tr.akguel.config.MonitorConfig
+import tr.akguel.config.MonitorControl
+import tr.akguel.decode.CapturedPayload
+import tr.akguel.decode.DecodeStage
+import tr.akguel.export.TrafficExporter
+import tr.akguel.export.TrafficExporters
+import tr.akguel.metrics.LatencyAggregator
+import tr.akguel.rules.CaptureRules
+import tr.akguel.sampling.TrafficSampler
+import kotlin.concurrent.Volatile
+
+
+/**
+ * Single hand-off point between the interceptors and the exporter
+ * selected by `monitor.exporter` (see [TrafficExporter]).
+ *
+ * Depending on `monitor.aggregation.mode` a captured event is
+ * - `off`     — exported as a raw event (default)
+ * - `summary` — only recorded into the latency histograms; raw events are not shipped
+ * - `both`    — recorded and exported
+ *
+ * With `monitor.sampling.enabled` the [TrafficSampler] decides which raw events
+ * are exported. Histograms always see every call, so summaries stay exact.
+ *
+ * Exported events that carry captured arguments or results pass through the
+ * [DecodeStage] first, so payloads are only decoded for events actually shipped.
+ *
+ * On a configuration reload (see [MonitorConfig.reload]) the sampler is rebuilt
+ * from the new snapshot and swapped in; aggregation mode and exporter keep
+ * their startup values.
+ */
+class TrafficRecorder private constructor() {
+
+    private val config: MonitorConfig = MonitorConfig.instance!!
+    val exporter: TrafficExporter = TrafficExporters.create(config)
+    private val aggregator: LatencyAggregator?
+    private val shipRawEvents: Boolean
+    @Volatile
+    private var sampler: TrafficSampler?
+    private val decodeStage: DecodeStage?
+    private val watcher: ConfigWatcher?
+
+    init {
+        val mode = config.aggregationMode
+        this.aggregator = if (mode == "summary" || mode == "both") {
+            LatencyAggregator(config.aggregationIntervalSeconds, config.aggregationMaxSeries, exporter::exportSummaries)
+        } else {
+            null
+        }
+        this.shipRawEvents = aggregator == null || mode == "both"
+        this.sampler = if (config.samplingEnabled) TrafficSampler(config) else null
+        // Capture rules can turn payload capture on for single operations, also after a reload
+        this.decodeStage = if (shipRawEvents) DecodeStage(config, MemoryBudget.instance!!, exporter::export) else null
+        MonitorConfig.onReload(this::reconfigure)
+        this.watcher = ConfigWatcher.start(config)
+        MonitorControl.register()
+        log.info("TrafficRecorder started (aggregation={})", mode)
+    }
+
+    /**
+     * Record a captured event; with [ship] false (`metrics-only` rules) it only feeds the histograms.
+     */
+    fun record(event: TrafficEvent, ship: Boolean = true) {
+        aggregator?.record(event)
+        val sampler = this.sampler
+        if (ship && shipRawEvents && (sampler == null || sampler.sample(event))) {
+            if (decodeStage != null && (event.requestData is CapturedPayload || event.responseData is CapturedPayload)) {
+                decodeStage.submit(event)
+            } else {
+                exporter.export(event)
+            }
+        }
+    }
+
+    private fun reconfigure(snapshot: MonitorConfig) {
+        val previous = sampler
+        sampler = if (snapshot.samplingEnabled) TrafficSampler(snapshot) else null
+        if (previous != null) {
+            log.info("Sampling before reload: {}", previous.counters())
+        }
+    }
+
+    /**
+     * Ship the summaries of the current interval, then shut the exporter down.
+     */
+    fun shutdown() {
+        watcher?.shutdown()
+        aggregator?.shutdown()
+        val sampler = this.sampler
+        if (sampler != null) {
+            log.info("Sampling: {}", sampler.counters())
+        }
+        log.info(
+            "Request timings: {} client / {} server pending, {} / {} expired, {} slot fallbacks, {} stale frames",
+            RequestTimingStore.client.size(), RequestTimingStore.server.size(),
+            RequestTimingStore.client.expiredCount.get(), RequestTimingStore.server.expiredCount.get(),
+            RequestTimingStore.slotFallbackCount.get(), InvocationFrames.staleCount.get()
+        )
+        log.info("Capture rules: {}", CaptureRules.counters())
+        decodeStage?.shutdown()
+        exporter.shutdown()
+    }
+
+    companion object {
+        private val log: Logger = LoggerFactory.getLogger(TrafficRecorder::class.java)
+
+        @get:Synchronized
+        var instance: TrafficRecorder? = null
+            get() {
+                if (field == null) {
+                    this.instance = TrafficRecorder()
+                }
+                return field
+            }
+            private set
+    }
+}
@@ -0,0 +1,35 @@
+package tr.akguel.ior
+
+/**
+ * Host and port of an IIOP endpoint.
+ */
+data class IiopAddress(val host: String, val port: Int)
+
+/**
+ * A TAG_INTERNET_IOP profile: IIOP version, primary address, object key and
+ * the TAG_ALTERNATE_IIOP_ADDRESS components (IIOP 1.2 and later).
+ */
+class IiopProfile(
+    val major: Int,
+    val minor: Int,
+    val address: IiopAddress,
+    val objectKey: ByteArray,
+    val alternateAddresses: List<IiopAddress>
+) {
+    val version: String
+        get() = "$major.$minor"
+}
+
+/**
+ * Result of decoding a stringified object reference ("IOR:" or "corbaloc:").
+ */
+class DecodedIor(
+    val typeId: String,
+    val profiles: List<IiopProfile>,
+    /** Tags of all profiles, including the ones that are not IIOP. */
+    val profileTags: List<Int>
+) {
+    /** Address of the first IIOP profile, or null if the reference has none. */
+    val primaryAddress: IiopAddress?
+        get() = profiles.firstOrNull()?.address
+}
@@ -0,0 +1,300 @@
+package tr.akguel.ior
+
+import java.io.ByteArrayOutputStream
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.atomic.AtomicLong
+
+
+/**
+ * Decodes stringified object references into their IIOP profiles.
+ *
+ * Handles `IOR:` strings (CDR-encoded IOR: type id plus tagged profiles) and
+ * `corbaloc:` URLs. For TAG_INTERNET_IOP profiles it reads IIOP 1.0 – 1.2
+ * profile bodies — version, host, port, object key — and, from IIOP 1.1 on,
+ * the tagged components, collecting TAG_ALTERNATE_IIOP_ADDRESS entries. Other
+ * profiles and components are skipped.
+ *
+ * Decoded references are kept in a bounded LRU cache keyed by the string form,
+ * shared by the client interceptor and the nameserver scanner.
+ */
+object IorDecoder {
+    const val TAG_INTERNET_IOP = 0
+    const val TAG_MULTIPLE_COMPONENTS = 1
+    const val TAG_ALTERNATE_IIOP_ADDRESS = 3
+
+    private const val CACHE_SIZE = 1024
+    private const val DEFAULT_CORBALOC_PORT = 2809
+
+    private val cache = object : LinkedHashMap<String, DecodedIor>(64, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, DecodedIor>): Boolean {
+            return size > CACHE_SIZE
+        }
+    }
+
+    val hitCount: AtomicLong = AtomicLong(0)
+    val missCount: AtomicLong = AtomicLong(0)
+    val failedCount: AtomicLong = AtomicLong(0)
+
+    /**
+     * Decode [ior] through the cache. Returns null for null, unsupported or malformed references.
+     */
+    fun decode(ior: String?): DecodedIor? {
+        if (ior == null) return null
+        synchronized(cache) {
+            val cached = cache[ior]
+            if (cached != null) {
+                hitCount.incrementAndGet()
+                return cached
+            }
+        }
+        missCount.incrementAndGet()
+        val decoded = try {
+            parse(ior)
+        } catch (e: IllegalArgumentException) {
+            null
+        }
+        if (decoded == null) {
+            failedCount.incrementAndGet()
+            return null
+        }
+        synchronized(cache) {
+            cache[ior] = decoded
+        }
+        return decoded
+    }
+
+    /**
+     * Decode without the cache.
+     *
+     * @throws IllegalArgumentException if the reference is malformed
+     */
+    fun parse(ior: String): DecodedIor? {
+        return when {
+            ior.regionMatches(0, "IOR:", 0, 4, ignoreCase = true) -> decodeIor(hexToBytes(ior, 4))
+            ior.startsWith("corbaloc:") -> parseCorbaloc(ior)
+            else -> null
+        }
+    }
+
+    /**
+     * Decode a CDR-encoded IOR (the bytes behind the `IOR:` hex string).
+     */
+    fun decodeIor(bytes: ByteArray): DecodedIor {
+        val cdr = CdrReader(bytes, 0, bytes.size)
+        cdr.readByteOrder()
+        val typeId = cdr.readString()
+        val count = cdr.readSequenceLength()
+        val profiles = ArrayList<IiopProfile>(1)
+        val tags = ArrayList<Int>(count)
+        for (i in 0 until count) {
+            val tag = cdr.readULong()
+            val length = cdr.readSequenceLength()
+            val offset = cdr.skip(length)
+            tags.add(tag)
+            if (tag == TAG_INTERNET_IOP) {
+                profiles.add(decodeIiopProfile(bytes, offset, length))
+            }
+        }
+        return DecodedIor(typeId, profiles, tags)
+    }
+
+    private fun decodeIiopProfile(bytes: ByteArray, offset: Int, length: Int): IiopProfile {
+        val cdr = CdrReader(bytes, offset, offset + length)
+        cdr.readByteOrder()
+        val major = cdr.readOctet()
+        val minor = cdr.readOctet()
+        require(major == 1) { "Unsupported IIOP version $major.$minor" }
+        val host = cdr.readString()
+        val port = cdr.readUShort()
+        val keyLength = cdr.readSequenceLength()
+        val objectKey = bytes.copyOfRange(cdr.skip(keyLength), cdr.position)
+
+        val alternates = ArrayList<IiopAddress>(0)
+        if (minor >= 1 && cdr.remaining() >= 4) {
+            val count = cdr.readSequenceLength()
+            for (i in 0 until count) {
+                val tag = cdr.readULong()
+                val componentLength = cdr.readSequenceLength()
+                val componentOffset = cdr.skip(componentLength)
+                if (tag == TAG_ALTERNATE_IIOP_ADDRESS) {
+                    val component = CdrReader(bytes, componentOffset, componentOffset + componentLength)
+                    component.readByteOrder()
+                    alternates.add(IiopAddress(component.readString(), component.readUShort()))
+                }
+            }
+        }
+        return IiopProfile(major, minor, IiopAddress(host, port), objectKey, alternates)
+    }
+
+    /**
+     * `corbaloc:[iiop]:[version@]host[:port][,...]/key` — one profile per IIOP address.
+     * The key is URL-escaped: `%xx` stands for the octet xx.
+     */
+    private fun parseCorbaloc(url: String): DecodedIor? {
+        val body = url.substring("corbaloc:".length)
+        val slash = body.indexOf('/')
+        val addressList = if (slash >= 0) body.substring(0, slash) else body
+        val key = if (slash >= 0) unescapeKey(body.substring(slash + 1)) else ByteArray(0)
+
+        val profiles = ArrayList<IiopProfile>(1)
+        for (entry in addressList.split(',')) {
+            var address = when {
+                entry.startsWith("iiop:") -> entry.substring(5)
+                entry.startsWith(":") -> entry.substring(1)
+                else -> continue // rir: and other protocols have no address
+            }
+            var major = 1
+            var minor = 0
+            val at = address.indexOf('@')
+            if (at >= 0) {
+                val version = address.substring(0, at).split('.')
+                require(version.size == 2) { "Malformed corbaloc version: $address" }
+                major = version[0].toInt()
+                minor = version[1].toInt()
+                address = address.substring(at + 1)
+            }
+            val host: String
+            var port = DEFAULT_CORBALOC_PORT
+            if (address.startsWith("[")) {
+                val close = address.indexOf(']')
+                require(close > 0) { "Malformed IPv6 address: $address" }
+                host = address.substring(1, close)
+                if (address.length > close + 2 && address[close + 1] == ':') {
+                    port = address.substring(close + 2).toInt()
+                }
+            } else {
+                val colon = address.lastIndexOf(':')
+                host = if (colon >= 0) address.substring(0, colon) else address
+                if (colon >= 0 && colon < address.length - 1) {
+                    port = address.substring(colon + 1).toInt()
+                }
+            }
+            require(port in 0..0xFFFF) { "Invalid corbaloc port $port" }
+            if (host.isNotEmpty()) {
+                profiles.add(IiopProfile(major, minor, IiopAddress(host, port), key, emptyList()))
+            }
+        }
+        if (profiles.isEmpty()) return null
+        return DecodedIor("", profiles, List(profiles.size) { TAG_INTERNET_IOP })
+    }
+
+    /**
+     * Object key of a corbaloc URL: `%xx` escapes become the octet xx, other characters their UTF-8 bytes.
+     */
+    private fun unescapeKey(key: String): ByteArray {
+        if (key.indexOf('%') < 0) return key.toByteArray(StandardCharsets.UTF_8)
+        val out = ByteArrayOutputStream(key.length)
+        var i = 0
+        while (i < key.length) {
+            val percent = key.indexOf('%', i)
+            val end = if (percent < 0) key.length else percent
+            out.write(key.substring(i, end).toByteArray(StandardCharsets.UTF_8))
+            if (percent < 0) break
+            require(percent + 2 < key.length) { "Truncated escape in corbaloc key" }
+            val high = Character.digit(key[percent + 1], 16)
+            val low = Character.digit(key[percent + 2], 16)
+            require(high >= 0 && low >= 0) { "Invalid escape in corbaloc key" }
+            out.write((high shl 4) or low)
+            i = percent + 3
+        }
+        return out.toByteArray()
+    }
+
+    fun counters(): Map<String, Long> {
+        return linkedMapOf(
+            "hits" to hitCount.get(),
+            "misses" to missCount.get(),
+            "failed" to failedCount.get()
+        )
+    }
+
+    private fun hexToBytes(hex: String, start: Int): ByteArray {
+        val length = hex.length - start
+        require(length % 2 == 0) { "Odd IOR hex length" }
+        val bytes = ByteArray(length / 2)
+        for (i in bytes.indices) {
+            val high = Character.digit(hex[start + i * 2], 16)
+            val low = Character.digit(hex[start + i * 2 + 1], 16)
+            require(high >= 0 && low >= 0) { "Invalid IOR hex digit" }
+            bytes[i] = ((high shl 4) or low).toByte()
+        }
+        return bytes
+    }
+
+    /**
+     * Minimal CDR reader over one encapsulation: alignment is relative to [base],
+     * the first octet of the encapsulation, which carries its byte order.
+     */
+    private class CdrReader(private val buf: ByteArray, private val base: Int, private val end: Int) {
+        var position: Int = base
+            private set
+        private var littleEndian = false
+
+        init {
+            require(base >= 0 && end <= buf.size && base <= end) { "Encapsulation out of bounds" }
+        }
+
+        fun remaining(): Int = end - position
+
+        fun readByteOrder() {
+            littleEndian = (readOctet() and 1) != 0
+        }
+
+        fun readOctet(): Int {
+            ensure(1)
+            return buf[position++].toInt() and 0xFF
+        }
+
+        fun readUShort(): Int {
+            align(2)
+            ensure(2)
+            val b0 = buf[position].toInt() and 0xFF
+            val b1 = buf[position + 1].toInt() and 0xFF
+            position += 2
+            return if (littleEndian) (b1 shl 8) or b0 else (b0 shl 8) or b1
+        }
+
+        fun readULong(): Int {
+            align(4)
+            ensure(4)
+            var value = 0
+            for (i in 0 until 4) {
+                val b = buf[position + i].toInt() and 0xFF
+                value = if (littleEndian) value or (b shl (8 * i)) else (value shl 8) or b
+            }
+            position += 4
+            return value
+        }
+
+        fun readSequenceLength(): Int {
+            val length = readULong()
+            require(length in 0..remaining()) { "Bad sequence length $length" }
+            return length
+        }
+
+        /** CDR string: length including the terminating NUL, then ISO-8859-1 characters. */
+        fun readString(): String {
+            val length = readSequenceLength()
+            val start = skip(length)
+            val chars = if (length > 0 && buf[start + length - 1].toInt() == 0) length - 1 else length
+            return String(buf, start, chars, StandardCharsets.ISO_8859_1)
+        }
+
+        /** Skip [length] octets and return the offset they start at. */
+        fun skip(length: Int): Int {
+            ensure(length)
+            val start = position
+            position += length
+            return start
+        }
+
+        private fun align(boundary: Int) {
+            val misalignment = (position - base) % boundary
+            if (misalignment != 0) position += boundary - misalignment
+        }
+
+        private fun ensure(length: Int) {
+            require(length >= 0 && position + length <= end) { "Truncated IOR" }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package tr.akguel.metrics
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import tr.akguel.api.LatencySummary
+import tr.akguel.api.TrafficEvent
+import java.time.Instant
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+
+/**
+ * Aggregates completed calls into per-(interface, operation, status, target)
+ * latency histograms and hands compact summaries to [sink] every interval.
+ *
+ * Recording is lock-free: an existing series is a map lookup plus a few
+ * atomic increments. Series that stay idle for [IDLE_EVICT_INTERVALS]
+ * intervals are dropped; once [maxSeries] series exist, new combinations
+ * are folded into an `_other` series per status so a high-cardinality
+ * target cannot grow the map without bound.
+ *
+ * A recorder may still hold an evicted series. Eviction therefore marks the
+ * series retired before removing it and drains it once more; a recorder
+ * that finds its series retired after recording drains it as well. Either
+ * drain moves the late values into the live series, so none are lost.
+ */
+class LatencyAggregator(
+    private val intervalSeconds: Long,
+    private val maxSeries: Int,
+    private val sink: (List<LatencySummary>) -> Unit
+) {
+
+    private data class Key(
+        val interfaceName: String?,
+        val operation: String?,
+        val status: String?,
+        val target: String?
+    )
+
+    private class Series {
+        val histogram = LatencyHistogram()
+        var idleIntervals = 0
+
+        @Volatile
+        var retired = false
+    }
+
+    private val series = ConcurrentHashMap<Key, Series>()
+    private val scheduler: ScheduledExecutorService
+    private var intervalStart: Instant = Instant.now()
+
+    val recordedCount: AtomicLong = AtomicLong(0)
+    val summaryCount: AtomicLong = AtomicLong(0)
+    val overflowCount: AtomicLong = AtomicLong(0)
+
+    init {
+        this.scheduler = Executors.newSingleThreadScheduledExecutor { r: Runnable? ->
+            val t = Thread(r, "corba-monitor-aggregate")
+            t.setDaemon(true)
+            t
+        }
+        scheduler.scheduleAtFixedRate({ this.flushSafely() }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS)
+        log.info("LatencyAggregator started: interval={}s, maxSeries={}", intervalSeconds, maxSeries)
+    }
+
+    /**
+     * Record a completed call. Returns false if the event carries no latency
+     * (request-side or location-forward events), which is not aggregated.
+     */
+    fun record(event: TrafficEvent): Boolean {
+        val latency = event.latencyNanos
+        if (latency == TrafficEvent.NOT_SET) return false
+        val status = event.status
+        val target = if (event.targetHost != null) "${event.targetHost}:${event.targetPort ?: ""}" else null
+        val key = Key(event.interfaceName, event.operation, status, target)
+        val entry = seriesFor(key)
+        entry.histogram.record(latency / 1_000_000.0, status != null && status != "success")
+        if (entry.retired) {
+            // Evicted while recording: the eviction's drain may have missed this value
+            moveToLive(key, entry)
+        }
+        recordedCount.incrementAndGet()
+        return true
+    }
+
+    private fun seriesFor(key: Key): Series {
+        series[key]?.let { return it }
+        if (series.size >= maxSeries) {
+            overflowCount.incrementAndGet()
+            return series.computeIfAbsent(Key(null, OTHER, key.status, null)) { Series() }
+        }
+        return series.computeIfAbsent(key) { Series() }
+    }
+
+    /**
+     * Close the current interval and ship its summaries.
+     */
+    @Synchronized
+    fun flush() {
+        val start = intervalStart
+        val end = Instant.now()
+        intervalStart = end
+
+        val summaries: MutableList<LatencySummary> = ArrayList<LatencySummary>()
+        for ((key, entry) in series) {
+            val snapshot = entry.histogram.drain()
+            if (snapshot == null) {
+                if (++entry.idleIntervals >= IDLE_EVICT_INTERVALS) {
+                    evict(key, entry)
+                }
+                continue
+            }
+            entry.idleIntervals = 0
+            summaries.add(
+                LatencySummary(
+                    key.interfaceName, key.operation, key.status, key.target,
+                    start.toString(), end.toString(),
+                    snapshot.count, snapshot.errorCount, snapshot.meanMs,
+                    snapshot.percentileMs(0.5), snapshot.percentileMs(0.9),
+                    snapshot.percentileMs(0.99), snapshot.percentileMs(0.999),
+                    snapshot.maxMicros / 1000.0
+                )
+            )
+        }
+        if (summaries.isEmpty()) return
+
+        summaryCount.addAndGet(summaries.size.toLong())
+        log.debug("Shipping {} latency summaries for {} – {}", summaries.size, start, end)
+        sink(summaries)
+    }
+
+    private fun evict(key: Key, entry: Series) {
+        entry.retired = true
+        series.remove(key, entry)
+        // Calls recorded between the drain in flush() and the retired flag
+        moveToLive(key, entry)
+    }
+
+    private fun moveToLive(key: Key, retired: Series) {
+        var late = retired.histogram.drain() ?: return
+        while (true) {
+            val live = seriesFor(key)
+            live.histogram.merge(late)
+            // The target can itself be evicted while merging; same hand-off as in record()
+            if (!live.retired) return
+            late = live.histogram.drain() ?: return
+        }
+    }
+
+    private fun flushSafely() {
+        try {
+            flush()
+        } catch (e: Exception) {
+            log.error("Latency summary flush failed: {}", e.message)
+        }
+    }
+
+    /**
+     * Stop the interval timer and ship what was recorded since the last interval.
+     */
+    fun shutdown() {
+        scheduler.shutdown()
+        flushSafely()
+        log.info(
+            "LatencyAggregator stopped. Recorded: {}, Summaries: {}, Overflowed: {}",
+            recordedCount.get(), summaryCount.get(), overflowCount.get()
+        )
+    }
+
+    companion object {
+        private val log: Logger = LoggerFactory.getLogger(LatencyAggregator::class.java)
+
+        private const val IDLE_EVICT_INTERVALS = 10
+        private const val OTHER = "_other"
+    }
+}
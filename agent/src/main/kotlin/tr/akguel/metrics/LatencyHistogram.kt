@@ -0,0 +1,124 @@
+package tr.akguel.metrics
+
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.atomic.AtomicLongArray
+
+
+/**
+ * Lock-free log-linear latency histogram (HDR-style), recorded in microseconds.
+ *
+ * Values below 64 µs get one bucket each; above that every
+ * power-of-two range is split into 32 linear buckets, so a bucket is never
+ * wider than ~3% of its value from 1 µs up to [MAX_MICROS]. Larger values
+ * are clamped into the top bucket.
+ *
+ * [record] is a handful of atomic increments and never allocates. [drain]
+ * reads and zeroes the buckets one by one, so every recorded value lands in
+ * exactly one interval even while recording continues.
+ */
+class LatencyHistogram {
+
+    private val buckets = AtomicLongArray(BUCKET_COUNT)
+    private val errors = AtomicLong(0)
+    private val sumMicros = AtomicLong(0)
+    private val maxMicros = AtomicLong(0)
+
+    fun record(latencyMs: Double, error: Boolean) {
+        val micros = (latencyMs * 1000.0).toLong().coerceIn(0L, MAX_MICROS)
+        buckets.incrementAndGet(indexOf(micros))
+        sumMicros.addAndGet(micros)
+        if (error) errors.incrementAndGet()
+        updateMax(micros)
+    }
+
+    /**
+     * Add the values of a drained snapshot, e.g. of a series that was evicted while recording.
+     */
+    fun merge(snapshot: Snapshot) {
+        for (i in 0 until BUCKET_COUNT) {
+            if (snapshot.counts[i] != 0L) buckets.addAndGet(i, snapshot.counts[i])
+        }
+        sumMicros.addAndGet(snapshot.sumMicros)
+        errors.addAndGet(snapshot.errorCount)
+        updateMax(snapshot.maxMicros)
+    }
+
+    private fun updateMax(micros: Long) {
+        var current = maxMicros.get()
+        while (micros > current && !maxMicros.compareAndSet(current, micros)) {
+            current = maxMicros.get()
+        }
+    }
+
+    /**
+     * Take the values recorded since the last drain and reset the histogram.
+     * Returns null if nothing was recorded.
+     */
+    fun drain(): Snapshot? {
+        val counts = LongArray(BUCKET_COUNT)
+        var total = 0L
+        for (i in 0 until BUCKET_COUNT) {
+            if (buckets.get(i) != 0L) {
+                counts[i] = buckets.getAndSet(i, 0)
+                total += counts[i]
+            }
+        }
+        if (total == 0L) return null
+        return Snapshot(counts, total, errors.getAndSet(0), sumMicros.getAndSet(0), maxMicros.getAndSet(0))
+    }
+
+    /**
+     * Values of one interval.
+     */
+    class Snapshot(
+        internal val counts: LongArray,
+        val count: Long,
+        val errorCount: Long,
+        val sumMicros: Long,
+        val maxMicros: Long
+    ) {
+        /**
+         * Latency (ms) at the given quantile (0.0–1.0), never above the recorded max.
+         */
+        fun percentileMs(quantile: Double): Double {
+            val rank = maxOf(1L, Math.ceil(quantile * count).toLong())
+            var seen = 0L
+            for (i in counts.indices) {
+                seen += counts[i]
+                if (seen >= rank) {
+                    return minOf(midpointOf(i), maxMicros) / 1000.0
+                }
+            }
+            return maxMicros / 1000.0
+        }
+
+        val meanMs: Double
+            get() = sumMicros.toDouble() / count / 1000.0
+    }
+
+    companion object {
+        private const val SUB_BUCKET_BITS = 6
+        private const val SUB_BUCKETS = 1 shl SUB_BUCKET_BITS
+        private const val HALF = SUB_BUCKETS / 2
+
+        /** ~1.2 hours; anything slower is clamped. */
+        const val MAX_MICROS: Long = (1L shl 32) - 1
+        private val BUCKET_COUNT = indexOf(MAX_MICROS) + 1
+
+        private fun indexOf(micros: Long): Int {
+            if (micros < SUB_BUCKETS) return micros.toInt()
+            val msb = 63 - java.lang.Long.numberOfLeadingZeros(micros)
+            val shift = msb - (SUB_BUCKET_BITS - 1)
+            val sub = (micros ushr shift).toInt()
+            return SUB_BUCKETS + (shift - 1) * HALF + (sub - HALF)
+        }
+
+        private fun midpointOf(index: Int): Long {
+            if (index < SUB_BUCKETS) return index.toLong()
+            val offset = index - SUB_BUCKETS
+            val shift = offset / HALF + 1
+            val lower = (offset % HALF + HALF).toLong() shl shift
+            return lower + (1L shl (shift - 1))
+        }
+    }
+}
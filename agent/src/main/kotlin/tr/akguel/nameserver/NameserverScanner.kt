@@ -4,11 +4,11 @@ import com.google.gson.Gson
 import com.google.gson.GsonBuilder
 import org.omg.CORBA.ORB
 import org.omg.CORBA.Object
-import org.omg.CORBA.portable.ObjectImpl
 import org.omg.CosNaming.*
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 import tr.akguel.config.MonitorConfig
+import tr.akguel.ior.IorDecoder
 import java.io.IOException
 import java.net.HttpURLConnection
 import java.net.URI
@@ -224,28 +224,22 @@ class NameserverScanner(private val orb: ORB) {
     }
 
     /**
-     * Best-effort IOR parsing to extract host and port.
+     * Decode the IOR (shared cache with the client interceptor) for type id, IIOP version and host/port.
      */
     private fun parseIOR(ior: String?, entry: MutableMap<String, Any>) {
         if (ior == null || !ior.startsWith("IOR:")) return
-        try {
-            // JacORB can parse IOR internally
-            val obj: Object? = orb.string_to_object(ior)
-            if (obj is ObjectImpl) {
-                val delegate = obj._get_delegate()
-                // The delegate often has host/port info but the exact API varies
-                // We'll extract from the IOR hex string as fallback
-            }
-        } catch (ignored: Exception) {
-        }
+        entry["ior_length"] = (ior.length - 4) / 2
 
-        // Hex-based extraction (fallback)
-        try {
-            val hex = ior.substring(4)
-            // IOR structure: byte_order + type_id_length + type_id + profiles...
-            // This is simplified — full IOR parsing would need CDR decoding
-            entry["ior_length"] = hex.length / 2
-        } catch (ignored: Exception) {
+        val decoded = IorDecoder.decode(ior) ?: return
+        if (decoded.typeId.isNotEmpty()) {
+            entry["type_id"] = decoded.typeId
+        }
+        val profile = decoded.profiles.firstOrNull() ?: return
+        entry["host"] = profile.address.host
+        entry["port"] = profile.address.port
+        entry["iiop_version"] = profile.version
+        if (profile.alternateAddresses.isNotEmpty()) {
+            entry["alternate_addresses"] = profile.alternateAddresses.map { "${it.host}:${it.port}" }
         }
     }
 
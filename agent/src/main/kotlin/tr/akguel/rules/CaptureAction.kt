@@ -0,0 +1,41 @@
+package tr.akguel.rules
+
+/**
+ * What the interceptors do with a call, chosen by [CaptureRules].
+ *
+ * - [SKIP]: not intercepted at all
+ * - [METRICS_ONLY]: timed and recorded into the latency histograms, no raw events
+ * - [EVENTS_ONLY]: raw events without arguments or results
+ * - [CAPTURE_ARGS]: raw events with the request arguments
+ * - [CAPTURE_RESULT]: raw events with results and user exceptions
+ * - [CAPTURE_FULL]: raw events with arguments, results and user exceptions
+ */
+enum class CaptureAction(
+    val configName: String,
+    val ship: Boolean,
+    val captureArguments: Boolean,
+    val captureResult: Boolean
+) {
+    SKIP("skip", false, false, false),
+    METRICS_ONLY("metrics-only", false, false, false),
+    EVENTS_ONLY("events-only", true, false, false),
+    CAPTURE_ARGS("capture-args", true, true, false),
+    CAPTURE_RESULT("capture-result", true, false, true),
+    CAPTURE_FULL("capture-full", true, true, true);
+
+    companion object {
+        fun forName(name: String): CaptureAction? {
+            return entries.firstOrNull { it.configName.equals(name, ignoreCase = true) }
+        }
+
+        /** Action for calls no rule matches: `monitor.capture.request` / `monitor.capture.response`. */
+        fun of(captureArguments: Boolean, captureResult: Boolean): CaptureAction {
+            return when {
+                captureArguments && captureResult -> CAPTURE_FULL
+                captureArguments -> CAPTURE_ARGS
+                captureResult -> CAPTURE_RESULT
+                else -> EVENTS_ONLY
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package tr.akguel.rules
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import tr.akguel.config.MonitorConfig
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.LongAdder
+
+
+/**
+ * Skip and capture rules, compiled once from `monitor.rules`.
+ *
+ * A rule is `conditions -> action`; rules are separated by `;`, conditions
+ * by `,`, and the first matching rule wins. Conditions are `key=pattern`
+ * with the keys
+ * - `repo`: repository id of the target (any of its ids on the client)
+ * - `op`:   operation name
+ * - `host`: target host (the local host on the server)
+ * - `side`: `client` or `server`
+ *
+ * Patterns may contain `*` wildcards and `|` alternatives, e.g.
+ * `op=ping|getVehicleCount -> metrics-only; repo=*VehicleTracker*,op=update* -> capture-full`.
+ * Actions are the [CaptureAction] names. The built-in skip rules for CORBA
+ * infrastructure ([BUILTIN_RULES]) come first and cannot be overridden;
+ * calls no rule matches get the action of `monitor.capture.request` /
+ * `monitor.capture.response`.
+ *
+ * Each [MonitorConfig] snapshot compiles its own rules
+ * ([MonitorConfig.captureRules]), so a reload swaps them atomically.
+ *
+ * Matching is two-staged: [forTarget] keeps the rules whose target
+ * conditions (repository id, host, side) hold for one target, once per
+ * target; [TargetRules.actionFor] then only checks operations, and memoizes
+ * the result per operation.
+ */
+class CaptureRules private constructor(spec: String?, private val defaultAction: CaptureAction) {
+
+    private val rules: List<Rule> = parse(BUILTIN_RULES, true) + parse(spec, false)
+
+    /**
+     * Rules that can apply to calls on one target.
+     */
+    fun forTarget(side: String, repositoryIds: Array<String>?, host: String?): TargetRules {
+        val candidates = rules.filter { it.matchesTarget(side, repositoryIds, host) }
+        return TargetRules(candidates.toTypedArray())
+    }
+
+    val ruleCount: Int
+        get() = rules.size
+
+    /**
+     * The rules for one target, matched by operation only.
+     */
+    inner class TargetRules internal constructor(private val candidates: Array<Rule>) {
+        private val byOperation = ConcurrentHashMap<String, CaptureAction>()
+
+        /** The rule set these were selected from; stale once it is no longer the current one. */
+        val owner: CaptureRules
+            get() = this@CaptureRules
+
+        fun actionFor(operation: String?): CaptureAction {
+            if (operation == null) return resolve(null)
+            return byOperation[operation] ?: resolve(operation).also {
+                if (byOperation.size < MAX_OPERATIONS) byOperation[operation] = it
+            }
+        }
+
+        private fun resolve(operation: String?): CaptureAction {
+            for (rule in candidates) {
+                if (rule.operation == null || (operation != null && rule.operation.matches(operation))) {
+                    return rule.action
+                }
+            }
+            return defaultAction
+        }
+    }
+
+    class Rule internal constructor(
+        val repositoryId: Pattern?,
+        val operation: Pattern?,
+        val host: Pattern?,
+        val side: String?,
+        val action: CaptureAction
+    ) {
+        fun matchesTarget(side: String, repositoryIds: Array<String>?, host: String?): Boolean {
+            if (this.side != null && this.side != side) return false
+            if (this.host != null && (host == null || !this.host.matches(host))) return false
+            if (repositoryId != null && (repositoryIds == null || repositoryIds.none { repositoryId.matches(it) })) {
+                return false
+            }
+            return true
+        }
+    }
+
+    /**
+     * `*`-glob with `|` alternatives, compiled into exact, prefix, suffix and
+     * contains checks; anything else becomes a regex.
+     */
+    class Pattern internal constructor(source: String) {
+        private val exact: Set<String>
+        private val others: List<(String) -> Boolean>
+
+        init {
+            val exact = HashSet<String>()
+            val others = ArrayList<(String) -> Boolean>()
+            for (alternative in source.split('|').map { it.trim() }.filter { it.isNotEmpty() }) {
+                val stars = alternative.count { it == '*' }
+                val inner = alternative.trim('*')
+                when {
+                    stars == 0 -> exact.add(alternative)
+                    alternative == "*" -> others.add { true }
+                    !inner.contains('*') && alternative.startsWith('*') && alternative.endsWith('*') ->
+                        others.add { it.contains(inner) }
+                    stars == 1 && alternative.endsWith('*') -> others.add { it.startsWith(inner) }
+                    stars == 1 && alternative.startsWith('*') -> others.add { it.endsWith(inner) }
+                    else -> {
+                        val regex = Regex(alternative.split('*').joinToString(".*") { Regex.escape(it) })
+                        others.add { regex.matches(it) }
+                    }
+                }
+            }
+            this.exact = exact
+            this.others = others
+        }
+
+        fun matches(value: String): Boolean {
+            if (exact.contains(value)) return true
+            for (check in others) {
+                if (check(value)) return true
+            }
+            return false
+        }
+    }
+
+    companion object {
+        private val log: Logger = LoggerFactory.getLogger(CaptureRules::class.java)
+
+        private const val MAX_OPERATIONS = 1024
+
+        /** Calls per action, across reloads. */
+        private val counts = Array(CaptureAction.entries.size) { LongAdder() }
+
+        /**
+         * CORBA infrastructure calls that must not be intercepted: they would cause
+         * recursion or TRANSIENT errors during ORB/Naming bootstrap.
+         */
+        const val BUILTIN_RULES =
+            // CORBA built-in operations (called during narrow, _is_a, etc.)
+            "op=_is_a|_non_existent|_get_interface_def|_get_component|_get_domain_managers|_get_policy|_repository_id -> skip;" +
+                // COS Naming Service operations
+                "op=resolve|resolve_str|bind|rebind|unbind|bind_context|rebind_context|bind_new_context -> skip;" +
+                "op=list|to_name|to_string|destroy|new_context|to_url -> skip;" +
+                // ORB/POA internals
+                "op=resolve_initial_references -> skip;" +
+                // Naming contexts, POA internals, IOR table, interface repository, initial references
+                "repo=*CosNaming*|*NamingContext*|*PortableServer*|*IORTable*|*CORBA/Repository*|*InitialReferences* -> skip"
+
+        /** Count one call handled with [action] (once per call, at its first interception point). */
+        fun count(action: CaptureAction) {
+            counts[action.ordinal].increment()
+        }
+
+        fun counters(): Map<String, Long> {
+            val result: MutableMap<String, Long> = LinkedHashMap()
+            for (action in CaptureAction.entries) {
+                result[action.configName] = counts[action.ordinal].sum()
+            }
+            return result
+        }
+
+        fun compile(config: MonitorConfig): CaptureRules {
+            val rules = CaptureRules(
+                config.rules,
+                CaptureAction.of(config.captureRequestData, config.captureResponseData)
+            )
+            log.info("Capture rules compiled: {} rules", rules.ruleCount)
+            return rules
+        }
+
+        private fun parse(spec: String?, builtin: Boolean): List<Rule> {
+            val rules = ArrayList<Rule>()
+            if (spec.isNullOrBlank()) return rules
+            for (entry in spec.split(';')) {
+                val trimmed = entry.trim()
+                if (trimmed.isEmpty()) continue
+                val rule = parseRule(trimmed)
+                if (rule == null) {
+                    if (builtin) throw IllegalStateException("Malformed built-in rule '$trimmed'")
+                    log.warn("Ignoring malformed capture rule '{}'", trimmed)
+                    continue
+                }
+                rules.add(rule)
+            }
+            return rules
+        }
+
+        private fun parseRule(text: String): Rule? {
+            val arrow = text.lastIndexOf("->")
+            if (arrow < 0) return null
+            val action = CaptureAction.forName(text.substring(arrow + 2).trim()) ?: return null
+
+            var repositoryId: Pattern? = null
+            var operation: Pattern? = null
+            var host: Pattern? = null
+            var side: String? = null
+            for (condition in text.substring(0, arrow).split(',')) {
+                val trimmed = condition.trim()
+                if (trimmed.isEmpty()) continue
+                val eq = trimmed.indexOf('=')
+                if (eq <= 0) return null
+                val value = trimmed.substring(eq + 1).trim()
+                when (trimmed.substring(0, eq).trim().lowercase()) {
+                    "repo" -> repositoryId = Pattern(value)
+                    "op" -> operation = Pattern(value)
+                    "host" -> host = Pattern(value)
+                    "side" -> side = value.lowercase().takeIf { it == "client" || it == "server" } ?: return null
+                    else -> return null
+                }
+            }
+            return Rule(repositoryId, operation, host, side, action)
+        }
+    }
+}
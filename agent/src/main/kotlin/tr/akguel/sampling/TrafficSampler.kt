@@ -0,0 +1,168 @@
+package tr.akguel.sampling
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+import tr.akguel.api.TrafficEvent
+import tr.akguel.config.MonitorConfig
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.atomic.AtomicLong
+
+
+/**
+ * Decides which captured events are shipped as raw events.
+ *
+ * Rules, in order:
+ * 1. Tail: errors, exceptions and `timeout` (TRANSIENT/TIMEOUT) statuses and calls at or
+ *    above `monitor.sampling.tail.latency.ms` are always kept with weight 1.
+ * 2. Head: everything else is kept with the operation's probability
+ *    (`monitor.sampling.rates`, else `monitor.sampling.default.rate`). The decision is a
+ *    hash of the request ID, so the request and reply events of a call agree.
+ * 3. Rate limit: operations listed in `monitor.sampling.limits` are capped to
+ *    N events per second by a token bucket.
+ *
+ * Kept events carry `sample_weight` — how many calls each one stands for — so the backend
+ * can extrapolate counts. The rate-limit part of the weight uses the previous second's
+ * offered/admitted ratio and is therefore approximate under bursty load.
+ *
+ * Rule keys are an operation name (`ping`) or `Interface.operation` (`VehicleTracker.ping`);
+ * the qualified key wins.
+ */
+class TrafficSampler(config: MonitorConfig) {
+
+    private val defaultRate: Double = config.samplingDefaultRate.coerceIn(0.0, 1.0)
+    private val tailLatencyMs: Long = config.samplingTailLatencyMs
+    private val rates: Map<String, Double> = parseRules(config.samplingRates, "rate").mapValues { it.value.coerceIn(0.0, 1.0) }
+    private val limits: Map<String, Double> = parseRules(config.samplingLimits, "limit")
+    private val qualifiedKeys: Boolean = (rates.keys + limits.keys).any { it.contains('.') }
+    private val buckets = ConcurrentHashMap<String, TokenBucket>()
+
+    val tailKeptCount: AtomicLong = AtomicLong(0)
+    val sampledOutCount: AtomicLong = AtomicLong(0)
+    val rateLimitedCount: AtomicLong = AtomicLong(0)
+
+    init {
+        log.info("TrafficSampler: default rate={}, rates={}, limits={}/s, tail >= {} ms", defaultRate, rates, limits, tailLatencyMs)
+    }
+
+    /**
+     * Returns true if [event] should be shipped; sets its sample weight when it is.
+     */
+    fun sample(event: TrafficEvent): Boolean {
+        if (isTail(event)) {
+            tailKeptCount.incrementAndGet()
+            event.sampleWeight(1.0)
+            return true
+        }
+
+        val operation = event.operation
+        val qualified = if (qualifiedKeys && event.interfaceName != null) "${event.interfaceName}.$operation" else null
+
+        val rate = qualified?.let { rates[it] } ?: operation?.let { rates[it] } ?: defaultRate
+        if (rate < 1.0 && unitHash(event.requestId) >= rate) {
+            sampledOutCount.incrementAndGet()
+            return false
+        }
+        var weight = if (rate > 0.0) 1.0 / rate else 1.0
+
+        val limitKey = if (qualified != null && limits.containsKey(qualified)) qualified else operation
+        val limit = if (limitKey != null) limits[limitKey] else null
+        if (limitKey != null && limit != null) {
+            val bucket = buckets.computeIfAbsent(limitKey) { TokenBucket(limit) }
+            if (!bucket.tryAcquire()) {
+                rateLimitedCount.incrementAndGet()
+                return false
+            }
+            weight *= bucket.weight
+        }
+
+        event.sampleWeight(weight)
+        return true
+    }
+
+    private fun isTail(event: TrafficEvent): Boolean {
+        val status = event.status
+        if (status != null && status != "success") return true
+        val latency = event.latencyNanos
+        return latency != TrafficEvent.NOT_SET && latency >= tailLatencyMs * 1_000_000
+    }
+
+    fun counters(): Map<String, Long> {
+        return linkedMapOf(
+            "tail_kept" to tailKeptCount.get(),
+            "sampled_out" to sampledOutCount.get(),
+            "rate_limited" to rateLimitedCount.get()
+        )
+    }
+
+    /**
+     * Token bucket refilled at [perSecond] tokens per second, burst of one second.
+     * Also tracks offered/admitted per one-second window for the sample weight.
+     */
+    private class TokenBucket(private val perSecond: Double) {
+        private var tokens = perSecond
+        private var lastRefillNanos = System.nanoTime()
+        private var windowStartNanos = lastRefillNanos
+        private var offered = 0L
+        private var admitted = 0L
+
+        @Volatile
+        var weight: Double = 1.0
+            private set
+
+        @Synchronized
+        fun tryAcquire(): Boolean {
+            val now = System.nanoTime()
+            tokens = minOf(perSecond, tokens + (now - lastRefillNanos) * perSecond / NANOS_PER_SECOND)
+            lastRefillNanos = now
+
+            if (now - windowStartNanos >= NANOS_PER_SECOND) {
+                weight = if (admitted > 0) offered.toDouble() / admitted else 1.0
+                windowStartNanos = now
+                offered = 0
+                admitted = 0
+            }
+
+            offered++
+            if (tokens < 1.0) return false
+            tokens -= 1.0
+            admitted++
+            return true
+        }
+    }
+
+    companion object {
+        private val log: Logger = LoggerFactory.getLogger(TrafficSampler::class.java)
+
+        private const val NANOS_PER_SECOND = 1_000_000_000.0
+
+        /**
+         * Map a request ID to [0, 1); random if there is none.
+         */
+        internal fun unitHash(requestId: String?): Double {
+            if (requestId == null) return ThreadLocalRandom.current().nextDouble()
+            val mixed = requestId.hashCode() * -0x61c88647 // golden-ratio multiplier spreads similar IDs
+            return (mixed.toLong() and 0xFFFFFFFFL) / 4294967296.0
+        }
+
+        /**
+         * Parse `key:value, key:value`; malformed entries are logged and skipped.
+         */
+        private fun parseRules(spec: String?, what: String): Map<String, Double> {
+            val rules: MutableMap<String, Double> = LinkedHashMap()
+            if (spec.isNullOrBlank()) return rules
+            for (entry in spec.split(',')) {
+                val trimmed = entry.trim()
+                if (trimmed.isEmpty()) continue
+                val colon = trimmed.lastIndexOf(':')
+                val value = if (colon > 0) trimmed.substring(colon + 1).trim().toDoubleOrNull() else null
+                if (value == null || value < 0) {
+                    log.warn("Ignoring malformed sampling {} '{}'", what, trimmed)
+                    continue
+                }
+                rules[trimmed.substring(0, colon).trim()] = value
+            }
+            return rules
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package tr.akguel
+
+import tr.akguel.api.TrafficEvent
+import java.lang.management.ManagementFactory
+
+/**
+ * Small measurement harness for the performance tests.
+ *
+ * Harness tests are tagged [TAG] and left out of the normal build; run them
+ * with `mvn -pl agent test -Pharness`, adding `-Dharness.scale=N` to multiply
+ * the iteration counts for steadier numbers. Results are printed as one
+ * `[harness]` line per measurement; the tests only assert sanity bounds,
+ * never absolute timings.
+ */
+object Harness {
+    const val TAG = "harness"
+
+    val scale: Int = System.getProperty("harness.scale", "1").toInt()
+
+    private val threadMx = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+
+    /** True if the JVM counts allocated bytes per thread. */
+    val allocationCounted: Boolean
+        get() = threadMx?.isThreadAllocatedMemorySupported == true && threadMx.isThreadAllocatedMemoryEnabled
+
+    /** Bytes allocated by the current thread so far, or 0 if not counted. */
+    fun allocatedBytes(): Long {
+        return if (allocationCounted) threadMx!!.currentThreadAllocatedBytes else 0
+    }
+
+    /**
+     * Run [block] [warmup] times, then [rounds] times, and return the fastest round in nanos.
+     */
+    fun bestNanos(warmup: Int, rounds: Int, block: () -> Unit): Long {
+        repeat(warmup) { block() }
+        var best = Long.MAX_VALUE
+        repeat(rounds) {
+            val start = System.nanoTime()
+            block()
+            best = minOf(best, System.nanoTime() - start)
+        }
+        return best
+    }
+
+    /**
+     * Bytes the current thread allocates per call of [block], after [warmup] calls.
+     */
+    fun allocatedPerCall(warmup: Int, calls: Int, block: () -> Unit): Long {
+        repeat(warmup) { block() }
+        val before = allocatedBytes()
+        repeat(calls) { block() }
+        return (allocatedBytes() - before) / calls
+    }
+
+    fun report(name: String, vararg values: Pair<String, Any>) {
+        println("[harness] $name: " + values.joinToString(", ") { "${it.first}=${it.second}" })
+    }
+
+    /**
+     * [count] events of a VehicleTracker client: mostly `ping` and
+     * `getVehicleCount`, some `getVehicle`/`listVehicles` with payloads and
+     * an occasional `VehicleNotFound`.
+     */
+    fun vehicleTrackerTraffic(count: Int): List<TrafficEvent> {
+        return List(count) { i ->
+            val event = TrafficEvent()
+                .requestId(Integer.toHexString(0x1000 + i))
+                .interfaceName("VehicleTracker")
+                .repositoryId("IDL:FleetManagement/VehicleTracker:1.0")
+                .direction("span")
+                .status("success")
+                .sourceHost("10.20.0.15")
+                .targetHost("10.20.0.42")
+                .targetPort(40123)
+                .giopVersion("1.2")
+                .messageType("Reply")
+                .interceptorPoint("receive_reply")
+                .latencyNanos(250_000L + (i % 97) * 13_000L)
+                .requestSizeBytes(64 + i % 16)
+                .responseSizeBytes(96 + i % 32)
+            when (i % 10) {
+                0, 1, 2, 3 -> event.operation("ping").responseData(mapOf("return" to "pong"))
+                4, 5, 6 -> event.operation("getVehicleCount").responseData(mapOf("return" to 25))
+                7, 8 -> event.operation("getVehicle")
+                    .requestData(mapOf("params" to mapOf("arg0" to "V-${i % 25}")))
+                    .responseData(mapOf("return" to vehicle(i % 25)))
+                else -> if (i % 20 == 9) {
+                    event.operation("getVehicle")
+                        .status("exception")
+                        .exceptionType("USER_EXCEPTION")
+                        .errorMessage("CORBA::VehicleNotFound")
+                        .requestData(mapOf("params" to mapOf("arg0" to "V-99")))
+                } else {
+                    event.operation("listVehicles").responseData(mapOf("return" to List(5) { vehicle(it) }))
+                }
+            }
+        }
+    }
+
+    private fun vehicle(n: Int): Map<String, Any> {
+        return mapOf(
+            "vehicle_id" to "V-$n",
+            "driver_name" to "Driver $n",
+            "position" to mapOf(
+                "latitude" to 41.0 + n / 100.0,
+                "longitude" to 29.0 + n / 100.0,
+                "speed_kmh" to 42.5,
+                "heading" to 90
+            ),
+            "status" to "MOVING",
+            "fuel_level_pct" to 63.5,
+            "odometer_km" to 120_000 + n
+        )
+    }
+}
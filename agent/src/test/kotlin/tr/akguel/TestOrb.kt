@@ -0,0 +1,23 @@
+package tr.akguel
+
+import org.omg.CORBA.ORB
+import java.util.*
+
+/**
+ * A local JacORB ORB for tests that need `Any`s, TypeCodes or stringified references.
+ */
+object TestOrb {
+    val orb: ORB by lazy {
+        val props = Properties()
+        props.setProperty("org.omg.CORBA.ORBClass", "org.jacorb.orb.ORB")
+        props.setProperty("org.omg.CORBA.ORBSingletonClass", "org.jacorb.orb.ORBSingleton")
+        props.setProperty("jacorb.log.default.verbosity", "0")
+        ORB.init(arrayOf<String>(), props)
+    }
+
+    fun longAny(value: Int): org.omg.CORBA.Any {
+        val any = orb.create_any()
+        any.insert_long(value)
+        return any
+    }
+}
@@ -0,0 +1,42 @@
+package tr.akguel.api
+
+import com.google.gson.GsonBuilder
+import org.junit.jupiter.api.Assumptions.assumeTrue
+import org.junit.jupiter.api.Tag
+import tr.akguel.Harness
+import kotlin.test.Test
+import kotlin.test.assertTrue
+
+/**
+ * Bytes allocated per event by the streaming batch encoder, next to the
+ * former wrapper map → String → byte[] path.
+ */
+@Tag(Harness.TAG)
+class BatchEncoderHarnessTest {
+
+    private val gson = GsonBuilder().disableHtmlEscaping().serializeNulls().create()
+    private val batch = Harness.vehicleTrackerTraffic(50)
+
+    private fun formerEncoding(events: List<TrafficEvent>): ByteArray {
+        val wrapper = HashMap<String, Any>()
+        wrapper["events"] = events
+        return gson.toJson(wrapper).toByteArray(Charsets.UTF_8)
+    }
+
+    @Test
+    fun `streaming encoder allocates less per event than the string path`() {
+        assumeTrue(Harness.allocationCounted, "thread allocation counters not available")
+        val batches = 200 * Harness.scale
+        // Warm up with a separate encoder: its counters include the JIT-cold batches
+        val warmup = BatchEncoder(gson)
+        repeat(batches) { warmup.release(warmup.encodeBatch(batch)) }
+
+        val encoder = BatchEncoder(gson)
+        repeat(batches) { encoder.release(encoder.encodeBatch(batch)) }
+        val streaming = encoder.allocatedBytesPerEvent
+        val former = Harness.allocatedPerCall(batches, batches) { formerEncoding(batch) } / batch.size
+
+        Harness.report("batch encoding", "streaming B/event" to streaming, "string path B/event" to former)
+        assertTrue(streaming in 1 until former, "streaming $streaming B/event, string path $former B/event")
+    }
+}
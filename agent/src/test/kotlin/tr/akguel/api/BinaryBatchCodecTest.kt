@@ -0,0 +1,188 @@
+package tr.akguel.api
+
+import com.google.gson.GsonBuilder
+import java.io.ByteArrayOutputStream
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class BinaryBatchCodecTest {
+
+    private val gson = GsonBuilder().disableHtmlEscaping().serializeNulls().create()
+    private val codec = BinaryBatchCodec(gson)
+
+    private fun encode(batch: List<TrafficEvent>): ByteArray {
+        val out = ByteArrayOutputStream()
+        codec.encode(batch, out)
+        return out.toByteArray()
+    }
+
+    private fun roundTrip(batch: List<TrafficEvent>): List<TrafficEvent> {
+        return codec.decode(encode(batch))
+    }
+
+    private fun assertSameJson(expected: List<TrafficEvent>, actual: List<TrafficEvent>) {
+        assertEquals(expected.map { gson.toJson(it) }, actual.map { gson.toJson(it) })
+    }
+
+    private fun fullEvent(): TrafficEvent {
+        return TrafficEvent()
+            .requestId("42")
+            .operation("getPosition")
+            .interfaceName("VehicleTracker")
+            .repositoryId("IDL:FleetManagement/VehicleTracker:1.0")
+            .direction("span")
+            .status("exception")
+            .sourceHost("10.0.0.1")
+            .sourcePort(40123)
+            .targetHost("10.0.0.2")
+            .targetPort(2809)
+            .sourceServiceName("Dispatcher")
+            .targetServiceName("Tracker")
+            .requestData(mapOf("vehicleId" to "V-1"))
+            .responseData(listOf("a", "b"))
+            .errorMessage("CORBA::TRANSIENT")
+            .exceptionType("SYSTEM_EXCEPTION")
+            .latencyNanos(1_234_567)
+            .giopVersion("1.2")
+            .messageType("Reply")
+            .requestSizeBytes(96)
+            .responseSizeBytes(128)
+            .interceptorPoint("receive_exception")
+            .contextData(mutableMapOf("ctx_1" to mutableMapOf<String, Any>("context_id" to 1)))
+            .timestamp("2026-01-02T03:04:05.123456789Z")
+            .startedAt("2026-01-02T03:04:05.122Z")
+            .sampleWeight(4.0)
+    }
+
+    @Test
+    fun `all fields round-trip`() {
+        val batch = listOf(fullEvent())
+
+        assertSameJson(batch, roundTrip(batch))
+    }
+
+    @Test
+    fun `absent fields stay absent`() {
+        val batch = listOf(TrafficEvent().operation("ping").timestamp(null), TrafficEvent().requestId("only-id"))
+        val decoded = roundTrip(batch)
+
+        assertSameJson(batch, decoded)
+        assertNull(decoded[0].timestamp)
+        assertNull(decoded[0].targetPort)
+        assertNull(decoded[0].latencyMs)
+        assertNull(decoded[0].requestData)
+        assertNull(decoded[1].operation)
+    }
+
+    @Test
+    fun `dictionary strings occur once per batch`() {
+        val batch = List(100) { fullEvent().requestId("r$it") }
+        val encoded = String(encode(batch), Charsets.ISO_8859_1)
+
+        assertEquals(1, Regex("getPosition").findAll(encoded).count())
+        assertEquals(1, Regex("IDL:FleetManagement/VehicleTracker:1.0").findAll(encoded).count())
+        assertSameJson(batch, codec.decode(encoded.toByteArray(Charsets.ISO_8859_1)))
+    }
+
+    @Test
+    fun `varint boundaries round-trip`() {
+        val values = intArrayOf(0, 1, 127, 128, 16_383, 16_384, 2_097_151, 2_097_152, Int.MAX_VALUE, -2)
+        val batch = values.map { TrafficEvent().requestSizeBytes(it).targetPort(it) }
+        val decoded = roundTrip(batch)
+
+        assertEquals(values.toList(), decoded.map { it.requestSizeBytes })
+        assertEquals(values.toList(), decoded.map { it.targetPort })
+
+        // String lengths on both sides of a one-byte length prefix
+        val ids = listOf("x".repeat(127), "x".repeat(128), "ä".repeat(64))
+        assertEquals(ids, roundTrip(ids.map { TrafficEvent().requestId(it) }).map { it.requestId })
+    }
+
+    @Test
+    fun `JSON payload numbers keep their encoding`() {
+        val event = TrafficEvent()
+            .requestData(mapOf("count" to 3, "big" to 9_007_199_254_740_993L, "ratio" to 0.5, "neg" to -1))
+            .responseData(listOf(1, 2.25, Long.MAX_VALUE))
+
+        val decoded = roundTrip(listOf(event)).single()
+
+        assertEquals(gson.toJson(event.requestData), gson.toJson(decoded.requestData))
+        assertEquals(gson.toJson(event.responseData), gson.toJson(decoded.responseData))
+        assertTrue(gson.toJson(decoded.requestData).contains("\"count\":3,"))
+    }
+
+    @Test
+    fun `unsupported version is rejected`() {
+        val encoded = encode(listOf(fullEvent()))
+        encoded[3] = 2
+
+        val e = assertFailsWith<IllegalArgumentException> { codec.decode(encoded) }
+        assertTrue(e.message!!.contains("version"))
+        assertFailsWith<IllegalArgumentException> { codec.decode("{\"events\":[]}".toByteArray()) }
+    }
+
+    @Test
+    fun `unknown mask bits are skipped with the rest of the record`() {
+        val out = ByteArrayOutputStream()
+        out.write("CMB".toByteArray())
+        out.write(1)
+        writeVarint(out, 0) // dictionary
+        writeVarint(out, 2) // events
+
+        // request_id plus a field from a newer schema (bit 40) the decoder does not know
+        val record = ByteArrayOutputStream()
+        writeVarint(record, 1L or (1L shl 40))
+        writeVarint(record, 2)
+        record.write("r1".toByteArray())
+        record.write(byteArrayOf(7, 1, 2, 3, 4, 5, 6, 7))
+        writeVarint(out, record.size().toLong())
+        record.writeTo(out)
+
+        writeVarint(out, 3)
+        writeVarint(out, 1)
+        writeVarint(out, 1)
+        out.write('b'.code)
+
+        val decoded = codec.decode(out.toByteArray())
+
+        assertEquals(listOf("r1", "b"), decoded.map { it.requestId })
+    }
+
+    @Test
+    fun `truncated input is rejected`() {
+        val encoded = encode(listOf(fullEvent(), fullEvent().requestId("43")))
+
+        for (length in 0 until encoded.size) {
+            assertFailsWith<IllegalArgumentException>("prefix of $length bytes") { codec.decode(encoded, 0, length) }
+        }
+    }
+
+    @Test
+    fun `corrupt input only fails with IllegalArgumentException`() {
+        val encoded = encode(listOf(fullEvent(), fullEvent().requestId("43")))
+
+        for (i in encoded.indices) {
+            for (value in intArrayOf(0x00, 0x7F, 0x80, 0xFF)) {
+                val corrupt = encoded.copyOf()
+                corrupt[i] = value.toByte()
+                try {
+                    codec.decode(corrupt)
+                } catch (e: IllegalArgumentException) {
+                    // expected for most positions
+                }
+            }
+        }
+    }
+
+    private fun writeVarint(out: ByteArrayOutputStream, value: Long) {
+        var v = value
+        while ((v and 0x7FL.inv()) != 0L) {
+            out.write(((v and 0x7F) or 0x80).toInt())
+            v = v ushr 7
+        }
+        out.write(v.toInt())
+    }
+}
@@ -0,0 +1,57 @@
+package tr.akguel.api
+
+import com.google.gson.GsonBuilder
+import org.junit.jupiter.api.Tag
+import tr.akguel.Harness
+import java.util.zip.GZIPInputStream
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertTrue
+
+/**
+ * Size on the wire and CPU cost of gzip request bodies for JSON and binary
+ * batches of VehicleTracker traffic.
+ */
+@Tag(Harness.TAG)
+class CompressionHarnessTest {
+
+    private val gson = GsonBuilder().disableHtmlEscaping().serializeNulls().create()
+    private val encoder = BatchEncoder(gson)
+
+    private fun measure(format: String, events: Int, encode: (List<TrafficEvent>) -> BatchEncoder.PooledBuffer): Double {
+        val buffer = encode(Harness.vehicleTrackerTraffic(events))
+        try {
+            val raw = buffer.toByteArray()
+            val gzipped = HttpTransport.gzipBody(raw, raw.size)
+            assertContentEquals(raw, GZIPInputStream(gzipped.inputStream()).readBytes())
+
+            val rounds = maxOf(2000 / events, 5) * Harness.scale
+            val nanos = Harness.bestNanos(rounds, rounds) { HttpTransport.gzipBody(raw, raw.size) }
+            val ratio = gzipped.size.toDouble() / raw.size
+            Harness.report(
+                "gzip $format x$events",
+                "raw B" to raw.size,
+                "gzip B" to gzipped.size,
+                "ratio" to String.format("%.3f", ratio),
+                "us/batch" to nanos / 1000,
+                "ns/KB" to nanos * 1024 / raw.size
+            )
+            return ratio
+        } finally {
+            encoder.release(buffer)
+        }
+    }
+
+    @Test
+    fun `gzip ratio and cost per batch size`() {
+        for (events in intArrayOf(1, 10, 50, 500)) {
+            val json = measure("json", events, encoder::encodeBatch)
+            val binary = measure("binary", events, encoder::encodeBinaryBatch)
+            if (events >= 50) {
+                // Full batches of repetitive traffic must compress well
+                assertTrue(json < 0.25, "json x$events ratio $json")
+                assertTrue(binary < 0.6, "binary x$events ratio $binary")
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package tr.akguel.api
+
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
+import java.nio.file.Path
+import kotlin.io.path.name
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class EventSpoolTest {
+
+    @TempDir
+    lateinit var dir: Path
+
+    private class Replayed(val kind: Byte, val payload: String, val events: Int)
+
+    private fun spool(maxBytes: Long = 64L * 1024 * 1024, maxAgeMillis: Long = 60_000) = EventSpool(dir, maxBytes, maxAgeMillis)
+
+    private fun EventSpool.add(payload: String, events: Int, kind: Byte = EventSpool.KIND_BATCH): Boolean {
+        val bytes = payload.toByteArray()
+        return append(kind, bytes, bytes.size, events)
+    }
+
+    /** Replay accepting the first [accept] records. */
+    private fun EventSpool.drain(accept: Int = Int.MAX_VALUE): List<Replayed> {
+        val replayed = ArrayList<Replayed>()
+        replay { kind, payload, events ->
+            if (replayed.size == accept) return@replay false
+            replayed.add(Replayed(kind, String(payload), events))
+            true
+        }
+        return replayed
+    }
+
+    private fun segmentFiles(): List<Path> = Files.list(dir).use { files -> files.sorted().toList() }
+
+    @Test
+    fun `replay is oldest-first and stops at the first refused record`() {
+        val spool = spool()
+        spool.add("[1]", 1)
+        spool.add("[2,3]", 2, EventSpool.KIND_BINARY_BATCH)
+        spool.add("{}", 1, EventSpool.KIND_SUMMARY)
+
+        val first = spool.drain(accept = 1)
+        assertEquals(listOf("[1]"), first.map { it.payload })
+        assertEquals(3, spool.pendingEvents)
+
+        val rest = spool.drain()
+        assertEquals(listOf("[2,3]", "{}"), rest.map { it.payload })
+        assertEquals(listOf(EventSpool.KIND_BINARY_BATCH, EventSpool.KIND_SUMMARY), rest.map { it.kind })
+        assertEquals(listOf(2, 1), rest.map { it.events })
+        assertTrue(spool.isEmpty)
+        assertEquals(4, spool.spooledEvents.get())
+        assertEquals(4, spool.replayedEvents.get())
+        assertTrue(spool.drain().isEmpty())
+    }
+
+    @Test
+    fun `acknowledged records set the ACK bit in the segment file`() {
+        val spool = spool()
+        spool.add("[1]", 1)
+        spool.add("[2]", 1)
+
+        spool.drain(accept = 1)
+
+        val bytes = Files.readAllBytes(segmentFiles().single())
+        assertEquals(EventSpool.KIND_BATCH.toInt() or 0x80, bytes[4].toInt() and 0xFF)
+        // Second record: header (17 bytes) + "[1]"
+        assertEquals(EventSpool.KIND_BATCH.toInt(), bytes[17 + 3 + 4].toInt())
+    }
+
+    @Test
+    fun `un-acknowledged records are recovered after reopening`() {
+        val before = spool()
+        before.add("[1]", 1)
+        before.add("[2]", 1)
+        before.add("[3,4]", 2)
+        before.drain(accept = 1)
+
+        val after = spool()
+
+        assertEquals(3, after.pendingEvents)
+        assertEquals(listOf("[2]", "[3,4]"), after.drain().map { it.payload })
+        // A recovered segment is sealed and deleted once fully acknowledged
+        assertTrue(segmentFiles().isEmpty())
+    }
+
+    @Test
+    fun `appends after recovery go to a new segment and replay after the old ones`() {
+        val before = spool()
+        before.add("[old]", 1)
+
+        val after = spool()
+        after.add("[new]", 1)
+
+        assertEquals(2, segmentFiles().size)
+        assertEquals(listOf("[old]", "[new]"), after.drain().map { it.payload })
+        // The current segment stays for further appends
+        assertEquals(1, segmentFiles().size)
+    }
+
+    @Test
+    fun `segments without pending records are deleted on reopen`() {
+        val before = spool()
+        before.add("[1]", 1)
+        before.drain()
+
+        val after = spool()
+
+        assertTrue(after.isEmpty)
+        assertTrue(segmentFiles().isEmpty())
+    }
+
+    @Test
+    fun `size cap evicts the oldest segments`() {
+        val segmentBytes = 4L * 1024 * 1024
+        val spool = spool(maxBytes = 2 * segmentBytes)
+        // Each payload needs a segment of its own
+        val large = "x".repeat(3 * 1024 * 1024)
+        spool.add(large, 10)
+        spool.add(large, 20)
+        spool.add(large, 30)
+
+        assertEquals(10, spool.evictedEvents.get())
+        assertEquals(50, spool.pendingEvents)
+        assertTrue(spool.sizeBytes <= 2 * segmentBytes)
+        assertEquals(2, segmentFiles().size)
+        assertFalse(segmentFiles().any { it.name.endsWith("0000000000000000.spool") })
+        assertEquals(listOf(20, 30), spool.drain().map { it.events })
+    }
+
+    @Test
+    fun `records older than the age cap are discarded instead of replayed`() {
+        val spool = spool(maxAgeMillis = 50)
+        spool.add("[1]", 1)
+        spool.add("[2,3]", 2)
+        Thread.sleep(120)
+        spool.add("[4]", 1)
+
+        assertEquals(listOf("[4]"), spool.drain().map { it.payload })
+        assertEquals(3, spool.expiredEvents.get())
+        assertEquals(1, spool.replayedEvents.get())
+    }
+
+    @Test
+    fun `expired recovered segments are dropped as a whole`() {
+        spool().add("[1]", 1)
+        Thread.sleep(120)
+
+        val after = spool(maxAgeMillis = 50)
+
+        assertTrue(after.drain().isEmpty())
+        assertEquals(1, after.expiredEvents.get())
+        assertTrue(segmentFiles().isEmpty())
+    }
+}
@@ -0,0 +1,76 @@
+package tr.akguel.api
+
+import com.sun.net.httpserver.HttpServer
+import tr.akguel.config.MonitorConfig
+import java.net.InetSocketAddress
+import java.util.concurrent.TimeUnit
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class HttpTransportTest {
+
+    private val server = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0)
+    private val encodings = ArrayList<String?>()
+    private var transport: HttpTransport? = null
+
+    /** A compressible batch-sized body. */
+    private val body = "{\"operation\":\"getVehicleCount\",\"status\":\"success\"}".repeat(40).toByteArray()
+
+    private fun start(acceptGzip: Boolean): HttpTransport {
+        server.createContext("/api/traffic/batch") { exchange ->
+            val encoding = exchange.requestHeaders.getFirst("Content-Encoding")
+            synchronized(encodings) { encodings.add(encoding) }
+            exchange.requestBody.readAllBytes()
+            exchange.sendResponseHeaders(if (encoding == "gzip" && !acceptGzip) 415 else 200, -1)
+            exchange.close()
+        }
+        server.start()
+        MonitorConfig.setOverride("monitor.api.url", "http://127.0.0.1:${server.address.port}/api")
+        MonitorConfig.setOverride("monitor.http.compression", "gzip")
+        val config = MonitorConfig.setOverride("monitor.http.compression.min.bytes", "256")
+        return HttpTransport(config, null).also { transport = it }
+    }
+
+    private fun post(transport: HttpTransport): Int {
+        assertTrue(transport.tryReserve(1000))
+        try {
+            return transport.postAsync(MonitorConfig.instance!!.batchEndpoint, body).get(5, TimeUnit.SECONDS)
+        } finally {
+            transport.release()
+        }
+    }
+
+    @AfterTest
+    fun stop() {
+        transport?.shutdown(1000)
+        server.stop(0)
+        MonitorConfig.clearOverrides()
+    }
+
+    @Test
+    fun `accepted gzip bodies count their compressed size`() {
+        val transport = start(acceptGzip = true)
+
+        assertEquals(200, post(transport))
+
+        assertEquals(listOf<String?>("gzip"), encodings)
+        assertEquals(body.size.toLong(), transport.rawBytes.get())
+        assertTrue(transport.compressionRatio < 0.5, "ratio ${transport.compressionRatio}")
+    }
+
+    @Test
+    fun `a 415 fallback counts only the plain attempt`() {
+        val transport = start(acceptGzip = false)
+
+        assertEquals(200, post(transport))
+        // Compression stays off for the session
+        assertEquals(200, post(transport))
+
+        assertEquals(listOf("gzip", null, null), encodings)
+        assertEquals(2L * body.size, transport.rawBytes.get())
+        assertEquals(2L * body.size, transport.wireBytes.get())
+        assertEquals(1.0, transport.compressionRatio)
+    }
+}
@@ -0,0 +1,84 @@
+package tr.akguel.api
+
+import org.junit.jupiter.api.Tag
+import tr.akguel.Harness
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import kotlin.test.Test
+import kotlin.test.assertTrue
+import kotlin.test.fail
+
+/**
+ * Hand-off throughput with 1–64 producer threads and one draining consumer,
+ * for the [MpscRingBuffer] and the former [LinkedBlockingQueue]. Also checks
+ * that every element arrives once and in order per producer.
+ */
+@Tag(Harness.TAG)
+class MpscRingBufferHarnessTest {
+
+    private class Queue(val offer: (Long) -> Boolean, val drain: (MutableList<Long>) -> Int)
+
+    /**
+     * Elements encode producer and sequence number; returns the elapsed nanos.
+     */
+    private fun run(producers: Int, perProducer: Int, queue: Queue): Long {
+        val start = CountDownLatch(1)
+        val threads = List(producers) { p ->
+            Thread {
+                start.await()
+                for (i in 0 until perProducer) {
+                    val element = (p.toLong() shl 32) or i.toLong()
+                    while (!queue.offer(element)) Thread.onSpinWait()
+                }
+            }.apply { start() }
+        }
+
+        val next = IntArray(producers)
+        val batch = ArrayList<Long>(BATCH)
+        var received = 0L
+        val total = producers.toLong() * perProducer
+        val begin = System.nanoTime()
+        start.countDown()
+        while (received < total) {
+            batch.clear()
+            if (queue.drain(batch) == 0) {
+                Thread.onSpinWait()
+                continue
+            }
+            for (element in batch) {
+                val p = (element ushr 32).toInt()
+                if (element.toInt() != next[p]) fail("producer $p: expected ${next[p]}, got ${element.toInt()}")
+                next[p]++
+            }
+            received += batch.size
+        }
+        val elapsed = System.nanoTime() - begin
+        threads.forEach { it.join() }
+        assertTrue(next.all { it == perProducer })
+        return elapsed
+    }
+
+    @Test
+    fun `contention from 1 to 64 producers`() {
+        val total = 100_000 * Harness.scale
+        for (producers in intArrayOf(1, 2, 4, 8, 16, 32, 64)) {
+            val perProducer = total / producers
+            val ring = MpscRingBuffer<Long>(CAPACITY)
+            val ringNanos = run(producers, perProducer, Queue(ring::offer) { ring.drainTo(it, BATCH) })
+            val linked = LinkedBlockingQueue<Long>(CAPACITY)
+            val linkedNanos = run(producers, perProducer, Queue(linked::offer) { linked.drainTo(it, BATCH) })
+
+            val elements = producers.toLong() * perProducer
+            Harness.report(
+                "hand-off x$producers producers",
+                "ring Mops/s" to String.format("%.2f", elements * 1000.0 / ringNanos),
+                "linked Mops/s" to String.format("%.2f", elements * 1000.0 / linkedNanos)
+            )
+        }
+    }
+
+    companion object {
+        private const val CAPACITY = 10_000
+        private const val BATCH = 50
+    }
+}
@@ -0,0 +1,70 @@
+package tr.akguel.api
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class MpscRingBufferTest {
+
+    @Test
+    fun `capacity is rounded up to a power of two`() {
+        assertEquals(2, MpscRingBuffer<Int>(1).capacity)
+        assertEquals(2, MpscRingBuffer<Int>(2).capacity)
+        assertEquals(4, MpscRingBuffer<Int>(3).capacity)
+        assertEquals(4, MpscRingBuffer<Int>(4).capacity)
+        assertEquals(1024, MpscRingBuffer<Int>(1000).capacity)
+        assertEquals(16384, MpscRingBuffer<Int>(10_000).capacity)
+    }
+
+    @Test
+    fun `empty buffer polls nothing`() {
+        val ring = MpscRingBuffer<String>(4)
+
+        assertTrue(ring.isEmpty())
+        assertEquals(0, ring.size)
+        assertNull(ring.poll())
+        assertEquals(0, ring.drainTo(ArrayList(), 10))
+    }
+
+    @Test
+    fun `full buffer refuses offers until the consumer frees a slot`() {
+        val ring = MpscRingBuffer<Int>(4)
+        for (i in 0 until 4) assertTrue(ring.offer(i))
+
+        assertFalse(ring.offer(4))
+        assertEquals(4, ring.size)
+
+        assertEquals(0, ring.poll())
+        assertTrue(ring.offer(4))
+        assertFalse(ring.offer(5))
+    }
+
+    @Test
+    fun `elements keep their order over many laps`() {
+        val ring = MpscRingBuffer<Int>(8)
+        val drained = ArrayList<Int>()
+        var next = 0
+        // Uneven offer and drain sizes move head and tail across the wrap-around at different points
+        repeat(1_000) { round ->
+            repeat(round % 7 + 1) { if (ring.offer(next)) next++ }
+            ring.drainTo(drained, round % 5 + 1)
+        }
+        ring.drainTo(drained, Int.MAX_VALUE)
+
+        assertEquals(List(next) { it }, drained)
+        assertTrue(ring.isEmpty())
+    }
+
+    @Test
+    fun `drainTo stops at maxElements`() {
+        val ring = MpscRingBuffer<Int>(8)
+        for (i in 0 until 6) ring.offer(i)
+        val target = ArrayList<Int>()
+
+        assertEquals(4, ring.drainTo(target, 4))
+        assertEquals(listOf(0, 1, 2, 3), target)
+        assertEquals(2, ring.size)
+    }
+}
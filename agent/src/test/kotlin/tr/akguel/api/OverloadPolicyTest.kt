@@ -0,0 +1,98 @@
+package tr.akguel.api
+
+import org.junit.jupiter.api.Assertions.assertTimeoutPreemptively
+import org.junit.jupiter.api.function.ThrowingSupplier
+import java.time.Duration
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class OverloadPolicyTest {
+
+    private val overflowed = ArrayList<TrafficEvent>()
+
+    private fun event(operation: String, status: String = "success"): TrafficEvent {
+        return TrafficEvent().operation(operation).status(status)
+    }
+
+    private fun queue(capacity: Int, budget: MemoryBudget): BudgetedEventQueue {
+        return BudgetedEventQueue(capacity, budget) { overflowed.add(it) }
+    }
+
+    @Test
+    fun `budget held by an in-flight batch does not spin on an empty queue`() {
+        for (name in listOf("drop-newest", "drop-oldest", "priority", "sample")) {
+            val budget = MemoryBudget(64 * 1024)
+            // An encoded batch in flight holds the whole budget
+            budget.forceReserve(budget.limitBytes)
+            val queue = queue(16, budget)
+            val policy = OverloadPolicy.named(name, 1000, 100)
+            val routine = event("ping")
+            val priority = event("ping", "error")
+
+            val admitted = assertTimeoutPreemptively(Duration.ofSeconds(2), ThrowingSupplier {
+                policy.admit(routine, queue) || policy.admit(priority, queue)
+            })
+
+            assertFalse(admitted, name)
+            assertEquals(0, queue.size, name)
+            assertTrue(policy.counters().values.sum() >= 2, "$name counts the lost events")
+        }
+        assertEquals(8, overflowed.size)
+    }
+
+    @Test
+    fun `event larger than the whole budget is rejected`() {
+        val budget = MemoryBudget(16)
+        val queue = queue(16, budget)
+        val policy = OverloadPolicy.named("drop-oldest", 1000, 100)
+
+        val admitted = assertTimeoutPreemptively(Duration.ofSeconds(2), ThrowingSupplier { policy.admit(event("huge"), queue) })
+
+        assertFalse(admitted)
+        assertEquals(1L, policy.counters()["drop-oldest.rejected"])
+        assertEquals(0L, budget.usedBytes)
+    }
+
+    @Test
+    fun `drop-oldest evicts only when out of slots`() {
+        val budget = MemoryBudget(1L shl 20)
+        val queue = queue(2, budget)
+        val policy = OverloadPolicy.named("drop-oldest", 1000, 100)
+        val first = event("first")
+
+        assertTrue(policy.admit(first, queue))
+        assertTrue(policy.admit(event("second"), queue))
+        assertTrue(policy.admit(event("third"), queue))
+
+        assertEquals(2, queue.size)
+        assertSame(first, overflowed.single())
+        assertEquals(1L, policy.counters()["drop-oldest.evicted"])
+        val drained = ArrayList<TrafficEvent>()
+        queue.drainTo(drained, 10)
+        assertEquals(listOf("second", "third"), drained.map { it.operation })
+        // Drained events stay reserved until their batch is finished
+        assertEquals(drained.sumOf { it.estimatedBytes().toLong() }, budget.usedBytes)
+        assertEquals(0L, queue.queuedBytes.get())
+    }
+
+    @Test
+    fun `priority keeps the reserve for errors`() {
+        val budget = MemoryBudget(1L shl 20)
+        val queue = queue(16, budget)
+        val policy = OverloadPolicy.named("priority", 1000, 100)
+
+        var routine = 0
+        while (policy.admit(event("ping"), queue)) routine++
+
+        // Routine events stop below 90 % of the 16 slots
+        assertEquals(15, routine)
+        assertTrue(policy.admit(event("fail", "error"), queue))
+        assertTrue(policy.admit(event("fail", "error"), queue))
+        assertEquals(16, queue.size)
+        assertEquals(1L, policy.counters()["priority.evicted"])
+        assertEquals(1L, policy.counters()["priority.rejected_routine"])
+    }
+}
@@ -0,0 +1,88 @@
+package tr.akguel.api
+
+import com.google.gson.GsonBuilder
+import org.junit.jupiter.api.Assumptions.assumeTrue
+import org.junit.jupiter.api.Tag
+import tr.akguel.Harness
+import java.time.Instant
+import kotlin.test.Test
+import kotlin.test.assertTrue
+
+/**
+ * Bytes allocated on the ORB thread per captured event, next to what the
+ * exporter thread allocates to format it ([BatchEncoder.allocatedBytesPerEvent]).
+ */
+@Tag(Harness.TAG)
+class TrafficEventAllocationHarnessTest {
+
+    /** Captured events escape, as they do into the recorder's queue. */
+    private val sink = arrayOfNulls<TrafficEvent>(SINK_SIZE)
+    private var next = 0
+
+    private fun keep(event: TrafficEvent) {
+        sink[next] = event
+        next = (next + 1) and (SINK_SIZE - 1)
+    }
+
+    /** The fields the client interceptor fills in `send_request`. */
+    private fun sendRequest(): TrafficEvent {
+        return TrafficEvent()
+            .requestId("1f")
+            .operation("getVehicle")
+            .interceptorPoint("send_request")
+            .sourceHost("10.20.0.15")
+            .giopVersion("1.2")
+            .repositoryId("IDL:FleetManagement/VehicleTracker:1.0")
+            .interfaceName("VehicleTracker")
+            .targetHost("10.20.0.42")
+            .targetPort(40123)
+            .direction("request")
+            .status("success")
+            .messageType("Request")
+            .requestSizeBytes(72)
+    }
+
+    /** `receive_reply` without span mode: a separate reply event with latency. */
+    private fun receiveReply(): TrafficEvent {
+        return sendRequest()
+            .interceptorPoint("receive_reply")
+            .direction("reply")
+            .latencyNanos(412_345)
+            .messageType("Reply")
+    }
+
+    @Test
+    fun `capture allocates less than formatting on the exporter thread`() {
+        assumeTrue(Harness.allocationCounted, "thread allocation counters not available")
+        val calls = 100_000 * Harness.scale
+
+        val request = Harness.allocatedPerCall(calls, calls) { keep(sendRequest()) }
+        val reply = Harness.allocatedPerCall(calls, calls) { keep(receiveReply()) }
+        val span = Harness.allocatedPerCall(calls, calls) { keep(sendRequest().toSpan("receive_reply").latencyNanos(412_345)) }
+        // What every capture formatted on the ORB thread before timestamps were deferred
+        val isoTimestamp = Harness.allocatedPerCall(calls, calls) { Instant.now().toString().length }
+
+        val gson = GsonBuilder().disableHtmlEscaping().serializeNulls().create()
+        val batch = List(50) { receiveReply() }
+        val warmup = BatchEncoder(gson)
+        repeat(200 * Harness.scale) { warmup.release(warmup.encodeBatch(batch)) }
+        val encoder = BatchEncoder(gson)
+        repeat(200 * Harness.scale) { encoder.release(encoder.encodeBatch(batch)) }
+        val encode = encoder.allocatedBytesPerEvent
+
+        Harness.report(
+            "capture allocation",
+            "send_request B" to request,
+            "receive_reply B" to reply,
+            "span B" to span,
+            "ISO timestamp B" to isoTimestamp,
+            "exporter encode B/event" to encode
+        )
+        assertTrue(request < encode, "send_request $request B, encode $encode B/event")
+        assertTrue(reply < encode, "receive_reply $reply B, encode $encode B/event")
+    }
+
+    companion object {
+        private const val SINK_SIZE = 1024
+    }
+}
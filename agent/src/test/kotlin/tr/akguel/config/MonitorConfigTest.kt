@@ -0,0 +1,66 @@
+package tr.akguel.config
+
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertSame
+import kotlin.test.assertTrue
+
+class MonitorConfigTest {
+
+    @AfterTest
+    fun restore() {
+        MonitorConfig.clearOverrides()
+    }
+
+    @Test
+    fun `valid override is applied and swapped in`() {
+        val next = MonitorConfig.setOverride("monitor.batch.size", "7")
+
+        assertSame(next, MonitorConfig.instance)
+        assertEquals(7, next.batchSize)
+        assertEquals(mapOf("monitor.batch.size" to "7"), MonitorConfig.overrides())
+    }
+
+    @Test
+    fun `unparseable override is rejected and not kept`() {
+        val before = MonitorConfig.instance
+
+        assertFailsWith<IllegalArgumentException> { MonitorConfig.setOverride("monitor.batch.size", "abc") }
+
+        assertSame(before, MonitorConfig.instance)
+        assertTrue(MonitorConfig.overrides().isEmpty())
+        // Later reloads are not blocked by it
+        MonitorConfig.reload()
+    }
+
+    @Test
+    fun `out-of-range overrides are rejected`() {
+        MonitorConfig.setOverride("monitor.batch.size", "9")
+        val before = MonitorConfig.instance
+
+        for ((key, value) in listOf(
+            "monitor.batch.size" to "0",
+            "monitor.flush.interval.ms" to "-1",
+            "monitor.sampling.default.rate" to "1.5",
+            "monitor.sampling.rates" to "ping:2",
+            "monitor.sampling.limits" to "ping:fast"
+        )) {
+            assertFailsWith<IllegalArgumentException>("$key=$value") { MonitorConfig.setOverride(key, value) }
+        }
+
+        assertSame(before, MonitorConfig.instance)
+        assertEquals(mapOf("monitor.batch.size" to "9"), MonitorConfig.overrides())
+    }
+
+    @Test
+    fun `each snapshot compiles its own capture rules`() {
+        val before = MonitorConfig.instance!!
+
+        val next = MonitorConfig.setOverride("monitor.rules", "op=ping -> skip")
+
+        assertTrue(before.captureRules !== next.captureRules)
+        assertEquals(before.captureRules.ruleCount + 1, next.captureRules.ruleCount)
+    }
+}
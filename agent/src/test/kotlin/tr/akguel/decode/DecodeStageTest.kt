@@ -0,0 +1,83 @@
+package tr.akguel.decode
+
+import tr.akguel.TestOrb
+import tr.akguel.api.MemoryBudget
+import tr.akguel.api.TrafficEvent
+import tr.akguel.config.MonitorConfig
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.TimeUnit
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertTrue
+
+class DecodeStageTest {
+
+    private val config = MonitorConfig.instance!!
+    private val shipped = ArrayBlockingQueue<Pair<TrafficEvent, String>>(16)
+
+    private fun stage(budget: MemoryBudget): DecodeStage {
+        return DecodeStage(config, budget) { shipped.add(it to Thread.currentThread().name) }
+    }
+
+    private fun captured(requestSize: Int): TrafficEvent {
+        return TrafficEvent()
+            .operation("getVehicle")
+            .requestSizeBytes(requestSize)
+            .requestData(CapturedPayload.arguments("getVehicle", arrayOf(TestOrb.longAny(42))))
+    }
+
+    @Test
+    fun `payloads are decoded on the decode thread`() {
+        val budget = MemoryBudget(1L shl 20)
+        val stage = stage(budget)
+        try {
+            stage.submit(captured(128))
+
+            val (event, thread) = assertNotNull(shipped.poll(5, TimeUnit.SECONDS))
+            assertEquals("corba-monitor-decode", thread)
+            @Suppress("UNCHECKED_CAST")
+            val params = (event.requestData as Map<String, Any>)["params"] as Map<String, Any>
+            assertEquals(42, params["arg0"])
+            assertEquals(0L, budget.usedBytes)
+            assertEquals(1L, stage.decodedCount.get())
+        } finally {
+            stage.shutdown()
+        }
+    }
+
+    @Test
+    fun `payload beyond the memory budget is dropped, not decoded inline`() {
+        val budget = MemoryBudget(1024)
+        val stage = stage(budget)
+        try {
+            stage.submit(captured(4096))
+
+            // Shipped right away, without the payload
+            val (event, thread) = assertNotNull(shipped.poll())
+            assertEquals(Thread.currentThread().name, thread)
+            @Suppress("UNCHECKED_CAST")
+            val data = event.requestData as Map<String, Any>
+            assertTrue((data["_note"] as String).contains("memory budget"))
+            assertEquals(1L, stage.overBudgetCount.get())
+            assertEquals(0L, stage.decodedCount.get())
+            assertEquals(0L, budget.usedBytes)
+        } finally {
+            stage.shutdown()
+        }
+    }
+
+    @Test
+    fun `refused event gives its reservation back`() {
+        val budget = MemoryBudget(1L shl 20)
+        val stage = stage(budget)
+        stage.shutdown()
+        // Not running: the reservation is given back when the event is refused
+        stage.submit(captured(2048))
+
+        assertNotNull(shipped.poll())
+        assertEquals(1L, stage.overflowCount.get())
+        assertEquals(0L, budget.usedBytes)
+        assertTrue(budget.peakBytes >= 2048)
+    }
+}
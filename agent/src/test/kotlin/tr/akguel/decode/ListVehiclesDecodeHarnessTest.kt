@@ -0,0 +1,98 @@
+package tr.akguel.decode
+
+import org.junit.jupiter.api.Tag
+import org.omg.CORBA.Any
+import org.omg.CORBA.StructMember
+import org.omg.CORBA.TCKind
+import org.omg.CORBA.TypeCode
+import tr.akguel.Harness
+import tr.akguel.TestOrb
+import kotlin.test.Test
+import kotlin.test.assertEquals
+
+/**
+ * Decode time of `listVehicles` results (`FleetManagement::VehicleInfoList`)
+ * with 10, 1,000 and 100,000 elements through the compiled TypeCode plans.
+ */
+@Tag(Harness.TAG)
+class ListVehiclesDecodeHarnessTest {
+
+    private val orb = TestOrb.orb
+
+    private fun primitive(kind: TCKind): TypeCode = orb.get_primitive_tc(kind)
+
+    private val vehicleInfoList: TypeCode by lazy {
+        val position = orb.create_struct_tc(
+            "IDL:FleetManagement/GeoPosition:1.0", "GeoPosition", arrayOf(
+                StructMember("latitude", primitive(TCKind.tk_double), null),
+                StructMember("longitude", primitive(TCKind.tk_double), null),
+                StructMember("speed_kmh", primitive(TCKind.tk_float), null),
+                StructMember("heading", primitive(TCKind.tk_short), null)
+            )
+        )
+        val status = orb.create_enum_tc(
+            "IDL:FleetManagement/VehicleStatus:1.0", "VehicleStatus",
+            arrayOf("MOVING", "IDLE", "PARKED", "MAINTENANCE")
+        )
+        val vehicle = orb.create_struct_tc(
+            "IDL:FleetManagement/VehicleInfo:1.0", "VehicleInfo", arrayOf(
+                StructMember("vehicle_id", orb.create_string_tc(0), null),
+                StructMember("driver_name", orb.create_string_tc(0), null),
+                StructMember("position", position, null),
+                StructMember("status", status, null),
+                StructMember("fuel_level_pct", primitive(TCKind.tk_float), null),
+                StructMember("odometer_km", primitive(TCKind.tk_ulong), null)
+            )
+        )
+        orb.create_alias_tc("IDL:FleetManagement/VehicleInfoList:1.0", "VehicleInfoList", orb.create_sequence_tc(0, vehicle))
+    }
+
+    /** A `listVehicles` result of [count] vehicles, as the ORB hands it to the interceptor. */
+    private fun listVehicles(count: Int): Any {
+        val out = orb.create_output_stream()
+        out.write_ulong(count)
+        for (i in 0 until count) {
+            out.write_string("V-$i")
+            out.write_string("Driver $i")
+            out.write_double(41.0 + i * 1e-5)
+            out.write_double(29.0 + i * 1e-5)
+            out.write_float(42.5f)
+            out.write_short((i % 360).toShort())
+            out.write_long(i % 4)
+            out.write_float(63.5f)
+            out.write_ulong(120_000 + i)
+        }
+        val any = orb.create_any()
+        any.read_value(out.create_input_stream(), vehicleInfoList)
+        return any
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun decode(any: Any): List<Map<String, kotlin.Any?>> {
+        return AnyDecoder.decode(any, DecodeBudget(Long.MAX_VALUE)) as List<Map<String, kotlin.Any?>>
+    }
+
+    @Test
+    fun `listVehicles decode time by result size`() {
+        for (count in intArrayOf(10, 1_000, 100_000)) {
+            val any = listVehicles(count)
+
+            val first = System.nanoTime()
+            val vehicles = decode(any)
+            val firstNanos = System.nanoTime() - first
+            assertEquals(count, vehicles.size)
+            assertEquals("V-${count - 1}", vehicles.last()["vehicle_id"])
+            assertEquals("PARKED", vehicles[2]["status"])
+            assertEquals(42.5f, (vehicles[0]["position"] as Map<*, *>)["speed_kmh"])
+
+            val rounds = maxOf(20_000 / count, 3) * Harness.scale
+            val nanos = Harness.bestNanos(rounds, rounds) { decode(any) }
+            Harness.report(
+                "listVehicles x$count",
+                "first call us" to firstNanos / 1000,
+                "us/decode" to nanos / 1000,
+                "ns/element" to nanos / count
+            )
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package tr.akguel.decode
+
+import org.omg.CORBA.Any
+import org.omg.CORBA.StructMember
+import org.omg.CORBA.TCKind
+import org.omg.CORBA.TypeCode
+import org.omg.CORBA.portable.OutputStream
+import tr.akguel.TestOrb
+import java.util.Base64
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+/**
+ * `monitor.max.payload.bytes`: what a payload keeps when its decoded size
+ * exceeds the budget, and how the cut is reported.
+ */
+class PayloadBudgetTest {
+
+    private val orb = TestOrb.orb
+
+    private fun any(type: TypeCode, write: (OutputStream) -> Unit): Any {
+        val out = orb.create_output_stream()
+        write(out)
+        val any = orb.create_any()
+        any.read_value(out.create_input_stream(), type)
+        return any
+    }
+
+    private fun sequenceOf(id: String, element: TypeCode): TypeCode {
+        return orb.create_alias_tc(id, id.substringAfterLast('/').substringBefore(':'), orb.create_sequence_tc(0, element))
+    }
+
+    private fun decodeResult(value: Any, maxBytes: Int): Map<String, kotlin.Any> {
+        return CapturedPayload.result("getVehicle", value).decode(Long.MAX_VALUE, maxBytes)
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun counts(data: Map<String, kotlin.Any>): Map<String, Map<String, Int>>? {
+        return data["_element_counts"] as Map<String, Map<String, Int>>?
+    }
+
+    /** Struct of ten 100-character string members `m0`..`m9`. */
+    private val wideStruct: TypeCode by lazy {
+        orb.create_struct_tc(
+            "IDL:Test/Wide:1.0", "Wide",
+            Array(10) { StructMember("m$it", orb.create_string_tc(0), null) }
+        )
+    }
+
+    private fun wide(): Any = any(wideStruct) { out -> repeat(10) { out.write_string("x".repeat(100)) } }
+
+    @Test
+    fun `payloads within the budget are complete and not flagged`() {
+        val data = decodeResult(wide(), 65536)
+
+        assertEquals(10, (data["return_value"] as Map<*, *>).size)
+        assertNull(data["truncated"])
+        assertNull(data["_truncated_at"])
+    }
+
+    @Test
+    fun `over-budget struct keeps its first members and clips the member that crosses the limit`() {
+        // Each member costs its name (+4) and its quoted string: 108 bytes
+        val data = decodeResult(wide(), 300)
+
+        val value = data["return_value"] as Map<*, *>
+        assertEquals(listOf("m0", "m1", "m2"), value.keys.toList())
+        assertEquals(100, (value["m1"] as String).length)
+        assertEquals(300 - 2 * 108 - 6 - 2, (value["m2"] as String).length)
+        assertEquals(true, data["truncated"])
+        assertEquals("size", data["_truncated_by"])
+        assertEquals("return_value.m2", data["_truncated_at"])
+        assertNull(counts(data))
+        assertTrue((data["_note"] as String).startsWith("Payload exceeds monitor.max.payload.bytes"))
+    }
+
+    @Test
+    fun `over-budget sequence of structs reports the cut element and the element count`() {
+        val vehicle = orb.create_struct_tc(
+            "IDL:Test/Vehicle:1.0", "Vehicle", arrayOf(
+                StructMember("vehicle_id", orb.create_string_tc(0), null),
+                StructMember("odometer_km", orb.get_primitive_tc(TCKind.tk_ulong), null)
+            )
+        )
+        val type = sequenceOf("IDL:Test/VehicleList:1.0", vehicle)
+        val value = any(type) { out ->
+            out.write_ulong(1000)
+            for (i in 0 until 1000) {
+                out.write_string("V-$i")
+                out.write_ulong(i)
+            }
+        }
+
+        val data = decodeResult(value, 2000)
+
+        val list = data["return_value"] as List<*>
+        val count = counts(data)!!.getValue("return_value")
+        val decoded = count.getValue("decoded")
+        assertEquals(1000, count["total"])
+        assertTrue(decoded in 1 until 1000)
+        // The cut element is kept with the members decoded before the limit
+        assertEquals(decoded + 1, list.size)
+        assertEquals(mapOf("vehicle_id" to "V-0", "odometer_km" to 0L), list[0])
+        assertTrue((data["_truncated_at"] as String).startsWith("return_value[$decoded]."))
+        assertEquals("size", data["_truncated_by"])
+    }
+
+    @Test
+    fun `over-budget octet sequence is cut to the budget before encoding`() {
+        val bytes = ByteArray(10_000) { it.toByte() }
+        val type = sequenceOf("IDL:Test/Blob:1.0", orb.get_primitive_tc(TCKind.tk_octet))
+        val value = any(type) { out ->
+            out.write_ulong(bytes.size)
+            out.write_octet_array(bytes, 0, bytes.size)
+        }
+
+        val data = decodeResult(value, 1000)
+
+        val base64 = data["return_value"] as String
+        assertEquals(1000, base64.length)
+        assertTrue(Base64.getDecoder().decode(base64).contentEquals(bytes.copyOf(750)))
+        assertEquals(mapOf("decoded" to 750, "total" to 10_000), counts(data)!!["return_value"])
+        assertEquals("return_value[750]", data["_truncated_at"])
+    }
+
+    @Test
+    fun `over-budget char sequence is cut to the budget`() {
+        val type = sequenceOf("IDL:Test/Text:1.0", orb.get_primitive_tc(TCKind.tk_char))
+        val value = any(type) { out ->
+            out.write_ulong(5000)
+            repeat(5000) { out.write_char(('a' + it % 26)) }
+        }
+
+        val data = decodeResult(value, 500)
+
+        val text = data["return_value"] as String
+        assertEquals(498, text.length)
+        assertTrue(text.startsWith("abcdefghijklmnopqrstuvwxyz"))
+        assertEquals(mapOf("decoded" to 498, "total" to 5000), counts(data)!!["return_value"])
+        assertEquals("return_value[498]", data["_truncated_at"])
+    }
+
+    @Test
+    fun `nested sequences report a count per cut level`() {
+        val blob = sequenceOf("IDL:Test/Blob:1.0", orb.get_primitive_tc(TCKind.tk_octet))
+        val type = sequenceOf("IDL:Test/Blobs:1.0", blob)
+        val value = any(type) { out ->
+            out.write_ulong(10)
+            repeat(10) {
+                out.write_ulong(300)
+                out.write_octet_array(ByteArray(300), 0, 300)
+            }
+        }
+
+        val data = decodeResult(value, 1000)
+
+        val counts = counts(data)!!
+        val outer = counts.getValue("return_value")
+        val cut = outer.getValue("decoded")
+        assertEquals(10, outer["total"])
+        assertEquals(300, counts.getValue("return_value[$cut]")["total"])
+        assertTrue(counts.getValue("return_value[$cut]").getValue("decoded") < 300)
+        assertEquals("return_value[$cut][${counts.getValue("return_value[$cut]")["decoded"]}]", data["_truncated_at"])
+    }
+
+    @Test
+    fun `arguments after the one that exhausts the budget are left out`() {
+        val first = orb.create_any().apply { insert_string("y".repeat(5000)) }
+        val second = orb.create_any().apply { insert_long(7) }
+
+        val data = CapturedPayload.arguments("updateDriver", arrayOf(first, second)).decode(Long.MAX_VALUE, 1000)
+
+        val params = data["params"] as Map<*, *>
+        assertEquals(listOf("arg0"), params.keys.toList())
+        assertEquals(998, (params["arg0"] as String).length)
+        assertEquals("params.arg0", data["_truncated_at"])
+        assertTrue((data["_note"] as String).contains("decoded 1 of 2 arguments"))
+        assertFalse(data.containsKey("_element_counts"))
+    }
+}
@@ -0,0 +1,45 @@
+package tr.akguel.interceptor
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotEquals
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+
+class TargetMetadataCacheTest {
+
+    private fun metadata() = TargetMetadata(null, "IDL:FleetManagement/VehicleTracker:1.0", "VehicleTracker", "10.0.0.1", 2809, TargetMetadata.nextScope())
+
+    @Test
+    fun `targets get distinct timing scopes`() {
+        val scopes = List(1000) { metadata().scope }
+
+        assertEquals(scopes.size, scopes.toSet().size)
+        assertEquals(false, 0 in scopes)
+    }
+
+    @Test
+    fun `the first resolved entry wins`() {
+        val cache = TargetMetadataCache(64)
+        val target = Any()
+        val first = metadata()
+
+        assertSame(first, cache.put(target, first))
+        // A second thread that missed concurrently gets the cached entry and its scope
+        assertSame(first, cache.put(target, metadata()))
+        assertSame(first, cache.get(target))
+    }
+
+    @Test
+    fun `equal targets that are not identical have their own entries`() {
+        val cache = TargetMetadataCache(64)
+        val a = "target"
+        val b = String("target".toCharArray())
+        val metadataA = cache.put(a, metadata())
+        val metadataB = cache.put(b, metadata())
+
+        assertNotEquals(metadataA.scope, metadataB.scope)
+        assertSame(metadataB, cache.get(b))
+        assertNull(cache.get(Any()))
+    }
+}
@@ -0,0 +1,182 @@
+package tr.akguel.interceptor
+
+import tr.akguel.api.TrafficEvent
+import java.util.Random
+import java.util.concurrent.TimeUnit
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertSame
+
+class TimingTableTest {
+
+    private val ttlNanos = TimeUnit.MILLISECONDS.toNanos(64)
+    private val tickNanos = ttlNanos / TimingTable.WHEEL_SLOTS
+    private val expired = ArrayList<InvocationState>()
+    private val table = TimingTable(ttlNanos) { expired.add(it) }
+
+    /** Start times are relative to now, so the wheel's clock only moves when a test says so. */
+    private val base = System.nanoTime()
+
+    /** Keys of one stripe, so one stripe's probe chains and wheel are exercised. */
+    private fun keysOfStripe(stripe: Int, count: Int, home: Int? = null): List<Long> {
+        val keys = ArrayList<Long>()
+        var candidate = 1L
+        while (keys.size < count) {
+            val mix = TimingTable.mix(candidate)
+            val homeSlot = (mix ushr TimingTable.STRIPE_BITS) and (TimingTable.INITIAL_CAPACITY - 1)
+            if (mix and (TimingTable.STRIPES - 1) == stripe && (home == null || homeSlot == home)) {
+                keys.add(candidate)
+            }
+            candidate++
+        }
+        return keys
+    }
+
+    @Test
+    fun `removal inside a probe chain that wraps around`() {
+        // Four keys with the last slot as home: the chain runs over the end into slots 0..2
+        val chain = keysOfStripe(0, 4, home = TimingTable.INITIAL_CAPACITY - 1)
+        chain.forEachIndexed { i, key -> table.begin(key, base + i) }
+
+        assertEquals(base + 1, table.remove(chain[1])?.startNanos)
+        assertNull(table.remove(chain[1]))
+        // Backward shift must keep the keys behind the hole reachable
+        assertEquals(base + 3, table.remove(chain[3])?.startNanos)
+        assertEquals(base + 2, table.remove(chain[2])?.startNanos)
+        assertEquals(base, table.remove(chain[0])?.startNanos)
+        assertEquals(0, table.size())
+    }
+
+    @Test
+    fun `a key with another home stays reachable after removals around it`() {
+        val chain = keysOfStripe(0, 3, home = TimingTable.INITIAL_CAPACITY - 2)
+        // Home slot 0, displaced by the wrapped chain
+        val other = keysOfStripe(0, 1, home = 0).single()
+        chain.forEach { table.begin(it, base) }
+        table.begin(other, base + 1)
+
+        table.remove(chain[0])
+        table.remove(chain[2])
+
+        assertEquals(base + 1, table.remove(other)?.startNanos)
+        assertNotNull(table.remove(chain[1]))
+        assertEquals(0, table.size())
+    }
+
+    @Test
+    fun `one stripe grows past its initial capacity`() {
+        val keys = keysOfStripe(3, TimingTable.INITIAL_CAPACITY * 8)
+        keys.forEachIndexed { i, key -> table.begin(key, base + i % tickNanos) }
+        assertEquals(keys.size, table.size())
+
+        // Every other key, then the rest
+        for (i in keys.indices step 2) assertEquals(base + i % tickNanos, table.remove(keys[i])?.startNanos)
+        for (i in 1 until keys.size step 2) assertEquals(base + i % tickNanos, table.remove(keys[i])?.startNanos)
+        assertEquals(0, table.size())
+        assertEquals(0, expired.size)
+    }
+
+    @Test
+    fun `random begin and remove agree with a map`() {
+        val random = Random(42)
+        val reference = HashMap<Long, Long>()
+        repeat(200_000) { n ->
+            // A small key range keeps chains long and reuses keys
+            val key = random.nextInt(2_000).toLong()
+            if (random.nextBoolean()) {
+                val start = base + n % tickNanos
+                table.begin(key, start)
+                reference[key] = start
+            } else {
+                assertEquals(reference.remove(key), table.remove(key)?.startNanos, "key $key")
+            }
+        }
+        assertEquals(reference.size, table.size())
+        for ((key, start) in reference) assertEquals(start, table.remove(key)?.startNanos)
+    }
+
+    @Test
+    fun `begin replaces the state of a key`() {
+        val pending = TrafficEvent().operation("getVehicle")
+        table.begin(7, base)
+        table.begin(7, base + 1, pending)
+
+        val state = table.remove(7)
+
+        assertEquals(base + 1, state?.startNanos)
+        assertSame(pending, state?.pending)
+        assertEquals(0, table.size())
+    }
+
+    @Test
+    fun `attach holds back an event on a timed or untimed key`() {
+        val pending = TrafficEvent().operation("getVehicle")
+        table.begin(1, base)
+        table.attach(1, pending)
+        table.attach(2, pending)
+
+        assertEquals(base, table.remove(1)?.startNanos)
+        assertSame(pending, table.remove(2)?.pending)
+    }
+
+    @Test
+    fun `entries expire one TTL after their start`() {
+        val (old, young, trigger) = keysOfStripe(5, 3)
+        table.begin(old, base)
+        table.begin(young, base + 10 * tickNanos, TrafficEvent().operation("ping"))
+
+        table.begin(trigger, base + ttlNanos + 2 * tickNanos)
+
+        assertEquals(1, table.expiredCount.get())
+        assertEquals(listOf(base), expired.map { it.startNanos })
+        assertNull(table.remove(old))
+        assertNotNull(table.remove(young))
+        assertNotNull(table.remove(trigger))
+    }
+
+    @Test
+    fun `expiry hands over the held-back event`() {
+        val (first, trigger) = keysOfStripe(6, 2)
+        val pending = TrafficEvent().operation("listVehicles")
+        table.begin(first, base, pending)
+
+        table.begin(trigger, base + 2 * ttlNanos)
+
+        assertSame(pending, expired.single().pending)
+    }
+
+    @Test
+    fun `removed and restarted keys are not expired by their old slot`() {
+        val (key, trigger) = keysOfStripe(7, 2)
+        table.begin(key, base)
+        table.remove(key)
+        table.begin(key, base + 50 * tickNanos)
+
+        table.begin(trigger, base + ttlNanos + 2 * tickNanos)
+
+        assertEquals(0, table.expiredCount.get())
+        assertEquals(base + 50 * tickNanos, table.remove(key)?.startNanos)
+    }
+
+    @Test
+    fun `an idle gap of several revolutions expires everything once`() {
+        val keys = keysOfStripe(9, 100)
+        keys.forEachIndexed { i, key -> table.begin(key, base + (i % 60) * tickNanos) }
+        val late = keysOfStripe(9, 102).takeLast(2)
+
+        // Ten TTLs without traffic on this stripe
+        val resumed = base + 10 * ttlNanos
+        table.begin(late[0], resumed)
+
+        assertEquals(100, table.expiredCount.get())
+        assertEquals(1, table.size())
+
+        // The wheel keeps working after the gap
+        table.begin(late[1], resumed + ttlNanos + 2 * tickNanos)
+        assertEquals(101, table.expiredCount.get())
+        assertNotNull(table.remove(late[1]))
+        assertEquals(0, table.size())
+    }
+}
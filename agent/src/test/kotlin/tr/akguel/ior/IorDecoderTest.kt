@@ -0,0 +1,241 @@
+package tr.akguel.ior
+
+import org.omg.CORBA.ORB
+import org.omg.PortableServer.IdAssignmentPolicyValue
+import org.omg.PortableServer.POAHelper
+import java.io.ByteArrayOutputStream
+import java.util.*
+import kotlin.test.Test
+import kotlin.test.assertContentEquals
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class IorDecoderTest {
+
+    /**
+     * Writer for CDR encapsulations: alignment is relative to the first octet,
+     * which carries the byte order.
+     */
+    private class Cdr(private val littleEndian: Boolean) {
+        private val out = ByteArrayOutputStream()
+
+        init {
+            out.write(if (littleEndian) 1 else 0)
+        }
+
+        fun octet(value: Int): Cdr {
+            out.write(value)
+            return this
+        }
+
+        fun ushort(value: Int): Cdr {
+            align(2)
+            return bytes(value, 2)
+        }
+
+        fun ulong(value: Int): Cdr {
+            align(4)
+            return bytes(value, 4)
+        }
+
+        fun string(value: String): Cdr {
+            ulong(value.length + 1)
+            out.write(value.toByteArray(Charsets.ISO_8859_1))
+            out.write(0)
+            return this
+        }
+
+        fun octets(value: ByteArray): Cdr {
+            ulong(value.size)
+            out.write(value)
+            return this
+        }
+
+        /** A tagged profile or component whose body is another encapsulation. */
+        fun tagged(tag: Int, body: Cdr): Cdr {
+            ulong(tag)
+            return octets(body.toByteArray())
+        }
+
+        fun toByteArray(): ByteArray = out.toByteArray()
+
+        private fun bytes(value: Int, size: Int): Cdr {
+            for (i in 0 until size) {
+                val shift = if (littleEndian) 8 * i else 8 * (size - 1 - i)
+                out.write((value ushr shift) and 0xFF)
+            }
+            return this
+        }
+
+        private fun align(boundary: Int) {
+            while (out.size() % boundary != 0) out.write(0)
+        }
+    }
+
+    private fun iiopProfile(
+        minor: Int,
+        host: String,
+        port: Int,
+        key: String,
+        littleEndian: Boolean = false,
+        alternates: List<IiopAddress> = emptyList()
+    ): Cdr {
+        val profile = Cdr(littleEndian).octet(1).octet(minor).string(host).ushort(port).octets(key.toByteArray())
+        if (minor >= 1) {
+            profile.ulong(alternates.size)
+            for (alternate in alternates) {
+                profile.tagged(
+                    IorDecoder.TAG_ALTERNATE_IIOP_ADDRESS,
+                    Cdr(littleEndian).string(alternate.host).ushort(alternate.port)
+                )
+            }
+        }
+        return profile
+    }
+
+    private fun ior(typeId: String, vararg profiles: Pair<Int, Cdr>, littleEndian: Boolean = false): String {
+        val ior = Cdr(littleEndian).string(typeId).ulong(profiles.size)
+        for ((tag, body) in profiles) {
+            ior.tagged(tag, body)
+        }
+        return "IOR:" + ior.toByteArray().joinToString("") { "%02x".format(it) }
+    }
+
+    @Test
+    fun `JacORB references decode`() {
+        val props = Properties()
+        props.setProperty("org.omg.CORBA.ORBClass", "org.jacorb.orb.ORB")
+        props.setProperty("org.omg.CORBA.ORBSingletonClass", "org.jacorb.orb.ORBSingleton")
+        props.setProperty("jacorb.log.default.verbosity", "0")
+        props.setProperty("OAIAddr", "127.0.0.1")
+        props.setProperty("jacorb.iiop.alternate_addresses", "10.1.2.3:3001,backup.example:3002")
+        val orb = ORB.init(arrayOf<String>(), props)
+        try {
+            val root = POAHelper.narrow(orb.resolve_initial_references("RootPOA"))
+            val poa = root.create_POA(
+                "Tracker",
+                null,
+                arrayOf(root.create_id_assignment_policy(IdAssignmentPolicyValue.USER_ID))
+            )
+            val reference = poa.create_reference_with_id(
+                "vehicle-1".toByteArray(),
+                "IDL:FleetManagement/VehicleTracker:1.0"
+            )
+
+            val decoded = assertNotNull(IorDecoder.parse(orb.object_to_string(reference)))
+
+            assertEquals("IDL:FleetManagement/VehicleTracker:1.0", decoded.typeId)
+            val profile = decoded.profiles.first()
+            assertEquals("1.2", profile.version)
+            assertEquals("127.0.0.1", profile.address.host)
+            assertTrue(profile.address.port > 0)
+            assertTrue(String(profile.objectKey, Charsets.ISO_8859_1).endsWith("vehicle-1"))
+            assertEquals(
+                listOf(IiopAddress("10.1.2.3", 3001), IiopAddress("backup.example", 3002)),
+                profile.alternateAddresses
+            )
+        } finally {
+            orb.shutdown(false)
+        }
+    }
+
+    @Test
+    fun `IIOP 1_0 profile has no components`() {
+        val ior = ior("IDL:Test:1.0", IorDecoder.TAG_INTERNET_IOP to iiopProfile(0, "host-a", 2809, "key"))
+
+        val profile = IorDecoder.parse(ior)!!.profiles.single()
+
+        assertEquals("1.0", profile.version)
+        assertEquals(IiopAddress("host-a", 2809), profile.address)
+        assertContentEquals("key".toByteArray(), profile.objectKey)
+        assertTrue(profile.alternateAddresses.isEmpty())
+    }
+
+    @Test
+    fun `IIOP 1_1 and 1_2 alternate addresses in either byte order`() {
+        val alternates = listOf(IiopAddress("10.0.0.7", 40000), IiopAddress("fallback", 2810))
+        for (minor in 1..2) {
+            for (outerLittle in listOf(false, true)) {
+                for (innerLittle in listOf(false, true)) {
+                    val ior = ior(
+                        "IDL:Test:1.0",
+                        IorDecoder.TAG_INTERNET_IOP to iiopProfile(minor, "host-b", 65535, "k", innerLittle, alternates),
+                        littleEndian = outerLittle
+                    )
+
+                    val profile = IorDecoder.parse(ior)!!.profiles.single()
+
+                    val label = "1.$minor outer LE=$outerLittle inner LE=$innerLittle"
+                    assertEquals("1.$minor", profile.version, label)
+                    assertEquals(IiopAddress("host-b", 65535), profile.address, label)
+                    assertEquals(alternates, profile.alternateAddresses, label)
+                }
+            }
+        }
+    }
+
+    @Test
+    fun `other profiles are skipped`() {
+        val ior = ior(
+            "IDL:Test:1.0",
+            IorDecoder.TAG_MULTIPLE_COMPONENTS to Cdr(false).ulong(0),
+            IorDecoder.TAG_INTERNET_IOP to iiopProfile(2, "host-c", 1234, "k")
+        )
+
+        val decoded = IorDecoder.parse(ior)!!
+
+        assertEquals(listOf(IorDecoder.TAG_MULTIPLE_COMPONENTS, IorDecoder.TAG_INTERNET_IOP), decoded.profileTags)
+        assertEquals(IiopAddress("host-c", 1234), decoded.primaryAddress)
+    }
+
+    @Test
+    fun `corbaloc with IPv6, default port and escaped key`() {
+        val decoded = IorDecoder.parse("corbaloc:iiop:1.2@[fe80::1]:2810,:backup.example,rir:/Name%20Service%2fRoot")!!
+
+        assertEquals(
+            listOf(IiopAddress("fe80::1", 2810), IiopAddress("backup.example", 2809)),
+            decoded.profiles.map { it.address }
+        )
+        assertEquals("1.2", decoded.profiles[0].version)
+        assertEquals("1.0", decoded.profiles[1].version)
+        assertContentEquals("Name Service/Root".toByteArray(), decoded.profiles[0].objectKey)
+        assertContentEquals(byteArrayOf(0, -1), IorDecoder.parse("corbaloc::[::1]/%00%FF")!!.profiles[0].objectKey)
+        assertEquals(2809, IorDecoder.parse("corbaloc::[::1]/NameService")!!.primaryAddress!!.port)
+        assertNull(IorDecoder.parse("corbaloc:rir:/NameService"))
+    }
+
+    @Test
+    fun `malformed references are rejected`() {
+        val malformed = listOf(
+            "IOR:0",
+            "IOR:0g00",
+            "IOR:zz",
+            "corbaloc::host:notaport/key",
+            "corbaloc::host:70000/key",
+            "corbaloc::[fe80::1/key",
+            "corbaloc::host/bad%2",
+            "corbaloc::host/bad%zz"
+        )
+        for (reference in malformed) {
+            assertFailsWith<IllegalArgumentException>(reference) { IorDecoder.parse(reference) }
+            assertNull(IorDecoder.decode(reference), reference)
+        }
+    }
+
+    @Test
+    fun `truncated IORs are rejected`() {
+        val ior = ior(
+            "IDL:Test:1.0",
+            IorDecoder.TAG_INTERNET_IOP to iiopProfile(2, "host-d", 2809, "key", alternates = listOf(IiopAddress("a", 1)))
+        )
+
+        for (length in 4 until ior.length step 2) {
+            val truncated = ior.substring(0, length)
+            assertFailsWith<IllegalArgumentException>(truncated) { IorDecoder.parse(truncated) }
+        }
+        assertNotNull(IorDecoder.parse(ior))
+    }
+}
@@ -0,0 +1,121 @@
+package tr.akguel.metrics
+
+import tr.akguel.api.LatencySummary
+import tr.akguel.api.TrafficEvent
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.CountDownLatch
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+class LatencyAggregatorTest {
+
+    private val shipped = ConcurrentLinkedQueue<LatencySummary>()
+
+    // Intervals are closed by calling flush() directly
+    private fun aggregator(maxSeries: Int) = LatencyAggregator(3600, maxSeries) { shipped.addAll(it) }.also { aggregators.add(it) }
+
+    private val aggregators = ArrayList<LatencyAggregator>()
+
+    @AfterTest
+    fun shutdown() {
+        aggregators.forEach { it.shutdown() }
+    }
+
+    private fun call(operation: String, latencyMs: Long, status: String = "success", host: String = "10.0.0.1"): TrafficEvent {
+        return TrafficEvent()
+            .interfaceName("VehicleTracker")
+            .operation(operation)
+            .status(status)
+            .targetHost(host)
+            .targetPort(2809)
+            .latencyNanos(latencyMs * 1_000_000)
+    }
+
+    @Test
+    fun `events without latency are not aggregated`() {
+        val aggregator = aggregator(10)
+
+        assertEquals(false, aggregator.record(TrafficEvent().operation("ping")))
+        aggregator.flush()
+
+        assertTrue(shipped.isEmpty())
+    }
+
+    @Test
+    fun `series beyond maxSeries fold into _other per status`() {
+        val aggregator = aggregator(2)
+        aggregator.record(call("ping", 1))
+        aggregator.record(call("getVehicle", 2))
+        // The map is full: new combinations go to _other
+        aggregator.record(call("listVehicles", 30))
+        aggregator.record(call("getVehicle", 4, host = "10.0.0.2"))
+        aggregator.record(call("getVehicle", 5, status = "exception"))
+
+        aggregator.flush()
+
+        val byOperation = shipped.groupBy { it.operation to it.status }
+        assertEquals(1, byOperation.getValue("ping" to "success").single().count)
+        assertEquals(1, byOperation.getValue("getVehicle" to "success").single().count)
+        val other = byOperation.getValue("_other" to "success").single()
+        assertEquals(2, other.count)
+        assertEquals(null, other.interfaceName)
+        assertEquals(null, other.target)
+        assertEquals(30.0, other.maxMs, 30.0 * 0.03)
+        val otherErrors = byOperation.getValue("_other" to "exception").single()
+        assertEquals(1, otherErrors.errorCount)
+        assertEquals(3, aggregator.overflowCount.get())
+    }
+
+    @Test
+    fun `summaries carry the percentiles of the interval`() {
+        val aggregator = aggregator(10)
+        for (ms in 1L..100L) aggregator.record(call("getVehicleCount", ms))
+
+        aggregator.flush()
+        aggregator.flush()
+
+        val summary = shipped.single()
+        assertEquals(100, summary.count)
+        assertEquals(50.0, summary.p50Ms, 50.0 * 0.03)
+        assertEquals(90.0, summary.p90Ms, 90.0 * 0.03)
+        assertEquals(99.0, summary.p99Ms, 99.0 * 0.03)
+        assertEquals(100.0, summary.maxMs, 100.0 * 0.03)
+        assertEquals("10.0.0.1:2809", summary.target)
+    }
+
+    @Test
+    fun `evicted series keep recording`() {
+        val aggregator = aggregator(10)
+        aggregator.record(call("ping", 1))
+        // One interval with data, then enough idle ones to evict the series
+        repeat(11) { aggregator.flush() }
+        aggregator.record(call("ping", 2))
+        aggregator.flush()
+
+        assertEquals(listOf(1L, 1L), shipped.map { it.count })
+    }
+
+    @Test
+    fun `no call is lost while series are evicted concurrently`() {
+        val aggregator = aggregator(1000)
+        val threads = 4
+        val perThread = 20_000
+        val done = CountDownLatch(threads)
+        repeat(threads) { t ->
+            Thread {
+                for (i in 0 until perThread) {
+                    // Sparse keys go idle between their calls and get evicted while recorded
+                    aggregator.record(call("op${(i * 7 + t) % 50}", 1))
+                    if (i % 64 == 0) Thread.yield()
+                }
+                done.countDown()
+            }.start()
+        }
+        while (done.count > 0) aggregator.flush()
+        aggregator.flush()
+
+        assertEquals(threads.toLong() * perThread, shipped.sumOf { it.count })
+    }
+}
@@ -0,0 +1,76 @@
+package tr.akguel.metrics
+
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertNotNull
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class LatencyHistogramTest {
+
+    private fun assertWithin(expected: Double, actual: Double, relative: Double, what: String) {
+        assertTrue(Math.abs(actual - expected) <= expected * relative, "$what: expected ~$expected, got $actual")
+    }
+
+    @Test
+    fun `values below 64 us have exact buckets`() {
+        val histogram = LatencyHistogram()
+        for (micros in 1..63) histogram.record(micros / 1000.0, false)
+
+        val snapshot = assertNotNull(histogram.drain())
+
+        assertEquals(63, snapshot.count)
+        assertEquals(0.032, snapshot.percentileMs(0.5))
+        assertEquals(0.063, snapshot.percentileMs(1.0))
+        assertEquals(0.001, snapshot.percentileMs(0.0))
+    }
+
+    @Test
+    fun `percentiles stay within the bucket precision`() {
+        val histogram = LatencyHistogram()
+        // 1 µs .. 100 ms, uniformly
+        for (micros in 1..100_000) histogram.record(micros / 1000.0, micros % 100 == 0)
+
+        val snapshot = assertNotNull(histogram.drain())
+
+        assertEquals(100_000, snapshot.count)
+        assertEquals(1_000, snapshot.errorCount)
+        assertEquals(100_000, snapshot.maxMicros)
+        assertWithin(50.0, snapshot.percentileMs(0.5), 0.03, "p50")
+        assertWithin(90.0, snapshot.percentileMs(0.9), 0.03, "p90")
+        assertWithin(99.0, snapshot.percentileMs(0.99), 0.03, "p99")
+        assertWithin(99.9, snapshot.percentileMs(0.999), 0.03, "p999")
+        assertWithin(50.0005, snapshot.meanMs, 1e-6, "mean")
+    }
+
+    @Test
+    fun `percentiles never exceed the max and huge values are clamped`() {
+        val histogram = LatencyHistogram()
+        histogram.record(70.0, false)
+        histogram.record(1e12, true)
+
+        val snapshot = assertNotNull(histogram.drain())
+
+        assertTrue(snapshot.percentileMs(0.5) <= 70.0 * 1.03)
+        assertEquals(LatencyHistogram.MAX_MICROS, snapshot.maxMicros)
+        assertWithin(LatencyHistogram.MAX_MICROS / 1000.0, snapshot.percentileMs(1.0), 0.03, "p100")
+    }
+
+    @Test
+    fun `drain resets and merge adds a snapshot back`() {
+        val histogram = LatencyHistogram()
+        histogram.record(5.0, true)
+        histogram.record(7.0, false)
+        val first = assertNotNull(histogram.drain())
+        assertNull(histogram.drain())
+
+        histogram.record(1.0, false)
+        histogram.merge(first)
+        val merged = assertNotNull(histogram.drain())
+
+        assertEquals(3, merged.count)
+        assertEquals(1, merged.errorCount)
+        assertEquals(13_000, merged.sumMicros)
+        assertEquals(7_000, merged.maxMicros)
+    }
+}
@@ -0,0 +1,175 @@
+package tr.akguel.rules
+
+import tr.akguel.config.MonitorConfig
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertTrue
+
+class CaptureRulesTest {
+
+    private val tracker = arrayOf("IDL:FleetManagement/VehicleTracker:1.0")
+
+    @AfterTest
+    fun restore() {
+        MonitorConfig.clearOverrides()
+    }
+
+    private fun rules(spec: String, request: Boolean = true, response: Boolean = true): CaptureRules {
+        MonitorConfig.setOverride("monitor.capture.request", request.toString())
+        MonitorConfig.setOverride("monitor.capture.response", response.toString())
+        return MonitorConfig.setOverride("monitor.rules", spec).captureRules
+    }
+
+    private fun CaptureRules.action(
+        operation: String?,
+        side: String = "client",
+        repositoryIds: Array<String>? = tracker,
+        host: String? = "10.0.0.1"
+    ): CaptureAction {
+        return forTarget(side, repositoryIds, host).actionFor(operation)
+    }
+
+    @Test
+    fun `pattern forms`() {
+        val exact = CaptureRules.Pattern("ping")
+        assertTrue(exact.matches("ping"))
+        assertFalse(exact.matches("pings"))
+
+        val prefix = CaptureRules.Pattern("get*")
+        assertTrue(prefix.matches("getVehicle"))
+        assertTrue(prefix.matches("get"))
+        assertFalse(prefix.matches("forget"))
+
+        val suffix = CaptureRules.Pattern("*Count")
+        assertTrue(suffix.matches("getVehicleCount"))
+        assertFalse(suffix.matches("getCounter"))
+
+        val contains = CaptureRules.Pattern("*Vehicle*")
+        assertTrue(contains.matches("IDL:FleetManagement/VehicleTracker:1.0"))
+        assertFalse(contains.matches("IDL:FleetManagement/Driver:1.0"))
+
+        val regex = CaptureRules.Pattern("get*By*")
+        assertTrue(regex.matches("getVehicleById"))
+        assertFalse(regex.matches("getVehicle"))
+        // Regex characters in the glob are literal
+        val dotted = CaptureRules.Pattern("IDL:a.b/*:1.0")
+        assertTrue(dotted.matches("IDL:a.b/X:1.0"))
+        assertFalse(dotted.matches("IDL:aXb/X:1.0"))
+
+        assertTrue(CaptureRules.Pattern("*").matches(""))
+    }
+
+    @Test
+    fun `alternatives are trimmed and may mix forms`() {
+        val pattern = CaptureRules.Pattern(" ping | update* ||*Count ")
+
+        assertTrue(pattern.matches("ping"))
+        assertTrue(pattern.matches("updatePosition"))
+        assertTrue(pattern.matches("getVehicleCount"))
+        assertFalse(pattern.matches("getVehicle"))
+        assertFalse(pattern.matches(""))
+    }
+
+    @Test
+    fun `first matching rule wins, unmatched calls get the default action`() {
+        val rules = rules("op=get* -> metrics-only; op=getVehicle -> capture-full; op=ping -> events-only", request = false)
+
+        assertEquals(CaptureAction.METRICS_ONLY, rules.action("getVehicle"))
+        assertEquals(CaptureAction.EVENTS_ONLY, rules.action("ping"))
+        assertEquals(CaptureAction.CAPTURE_RESULT, rules.action("listVehicles"))
+        // The memoized answer is the same on the next call
+        assertEquals(CaptureAction.METRICS_ONLY, rules.action("getVehicle"))
+    }
+
+    @Test
+    fun `side, host and repo conditions select the target`() {
+        val rules = rules(
+            "side=server,op=ping -> skip;" +
+                "host=10.9.*,op=ping -> metrics-only;" +
+                "repo=*Tracker*|*Dispatcher*,op=update* -> capture-args;" +
+                "repo=*Driver* -> events-only"
+        )
+
+        assertEquals(CaptureAction.SKIP, rules.action("ping", side = "server"))
+        assertEquals(CaptureAction.CAPTURE_FULL, rules.action("ping", side = "client"))
+        assertEquals(CaptureAction.METRICS_ONLY, rules.action("ping", host = "10.9.0.3"))
+        assertEquals(CaptureAction.CAPTURE_FULL, rules.action("ping", host = null))
+
+        assertEquals(CaptureAction.CAPTURE_ARGS, rules.action("updatePosition"))
+        assertEquals(CaptureAction.CAPTURE_ARGS, rules.action("updatePosition", repositoryIds = arrayOf("IDL:X/Dispatcher:1.0")))
+        // Any of the target's ids can match
+        assertEquals(
+            CaptureAction.EVENTS_ONLY,
+            rules.action("getName", repositoryIds = arrayOf("IDL:X/Person:1.0", "IDL:X/Driver:1.0"))
+        )
+        // Unknown repository ids match no repo rule
+        assertEquals(CaptureAction.CAPTURE_FULL, rules.action("updatePosition", repositoryIds = null))
+    }
+
+    @Test
+    fun `rules with an op condition do not match calls without an operation`() {
+        val rules = rules("op=* -> metrics-only; repo=*Tracker* -> events-only")
+
+        assertEquals(CaptureAction.EVENTS_ONLY, rules.action(null))
+        assertEquals(CaptureAction.METRICS_ONLY, rules.action("ping"))
+    }
+
+    @Test
+    fun `malformed rules are ignored`() {
+        val builtin = rules("").ruleCount
+        val rules = rules(
+            "op=ping; op=ping -> explode; color=red -> skip; side=both -> skip; =ping -> skip; op -> skip;" +
+                " ; OP=getVehicle -> METRICS-ONLY"
+        )
+
+        assertEquals(builtin + 1, rules.ruleCount)
+        assertEquals(CaptureAction.METRICS_ONLY, rules.action("getVehicle"))
+        assertEquals(CaptureAction.CAPTURE_FULL, rules.action("ping", side = "server"))
+    }
+
+    @Test
+    fun `built-in rules skip the baseline infrastructure set`() {
+        val rules = rules("")
+        // SKIP_OPERATIONS and SKIP_INTERFACE_FRAGMENTS of the interceptors before monitor.rules
+        val operations = listOf(
+            "_is_a", "_non_existent", "_get_interface_def", "_get_component",
+            "_get_domain_managers", "_get_policy", "_repository_id",
+            "resolve", "resolve_str", "bind", "rebind", "unbind",
+            "bind_context", "rebind_context", "bind_new_context",
+            "list", "to_name", "to_string", "destroy", "new_context", "to_url",
+            "resolve_initial_references"
+        )
+        val fragments = listOf("CosNaming", "NamingContext", "PortableServer", "IORTable", "CORBA/Repository", "InitialReferences")
+
+        for (side in listOf("client", "server")) {
+            for (op in operations) assertEquals(CaptureAction.SKIP, rules.action(op, side), "$side $op")
+            assertEquals(CaptureAction.CAPTURE_FULL, rules.action("getVehicle", side))
+        }
+        for (fragment in fragments) {
+            val ids = arrayOf("IDL:omg.org/$fragment/Thing:1.0")
+            assertEquals(CaptureAction.SKIP, rules.action("getVehicle", repositoryIds = ids), fragment)
+        }
+        assertEquals(CaptureAction.SKIP, rules.action("ping", repositoryIds = arrayOf("IDL:omg.org/CosNaming/NamingContextExt:1.0")))
+    }
+
+    @Test
+    fun `built-in rules cannot be overridden`() {
+        val rules = rules("op=resolve|_is_a -> capture-full; repo=*CosNaming* -> capture-full")
+
+        assertEquals(CaptureAction.SKIP, rules.action("resolve"))
+        assertEquals(CaptureAction.SKIP, rules.action("_is_a"))
+        assertEquals(CaptureAction.SKIP, rules.action("getVehicle", repositoryIds = arrayOf("IDL:omg.org/CosNaming/NamingContext:1.0")))
+    }
+
+    @Test
+    fun `a reload compiles new rules`() {
+        val before = rules("op=ping -> metrics-only")
+        val after = rules("op=ping -> events-only")
+
+        assertEquals(CaptureAction.METRICS_ONLY, before.action("ping"))
+        assertEquals(CaptureAction.EVENTS_ONLY, after.action("ping"))
+        assertTrue(before.forTarget("client", tracker, null).owner === before)
+    }
+}
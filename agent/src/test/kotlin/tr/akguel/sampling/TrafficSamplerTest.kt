@@ -0,0 +1,149 @@
+package tr.akguel.sampling
+
+import tr.akguel.api.TrafficEvent
+import tr.akguel.config.MonitorConfig
+import kotlin.test.AfterTest
+import kotlin.test.Test
+import kotlin.test.assertEquals
+import kotlin.test.assertFalse
+import kotlin.test.assertNull
+import kotlin.test.assertTrue
+
+class TrafficSamplerTest {
+
+    @AfterTest
+    fun restore() {
+        MonitorConfig.clearOverrides()
+    }
+
+    private fun sampler(
+        defaultRate: Double = 1.0,
+        rates: String = "",
+        limits: String = "",
+        tailMs: Long = 1000
+    ): TrafficSampler {
+        MonitorConfig.setOverride("monitor.sampling.default.rate", defaultRate.toString())
+        MonitorConfig.setOverride("monitor.sampling.rates", rates)
+        MonitorConfig.setOverride("monitor.sampling.limits", limits)
+        return TrafficSampler(MonitorConfig.setOverride("monitor.sampling.tail.latency.ms", tailMs.toString()))
+    }
+
+    private fun call(
+        operation: String,
+        requestId: String = "1f",
+        interfaceName: String? = "VehicleTracker",
+        status: String = "success",
+        latencyMs: Long? = null
+    ): TrafficEvent {
+        val event = TrafficEvent()
+            .requestId(requestId)
+            .interfaceName(interfaceName)
+            .operation(operation)
+            .status(status)
+        if (latencyMs != null) event.latencyNanos(latencyMs * 1_000_000)
+        return event
+    }
+
+    @Test
+    fun `exceptions, timeouts and slow calls are always kept with weight 1`() {
+        val sampler = sampler(defaultRate = 0.0, tailMs = 500)
+
+        for (event in listOf(
+            call("getVehicle", status = "exception"),
+            call("getVehicle", status = "timeout"),
+            call("getVehicle", status = "error"),
+            call("getVehicle", latencyMs = 500),
+            call("getVehicle", latencyMs = 2000)
+        )) {
+            assertTrue(sampler.sample(event), "${event.status} ${event.latencyNanos}")
+            assertEquals(1.0, event.sampleWeight)
+        }
+        assertEquals(5, sampler.tailKeptCount.get())
+
+        val fast = call("getVehicle", latencyMs = 499)
+        assertFalse(sampler.sample(fast))
+        assertNull(fast.sampleWeight)
+        assertEquals(1, sampler.sampledOutCount.get())
+    }
+
+    @Test
+    fun `request and reply events of a call get the same decision`() {
+        val sampler = sampler(defaultRate = 0.5)
+        var kept = 0
+        for (i in 0 until 2000) {
+            val id = Integer.toHexString(0x4000 + i)
+            val request = call("getVehicle", requestId = id)
+            val reply = call("getVehicle", requestId = id, latencyMs = 3).direction("reply")
+
+            val keepRequest = sampler.sample(request)
+            assertEquals(keepRequest, sampler.sample(reply), "request $id")
+            if (keepRequest) {
+                kept++
+                assertEquals(2.0, request.sampleWeight)
+                assertEquals(2.0, reply.sampleWeight)
+            }
+        }
+        assertTrue(kept in 800..1200, "kept $kept of 2000")
+    }
+
+    @Test
+    fun `unitHash is stable and within 0 to 1`() {
+        for (i in 0 until 10_000) {
+            val id = Integer.toHexString(i)
+            val hash = TrafficSampler.unitHash(id)
+            assertTrue(hash >= 0.0 && hash < 1.0, "$id -> $hash")
+            assertEquals(hash, TrafficSampler.unitHash(String(id.toCharArray())))
+        }
+    }
+
+    @Test
+    fun `qualified rule keys win over bare operation names`() {
+        val sampler = sampler(rates = "ping:0, VehicleTracker.ping:1")
+
+        assertTrue(sampler.sample(call("ping", interfaceName = "VehicleTracker")))
+        assertFalse(sampler.sample(call("ping", interfaceName = "DriverRegistry")))
+        assertFalse(sampler.sample(call("ping", interfaceName = null)))
+        // Operations without a rule use the default rate
+        assertTrue(sampler.sample(call("getVehicle")))
+    }
+
+    @Test
+    fun `sample weight is the inverse of the rate`() {
+        val sampler = sampler(defaultRate = 1.0, rates = "getVehicleCount:0.25")
+        val kept = (0 until 400).map { call("getVehicleCount", requestId = "r$it") }.filter { sampler.sample(it) }
+
+        assertTrue(kept.isNotEmpty())
+        assertTrue(kept.all { it.sampleWeight == 4.0 })
+        val full = call("listVehicles")
+        assertTrue(sampler.sample(full))
+        assertEquals(1.0, full.sampleWeight)
+    }
+
+    @Test
+    fun `token bucket caps an operation to its limit per second`() {
+        val sampler = sampler(limits = "ping:5, VehicleTracker.getVehicle:2")
+
+        val admitted = (0 until 100).count { sampler.sample(call("ping", requestId = "p$it")) }
+        assertEquals(5, admitted)
+        assertEquals(95, sampler.rateLimitedCount.get())
+
+        // The qualified limit only applies to its interface
+        assertEquals(2, (0 until 10).count { sampler.sample(call("getVehicle", requestId = "g$it")) })
+        assertEquals(10, (0 until 10).count {
+            sampler.sample(call("getVehicle", requestId = "d$it", interfaceName = "DriverRegistry"))
+        })
+    }
+
+    @Test
+    fun `rate-limited events carry the offered to admitted ratio of the previous second`() {
+        val sampler = sampler(limits = "ping:5")
+        repeat(20) { sampler.sample(call("ping", requestId = "a$it")) }
+        Thread.sleep(1100)
+
+        val event = call("ping", requestId = "b")
+        assertTrue(sampler.sample(event))
+
+        // 20 offered, 5 admitted in the first second
+        assertEquals(4.0, event.sampleWeight)
+    }
+}